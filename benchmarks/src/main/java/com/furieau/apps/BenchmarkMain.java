@@ -0,0 +1,23 @@
+package com.furieau.apps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基准测试入口，默认把结果以 JSON 写入 benchmarks.json
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-rf")) {
+            options.add(0, "json");
+            options.add(0, "-rf");
+        }
+        if (!options.contains("-rff")) {
+            options.add(0, "benchmarks.json");
+            options.add(0, "-rff");
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[0]));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,51 @@
+package com.furieau.apps;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 文字冒险的战斗结算：玩家一直选择攻击，直到一方倒下
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CombatBenchmark {
+    // 怪物生命值和攻击力取 encounterMonster() 随机范围的两端
+    @Param({"20", "49"})
+    public int monsterHealth;
+    
+    @Param({"5", "14"})
+    public int monsterAttack;
+    
+    // 初始属性的会话，只用它的伤害公式
+    private final TextAdventureGame game = new TextAdventureGame(new SplittableRandom(), new StringBuilder());
+    
+    @Benchmark
+    public int fight() {
+        int playerHealth = 100;
+        int health = monsterHealth;
+        int rounds = 0;
+        while (health > 0 && playerHealth > 0) {
+            health -= game.playerDamage();
+            if (health > 0) {
+                playerHealth -= game.monsterDamage(monsterAttack);
+            }
+            rounds++;
+        }
+        return rounds;
+    }
+}
\ No newline at end of file
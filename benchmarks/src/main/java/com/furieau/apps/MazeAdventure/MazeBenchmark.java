@@ -0,0 +1,67 @@
+package com.furieau.apps.MazeAdventure;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 迷宫生成和绘制，绘制时 System.out 被换成空输出
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MazeBenchmark {
+    @Param({"15", "64", "256"})
+    public int size;
+    
+    private Maze maze;
+    private Player player;
+    private PrintStream stdout;
+    
+    @Setup
+    public void setUp() {
+        maze = new Maze(size, size);
+        player = new Player(1, 1);
+        stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+            
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+    
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+    
+    @Benchmark
+    public Maze construct() {
+        return new Maze(size, size);
+    }
+    
+    @Benchmark
+    public void display() {
+        maze.display(player);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,153 @@
+package com.furieau.apps;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 贪吃蛇每帧的三个热点：update()、generateFood() 和 draw()
+ * 蛇沿一条哈密顿回路前进，永远不会撞死，长度由 length 参数决定；
+ * 每次调用走 STEPS 帧后重新摆好蛇，吃到的食物不会让长度偏离太多
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnakeBenchmark {
+    private static final int WIDTH = 200;
+    private static final int HEIGHT = 100;
+    private static final int STEPS = 1000;
+    
+    // 方向常量与 ConsoleSnakeGame 一致
+    private static final int UP = 0;
+    private static final int RIGHT = 1;
+    private static final int DOWN = 2;
+    private static final int LEFT = 3;
+    
+    @Param({"3", "100", "1000", "10000", "19000"})
+    public int length;
+    
+    private ConsoleSnakeGame game;
+    private ConsoleSnakeGame.Engine engine;
+    private int[] cycleDirection;
+    private int[] snake;
+    private int snakeDirection;
+    
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        ConsoleSnakeGame.Options options = new ConsoleSnakeGame.Options();
+        options.width = WIDTH;
+        options.height = HEIGHT;
+        options.viewWidth = 40;
+        options.viewHeight = 20;
+        options.tickMillis = 0;
+        options.seed = 42;
+        options.seeded = true;
+        game = new ConsoleSnakeGame(options, NULL_SINK);
+        engine = game.engine();
+        
+        // 回路：第0列向下，其余各列按行蛇形往上走，再回到左上角
+        cycleDirection = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int direction;
+                if (x == 0) {
+                    direction = y < HEIGHT - 1 ? DOWN : RIGHT;
+                } else if ((HEIGHT - 1 - y) % 2 == 0) {
+                    direction = x < WIDTH - 1 ? RIGHT : UP;
+                } else {
+                    direction = x > 1 || y == 0 ? LEFT : UP;
+                }
+                cycleDirection[y * WIDTH + x] = direction;
+            }
+        }
+        
+        // 从左上角沿回路走 length 步，最后一格是蛇头
+        int[] path = new int[length];
+        int cell = 0;
+        for (int i = 0; i < length; i++) {
+            path[i] = cell;
+            cell = engine.neighbour(cell, cycleDirection[cell]);
+        }
+        snake = new int[length];
+        for (int i = 0; i < length; i++) {
+            snake[i] = path[length - 1 - i];
+        }
+        snakeDirection = length > 1 ? cycleDirection[path[length - 2]] : DOWN;
+    }
+    
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        engine.reset(snake, snakeDirection);
+        game.renderer().invalidate();
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public int update() {
+        for (int i = 0; i < STEPS; i++) {
+            game.steer(cycleDirection[engine.head()]);
+            game.update();
+        }
+        return engine.head();
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public int generateFood() {
+        int food = 0;
+        for (int i = 0; i < STEPS; i++) {
+            engine.generateFood();
+            food += engine.food();
+        }
+        return food;
+    }
+    
+    // 前进一帧再画，渲染器只输出变化的格子
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public int updateAndDraw() {
+        for (int i = 0; i < STEPS; i++) {
+            game.steer(cycleDirection[engine.head()]);
+            game.update();
+            game.draw();
+        }
+        return engine.head();
+    }
+    
+    // 每帧整屏重画
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public int drawFull() {
+        for (int i = 0; i < STEPS; i++) {
+            game.renderer().invalidate();
+            game.draw();
+        }
+        return engine.head();
+    }
+    
+    private static final OutputStream NULL_SINK = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+}
\ No newline at end of file
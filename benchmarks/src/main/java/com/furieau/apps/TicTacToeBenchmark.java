@@ -0,0 +1,69 @@
+package com.furieau.apps;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 井字棋的落子、撤销和胜负判定
+ * 棋盘先随机下到约三分之一满（不分胜负），再测下一步
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TicTacToeBenchmark {
+    @Param({"3", "4", "15", "19"})
+    public int size;
+    
+    private TicTacToe.Board board;
+    private int[] moves;
+    private int next;
+    
+    @Setup
+    public void setUp() {
+        board = new TicTacToe.Board(size, TicTacToe.defaultWinLength(size));
+        moves = new int[board.cells()];
+        Random random = new Random(42);
+        while (board.moveCount() < board.cells() / 3) {
+            int n = board.legalMoves(moves);
+            if (board.apply(moves[random.nextInt(n)])) {
+                board.undo();
+            }
+        }
+        next = moves[moves.length / 2 % board.legalMoves(moves)];
+        TicTacToe.board = board;
+    }
+    
+    @Benchmark
+    public boolean applyUndo() {
+        boolean won = board.apply(next);
+        board.undo();
+        return won;
+    }
+    
+    @Benchmark
+    public int legalMoves() {
+        return board.legalMoves(moves);
+    }
+    
+    @Benchmark
+    public boolean checkGameStatus() {
+        TicTacToe.gameOver = false;
+        TicTacToe.checkGameStatus();
+        return TicTacToe.gameOver;
+    }
+}
\ No newline at end of file
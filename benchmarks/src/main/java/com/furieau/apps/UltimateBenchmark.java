@@ -0,0 +1,44 @@
+package com.furieau.apps;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 超级井字棋：从空棋盘随机下到终局，MCTS 每次模拟的主要开销
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UltimateBenchmark {
+    private final TicTacToe.UltimateBoard empty = new TicTacToe.UltimateBoard();
+    private final TicTacToe.UltimateBoard board = new TicTacToe.UltimateBoard();
+    private SplittableRandom random;
+    
+    @Setup
+    public void setUp() {
+        random = new SplittableRandom(42);
+    }
+    
+    @Benchmark
+    public int playout() {
+        board.copyFrom(empty);
+        while (!board.isOver()) {
+            board.apply(board.randomMove(random.nextInt()));
+        }
+        return board.winner();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,384 @@
+package com.furieau.apps;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * 文字冒险的加权事件表
+ * 每个地点有两张表：探索（explore 命令）和回合结束时的随机事件（event），没单独写的地点用 [*] 里的表。
+ * 每张表加载时编译成 Vose 别名表：抽一次随机数，一次除法，一次比较，与表里有多少种结果无关，
+ * 所以一个地区写几百种事件也不会拖慢回合。权重是整数，别名表也全用整数构造，概率与权重之比完全一致。
+ * 编译好的一整套表只读，换表时整套替换，会话每次抽样前取一次当前的表，watch() 之后改了文件会自动重新加载，
+ * 新文件有错时打印错误、继续用旧表。物品名在编译时按物品表换成编号，所以事件表要和同一个物品表一起使用。
+ *
+ * 文件格式（UTF-8）：# 开头的行和空行忽略，[地点名] 开始一个地点，[*] 是默认值；其余每行是
+ *   表名 权重 动作 参数...
+ * 表名是 explore 或 event；动作是
+ *   item [物品名]        找到一个物品，物品名必须在物品表里；不写物品名时从能找到的物品中随机选一个
+ *   monster 怪物名       遇到怪物，只能用在 explore 表里
+ *   gold 最少 最多        找到金币
+ *   chest 最少 最多       发现宝箱，获得金币
+ *   trap 最少 最多        踩到陷阱，受到伤害
+ *   nothing [消息]       什么都没发生，有消息时输出消息
+ */
+public final class AdventureEvents {
+    // 表的编号
+    static final int EXPLORE = 0;
+    static final int EVENT = 1;
+    private static final String[] TABLES = {"explore", "event"};
+    
+    // 动作的编号
+    static final int NOTHING = 0;
+    static final int ITEM = 1;
+    static final int MONSTER = 2;
+    static final int GOLD = 3;
+    static final int CHEST = 4;
+    static final int TRAP = 5;
+    private static final String[] ACTIONS = {"nothing", "item", "monster", "gold", "chest", "trap"};
+    
+    // 没有指定事件文件时用的表，与原来写死的概率相同：
+    // 探索 40% 物品、30% 怪物（四种各占四分之一）、15% 金币、15% 无事；
+    // 每回合 25% 几率有事件，其中 20% 宝箱、15% 陷阱，合起来是 5% 宝箱、3.75% 陷阱
+    static final AdventureEvents DEFAULT = new AdventureEvents(compile(
+            "[*]\n"
+            + "explore 80 item\n"
+            + "explore 15 monster 哥布林\n"
+            + "explore 15 monster 骷髅\n"
+            + "explore 15 monster 巨蜘蛛\n"
+            + "explore 15 monster 狼人\n"
+            + "explore 30 gold 10 59\n"
+            + "explore 30 nothing 你探索了一番，但没有发现什么特别的东西。\n"
+            + "event 20 chest 50 149\n"
+            + "event 15 trap 5 24\n"
+            + "event 365 nothing\n", "内置事件表", AdventureItems.DEFAULT), null, AdventureItems.DEFAULT);
+    
+    private volatile Tables current;
+    private final File file;
+    // 编译和重新加载时用来查物品名的物品表
+    private final AdventureItems items;
+    private long modified;
+    private long length;
+    
+    private AdventureEvents(Tables tables, File file, AdventureItems items) {
+        this.current = tables;
+        this.file = file;
+        this.items = items;
+        if (file != null) {
+            modified = file.lastModified();
+            length = file.length();
+        }
+    }
+    
+    public static AdventureEvents load(File file, AdventureItems items) throws IOException {
+        return new AdventureEvents(read(file, items), file, items);
+    }
+    
+    private static Tables read(File file, AdventureItems items) throws IOException {
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        try {
+            return compile(text, file.getPath(), items);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+    
+    /**
+     * 每隔 periodMillis 毫秒检查一次文件，修改时间或大小变了就重新加载，在后台线程里进行
+     */
+    public void watch(long periodMillis) {
+        if (file == null) return;
+        Timer timer = new Timer("事件表", true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                reloadIfChanged();
+            }
+        }, periodMillis, periodMillis);
+    }
+    
+    // 文件变了就重新加载，返回是否换了表
+    synchronized boolean reloadIfChanged() {
+        long modified = file.lastModified();
+        long length = file.length();
+        if (modified == this.modified && length == this.length) return false;
+        this.modified = modified;
+        this.length = length;
+        try {
+            current = read(file, items);
+            System.err.println("已重新加载事件表: " + file);
+            return true;
+        } catch (IOException e) {
+            System.err.println("事件表有错，继续用旧表: " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * 当前的一整套表；同一回合里要抽多次时取一次用到底
+     */
+    Tables current() {
+        return current;
+    }
+    
+    /**
+     * 一套编译好的表，按地点名查
+     */
+    static final class Tables {
+        private final Table[] defaults;
+        private final HashMap<String, Table[]> locations;
+        
+        Tables(Table[] defaults, HashMap<String, Table[]> locations) {
+            this.defaults = defaults;
+            this.locations = locations;
+        }
+        
+        Table table(String location, int table) {
+            Table[] tables = locations.get(location);
+            return (tables == null ? defaults : tables)[table];
+        }
+    }
+    
+    /**
+     * 一张别名表。把 n 种结果各自的权重乘以 n 后装进 n 个容量都是总权重的格子，
+     * 每格最多装两种结果：自己（前 threshold 份）和别名。抽样时在 [0, n × 总权重) 里取一个数，
+     * 商是格子，余数小于 threshold 就是这格自己，否则是它的别名。
+     */
+    static final class Table {
+        private final long total;
+        private final long[] threshold;
+        private final int[] alias;
+        // 各结果的动作和参数
+        private final int[] actions;
+        private final int[] low;
+        private final int[] high;
+        private final String[] texts;
+        
+        Table(long[] weights, int[] actions, int[] low, int[] high, String[] texts) {
+            int n = weights.length;
+            long total = 0;
+            for (long weight : weights) {
+                total += weight;
+            }
+            if (total > Long.MAX_VALUE / n) {
+                throw new IllegalArgumentException("权重总和太大: " + total);
+            }
+            this.total = total;
+            this.actions = actions;
+            this.low = low;
+            this.high = high;
+            this.texts = texts;
+            threshold = new long[n];
+            alias = new int[n];
+            
+            // Vose：不满一格的和超过一格的各放一个栈，每次用一个超过的补满一个不满的
+            long[] scaled = new long[n];
+            int[] small = new int[n];
+            int[] large = new int[n];
+            int smalls = 0;
+            int larges = 0;
+            for (int i = 0; i < n; i++) {
+                scaled[i] = weights[i] * n;
+                if (scaled[i] < total) {
+                    small[smalls++] = i;
+                } else {
+                    large[larges++] = i;
+                }
+            }
+            while (smalls > 0 && larges > 0) {
+                int s = small[--smalls];
+                int l = large[--larges];
+                threshold[s] = scaled[s];
+                alias[s] = l;
+                scaled[l] -= total - scaled[s];
+                if (scaled[l] < total) {
+                    small[smalls++] = l;
+                } else {
+                    large[larges++] = l;
+                }
+            }
+            // 剩下的都正好一整格（整数运算没有舍入误差）
+            while (larges > 0) {
+                int l = large[--larges];
+                threshold[l] = total;
+                alias[l] = l;
+            }
+            while (smalls > 0) {
+                int s = small[--smalls];
+                threshold[s] = total;
+                alias[s] = s;
+            }
+        }
+        
+        // 抽一种结果，返回它的下标
+        int sample(SplittableRandom random) {
+            long r = random.nextLong(threshold.length * total);
+            int column = (int) (r / total);
+            return r - column * total < threshold[column] ? column : alias[column];
+        }
+        
+        int size() {
+            return actions.length;
+        }
+        
+        int action(int i) {
+            return actions[i];
+        }
+        
+        // 数值范围 [low, high]
+        int roll(int i, SplittableRandom random) {
+            return low[i] + random.nextInt(high[i] - low[i] + 1);
+        }
+        
+        // item 的物品编号，-1 表示从能找到的物品里随机选
+        int item(int i) {
+            return low[i];
+        }
+        
+        // 怪物名或消息，没有时为 null
+        String text(int i) {
+            return texts[i];
+        }
+    }
+    
+    /**
+     * 解析并编译事件表，格式不对或物品表里没有 item 写的物品时抛出 IllegalArgumentException，消息里带行号
+     */
+    static Tables compile(String text, String source, AdventureItems items) {
+        // 每个地点每张表的结果，按出现顺序
+        HashMap<String, Outcomes[]> parsed = new HashMap<>();
+        List<String> order = new ArrayList<>();
+        Outcomes[] section = null;
+        String[] lines = text.split("\n");
+        for (int line = 0; line < lines.length; line++) {
+            String trimmed = lines[line].trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+            String where = source + " 第 " + (line + 1) + " 行";
+            if (trimmed.startsWith("[") && trimmed.endsWith("]")) {
+                String location = trimmed.substring(1, trimmed.length() - 1).trim();
+                section = parsed.get(location);
+                if (section == null) {
+                    section = new Outcomes[TABLES.length];
+                    parsed.put(location, section);
+                    order.add(location);
+                }
+                continue;
+            }
+            if (section == null) {
+                throw new IllegalArgumentException(where + ": 事件前面要先写 [地点名] 或 [*]");
+            }
+            String[] columns = trimmed.split("\\s+", 4);
+            if (columns.length < 3) {
+                throw new IllegalArgumentException(where + ": 应该是 表名 权重 动作 参数...");
+            }
+            int table = Arrays.asList(TABLES).indexOf(columns[0]);
+            if (table < 0) {
+                throw new IllegalArgumentException(where + ": 未知的表: " + columns[0]);
+            }
+            int action = Arrays.asList(ACTIONS).indexOf(columns[2]);
+            if (action < 0) {
+                throw new IllegalArgumentException(where + ": 未知动作: " + columns[2]);
+            }
+            String argument = columns.length > 3 ? columns[3].trim() : null;
+            long weight;
+            int low = 0;
+            int high = 0;
+            try {
+                weight = Long.parseLong(columns[1]);
+                if (action == GOLD || action == CHEST || action == TRAP) {
+                    String[] range = argument == null ? new String[0] : argument.split("\\s+");
+                    if (range.length != 2) {
+                        throw new IllegalArgumentException(where + ": " + columns[2] + " 要写 最少 最多");
+                    }
+                    low = Integer.parseInt(range[0]);
+                    high = Integer.parseInt(range[1]);
+                    argument = null;
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(where + ": 不是整数: " + e.getMessage());
+            }
+            if (weight <= 0 || weight > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(where + ": 权重应该是正整数: " + weight);
+            }
+            if (low < 0 || high < low) {
+                throw new IllegalArgumentException(where + ": 范围无效: " + low + " ~ " + high);
+            }
+            if (action == ITEM) {
+                // 物品名换成编号存在 low 里，抽到时不用再按名字查
+                low = argument == null ? -1 : items.id(argument);
+                if (argument != null && low < 0) {
+                    throw new IllegalArgumentException(where + ": 物品表里没有这个物品: " + argument);
+                }
+                argument = null;
+            }
+            if (action == MONSTER && argument == null) {
+                throw new IllegalArgumentException(where + ": monster 要写怪物名");
+            }
+            if (action == MONSTER && table == EVENT) {
+                throw new IllegalArgumentException(where + ": 回合结束时的事件不能是怪物");
+            }
+            if (section[table] == null) {
+                section[table] = new Outcomes();
+            }
+            section[table].add(weight, action, low, high, argument);
+        }
+        
+        Outcomes[] defaults = parsed.get("*");
+        if (defaults == null || defaults[EXPLORE] == null || defaults[EVENT] == null) {
+            throw new IllegalArgumentException(source + ": [*] 里 explore 和 event 两张表都要有");
+        }
+        Table[] fallback = new Table[TABLES.length];
+        for (int t = 0; t < TABLES.length; t++) {
+            fallback[t] = defaults[t].compile();
+        }
+        HashMap<String, Table[]> locations = new HashMap<>();
+        for (String location : order) {
+            if (location.equals("*")) continue;
+            Outcomes[] outcomes = parsed.get(location);
+            Table[] tables = new Table[TABLES.length];
+            for (int t = 0; t < TABLES.length; t++) {
+                tables[t] = outcomes[t] == null ? fallback[t] : outcomes[t].compile();
+            }
+            locations.put(location, tables);
+        }
+        return new Tables(fallback, locations);
+    }
+    
+    /**
+     * 解析时攒一张表的结果
+     */
+    private static final class Outcomes {
+        final List<Long> weights = new ArrayList<>();
+        final List<int[]> values = new ArrayList<>();
+        final List<String> texts = new ArrayList<>();
+        
+        void add(long weight, int action, int low, int high, String text) {
+            weights.add(weight);
+            values.add(new int[] {action, low, high});
+            texts.add(text);
+        }
+        
+        Table compile() {
+            int n = weights.size();
+            long[] weights = new long[n];
+            int[] actions = new int[n];
+            int[] low = new int[n];
+            int[] high = new int[n];
+            for (int i = 0; i < n; i++) {
+                weights[i] = this.weights.get(i);
+                int[] value = values.get(i);
+                actions[i] = value[0];
+                low[i] = value[1];
+                high[i] = value[2];
+            }
+            return new Table(weights, actions, low, high, texts.toArray(new String[0]));
+        }
+    }
+}
\ No newline at end of file
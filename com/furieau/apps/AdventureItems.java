@@ -0,0 +1,152 @@
+package com.furieau.apps;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * 文字冒险的物品表
+ * 物品定义从文本读入，按出现顺序编号 0..size()-1，会话的背包就是按编号下标的 int 数组，
+ * 增减数量不装箱、不分配。名字到编号的表在加载时建好，只有解析玩家输入和读存档时才按名字查。
+ * 物品表加载后只读，可以在线程间共享。
+ *
+ * 文件格式（UTF-8）：每行一个物品，# 开头的行和空行忽略，各列用空白分开：
+ *   名字 效果 数值 探索能否找到(0/1) 开局数量
+ * 效果是 none（不能直接使用）、heal（恢复生命）、attack（增加攻击力）、defense（增加防御力）之一，
+ * 由 TextAdventureGame 按效果编号查表执行。
+ */
+public final class AdventureItems {
+    // 物品效果的编号
+    static final int NONE = 0;
+    static final int HEAL = 1;
+    static final int ATTACK = 2;
+    static final int DEFENSE = 3;
+    private static final String[] EFFECTS = {"none", "heal", "attack", "defense"};
+    
+    // 没有指定物品文件时用的物品表
+    static final AdventureItems DEFAULT = parse(
+            "# 名字 效果 数值 探索能否找到 开局数量\n"
+            + "治疗药水 heal 30 1 2\n"
+            + "力量药水 attack 5 1 0\n"
+            + "防御药水 defense 3 1 0\n"
+            + "魔法剑 none 0 1 0\n"
+            + "剑 none 0 0 1\n", "内置物品表");
+    
+    private final String[] names;
+    private final int[] effects;
+    private final int[] amounts;
+    private final int[] starting;
+    // 探索能找到的物品编号，按文件里的顺序
+    private final int[] findable;
+    private final HashMap<String, Integer> ids;
+    
+    private AdventureItems(String[] names, int[] effects, int[] amounts, int[] starting, int[] findable) {
+        this.names = names;
+        this.effects = effects;
+        this.amounts = amounts;
+        this.starting = starting;
+        this.findable = findable;
+        ids = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            ids.put(names[i], i);
+        }
+    }
+    
+    public static AdventureItems load(File file) throws IOException {
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        try {
+            return parse(text, file.getPath());
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+    
+    /**
+     * 解析物品表，格式不对时抛出 IllegalArgumentException，消息里带行号
+     */
+    public static AdventureItems parse(String text, String source) {
+        String[] lines = text.split("\n");
+        String[] names = new String[lines.length];
+        int[] effects = new int[lines.length];
+        int[] amounts = new int[lines.length];
+        int[] starting = new int[lines.length];
+        int[] findable = new int[lines.length];
+        int count = 0;
+        int found = 0;
+        HashMap<String, Integer> seen = new HashMap<>();
+        for (int line = 0; line < lines.length; line++) {
+            String trimmed = lines[line].trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+            String where = source + " 第 " + (line + 1) + " 行";
+            String[] columns = trimmed.split("\\s+");
+            if (columns.length != 5) {
+                throw new IllegalArgumentException(where + ": 应该有 5 列，实际有 " + columns.length + " 列");
+            }
+            if (seen.put(columns[0], count) != null) {
+                throw new IllegalArgumentException(where + ": 物品重复: " + columns[0]);
+            }
+            int effect = Arrays.asList(EFFECTS).indexOf(columns[1]);
+            if (effect < 0) {
+                throw new IllegalArgumentException(where + ": 未知效果: " + columns[1]);
+            }
+            try {
+                amounts[count] = Integer.parseInt(columns[2]);
+                starting[count] = Integer.parseInt(columns[4]);
+                if (Integer.parseInt(columns[3]) != 0) {
+                    findable[found++] = count;
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(where + ": 不是整数: " + e.getMessage());
+            }
+            if (starting[count] < 0) {
+                throw new IllegalArgumentException(where + ": 开局数量不能为负数");
+            }
+            names[count] = columns[0];
+            effects[count] = effect;
+            count++;
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException(source + ": 没有物品");
+        }
+        return new AdventureItems(Arrays.copyOf(names, count), Arrays.copyOf(effects, count), Arrays.copyOf(amounts, count),
+                Arrays.copyOf(starting, count), Arrays.copyOf(findable, found));
+    }
+    
+    // 物品种数
+    public int size() {
+        return names.length;
+    }
+    
+    // 名字对应的编号，没有这个物品时返回 -1
+    public int id(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+    
+    public String name(int id) {
+        return names[id];
+    }
+    
+    int effect(int id) {
+        return effects[id];
+    }
+    
+    int amount(int id) {
+        return amounts[id];
+    }
+    
+    int starting(int id) {
+        return starting[id];
+    }
+    
+    // 探索能找到的物品种数和第 i 种的编号
+    int findable() {
+        return findable.length;
+    }
+    
+    int findable(int i) {
+        return findable[i];
+    }
+}
\ No newline at end of file
@@ -0,0 +1,455 @@
+package com.furieau.apps;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * 文字冒险的存档：一个快照文件加一个追加写的日志
+ * 快照是玩家全部状态（属性、位置、背包）的紧凑二进制编码，写到临时文件、刷盘后原子地改名替换旧快照，
+ * 所以任何时候崩溃，磁盘上都有一份完整的快照。每回合结束后只记一条与上一回合相比的差量，
+ * 攒在内存里，每隔 syncMillis 毫秒作为一帧追加到日志并刷盘一次，比每回合写一次快照便宜得多。
+ * 日志记录数过多时写一份新快照并清空日志。恢复时读快照再重放日志，重放只是解码整数相加，
+ * 几十万回合的历史也只要几毫秒。
+ *
+ * 快照格式："ADVS"，版本号 byte，代数 varint，TextAdventureGame.STATS 个 zigzag varint 属性，
+ *   物品个数 varint，每个物品是 名字（UTF-8 字节数 varint 加字节）和数量 varint，最后是前面所有字节的 CRC32 int。
+ * 日志格式："ADVJ"，版本号 byte，代数 varint（与快照不同时整个日志作废），然后是若干帧：
+ *   帧长 varint，若干条记录，CRC32 int；最后一帧不完整或校验不对（写到一半崩溃）就丢掉。
+ *   每条记录是 变化位图 varint，每个变化的属性一个 zigzag 差量；位图第 STATS 位表示背包有变化，
+ *   后面跟 变化个数 varint 和若干（名字，新数量 varint），新数量为 0 表示用完了。
+ */
+public final class AdventureSave implements Closeable {
+    private static final int SNAPSHOT_MAGIC = 0x41445653;
+    private static final int JOURNAL_MAGIC = 0x4144564A;
+    private static final int VERSION = 1;
+    private static final int STATS = TextAdventureGame.STATS;
+    // 记录位图里表示背包有变化的位
+    private static final int ITEMS = 1 << STATS;
+    // 日志里攒到这么多条记录就写新快照
+    private static final int COMPACT_RECORDS = 1 << 14;
+    
+    private final File file;
+    private final File journalFile;
+    private final TextAdventureGame game;
+    private final AdventureItems items;
+    // 各物品名的 UTF-8 编码，写记录时不用再编码
+    private final byte[][] names;
+    private final long syncNanos;
+    private FileChannel journal;
+    private long generation;
+    private boolean restored;
+    private int replayed;
+    
+    // 上次记录时的状态，用来算差量
+    private final int[] last = new int[STATS];
+    private final int[] now = new int[STATS];
+    private final int[] lastCounts;
+    private final int[] nowCounts;
+    // 还没写到日志的记录
+    private final Bytes pending = new Bytes();
+    private final Bytes frame = new Bytes();
+    private int records;
+    private long lastSync;
+    
+    private AdventureSave(File file, TextAdventureGame game, long syncMillis) {
+        this.file = file;
+        this.journalFile = new File(file.getPath() + ".journal");
+        this.game = game;
+        this.syncNanos = syncMillis * 1000000L;
+        items = game.items();
+        names = new byte[items.size()][];
+        for (int id = 0; id < names.length; id++) {
+            names[id] = items.name(id).getBytes(StandardCharsets.UTF_8);
+        }
+        lastCounts = new int[items.size()];
+        nowCounts = new int[items.size()];
+    }
+    
+    /**
+     * 打开存档：文件存在就把快照和日志恢复到 game 上，否则按 game 当前状态新建存档
+     * game 必须是刚创建、还没开始处理输入的会话
+     */
+    public static AdventureSave open(File file, TextAdventureGame game, long syncMillis) throws IOException {
+        AdventureSave save = new AdventureSave(file, game, syncMillis);
+        if (file.exists()) {
+            save.restore();
+        }
+        // 恢复后马上写一份新快照，顺便丢掉日志末尾不完整的帧
+        save.snapshot();
+        return save;
+    }
+    
+    // 是否从已有的存档恢复
+    public boolean restored() {
+        return restored;
+    }
+    
+    // 恢复时重放的日志记录数
+    public int replayed() {
+        return replayed;
+    }
+    
+    /**
+     * 回合结束后调用：记下与上一回合的差量，到了刷盘间隔就写到日志
+     */
+    public synchronized void afterTurn() throws IOException {
+        game.saveStats(now);
+        int mask = 0;
+        for (int i = 0; i < STATS; i++) {
+            if (now[i] != last[i]) mask |= 1 << i;
+        }
+        game.saveCounts(nowCounts);
+        int changed = 0;
+        for (int id = 0; id < nowCounts.length; id++) {
+            if (nowCounts[id] != lastCounts[id]) changed++;
+        }
+        if (changed > 0) mask |= ITEMS;
+        if (mask == 0) return;
+        
+        pending.varint(mask);
+        for (int i = 0; i < STATS; i++) {
+            if ((mask & 1 << i) != 0) pending.zigzag(now[i] - last[i]);
+        }
+        System.arraycopy(now, 0, last, 0, STATS);
+        if (changed > 0) {
+            pending.varint(changed);
+            for (int id = 0; id < nowCounts.length; id++) {
+                if (nowCounts[id] != lastCounts[id]) {
+                    pending.name(names[id]);
+                    pending.varint(nowCounts[id]);
+                    lastCounts[id] = nowCounts[id];
+                }
+            }
+        }
+        
+        if (++records >= COMPACT_RECORDS) {
+            snapshot();
+        } else if (System.nanoTime() - lastSync >= syncNanos) {
+            flush();
+        }
+    }
+    
+    /**
+     * 把攒着的记录作为一帧追加到日志并刷盘
+     */
+    public synchronized void flush() throws IOException {
+        lastSync = System.nanoTime();
+        if (pending.size == 0 || journal == null) return;
+        frame.size = 0;
+        frame.varint(pending.size);
+        frame.bytes(pending.data, 0, pending.size);
+        CRC32 crc = new CRC32();
+        crc.update(pending.data, 0, pending.size);
+        frame.int32((int) crc.getValue());
+        write(frame);
+        journal.force(false);
+        pending.size = 0;
+    }
+    
+    /**
+     * 按当前状态写一份新快照并清空日志
+     */
+    public synchronized void snapshot() throws IOException {
+        game.saveStats(last);
+        game.saveCounts(lastCounts);
+        generation++;
+        
+        Bytes bytes = new Bytes();
+        bytes.int32(SNAPSHOT_MAGIC);
+        bytes.int8(VERSION);
+        bytes.varlong(generation);
+        for (int i = 0; i < STATS; i++) {
+            bytes.zigzag(last[i]);
+        }
+        int count = 0;
+        for (int n : lastCounts) {
+            if (n != 0) count++;
+        }
+        bytes.varint(count);
+        for (int id = 0; id < lastCounts.length; id++) {
+            if (lastCounts[id] != 0) {
+                bytes.name(names[id]);
+                bytes.varint(lastCounts[id]);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.data, 0, bytes.size);
+        bytes.int32((int) crc.getValue());
+        
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(bytes.data, 0, bytes.size);
+            out.getFD().sync();
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        
+        // 新快照已经落盘，旧日志可以清空了；在这之前崩溃的话旧日志的代数对不上，恢复时会被忽略
+        if (journal == null) {
+            journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        journal.truncate(0);
+        journal.position(0);
+        Bytes header = new Bytes();
+        header.int32(JOURNAL_MAGIC);
+        header.int8(VERSION);
+        header.varlong(generation);
+        write(header);
+        journal.force(false);
+        pending.size = 0;
+        records = 0;
+        lastSync = System.nanoTime();
+    }
+    
+    private void write(Bytes bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.data, 0, bytes.size);
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+    }
+    
+    private void restore() throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        if (data.length < 9) {
+            throw new IOException("存档已损坏: " + file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        Reader in = new Reader(data, 0, data.length - 4);
+        if (in.int32() != SNAPSHOT_MAGIC) {
+            throw new IOException("不是存档文件: " + file);
+        }
+        int version = in.data[in.position++];
+        if (version != VERSION) {
+            throw new IOException("不支持的存档版本: " + version);
+        }
+        if ((int) crc.getValue() != ByteBuffer.wrap(data, data.length - 4, 4).getInt()) {
+            throw new IOException("存档已损坏: " + file);
+        }
+        generation = in.varlong();
+        int[] stats = new int[STATS];
+        for (int i = 0; i < STATS; i++) {
+            stats[i] = in.zigzag();
+        }
+        int[] counts = new int[items.size()];
+        int count = in.varint();
+        for (int i = 0; i < count; i++) {
+            counts[item(in.name())] = in.varint();
+        }
+        
+        if (journalFile.exists()) {
+            replay(Files.readAllBytes(journalFile.toPath()), stats, counts);
+        }
+        game.loadStats(stats, counts);
+        restored = true;
+    }
+    
+    // 存档里的物品必须在当前的物品表里
+    private int item(String name) throws IOException {
+        int id = items.id(name);
+        if (id < 0) {
+            throw new IOException("存档里有物品表中没有的物品: " + name);
+        }
+        return id;
+    }
+    
+    private void replay(byte[] data, int[] stats, int[] counts) throws IOException {
+        Reader in = new Reader(data, 0, data.length);
+        if (data.length < 6 || in.int32() != JOURNAL_MAGIC || in.data[in.position++] != VERSION) {
+            return;
+        }
+        if (in.varlong() != generation) {
+            // 写完快照、还没清空日志时崩溃留下的旧日志
+            return;
+        }
+        CRC32 crc = new CRC32();
+        while (in.position < data.length) {
+            int length;
+            try {
+                length = in.varint();
+            } catch (IOException e) {
+                break;
+            }
+            int from = in.position;
+            if (length < 0 || length > data.length - from - 4) break;
+            crc.reset();
+            crc.update(data, from, length);
+            if ((int) crc.getValue() != ByteBuffer.wrap(data, from + length, 4).getInt()) break;
+            // 只在这一帧里读，读完跳过校验值
+            in.end = from + length;
+            while (in.position < in.end) {
+                int mask = in.varint();
+                for (int i = 0; i < STATS; i++) {
+                    if ((mask & 1 << i) != 0) stats[i] += in.zigzag();
+                }
+                if ((mask & ITEMS) != 0) {
+                    int count = in.varint();
+                    for (int i = 0; i < count; i++) {
+                        int id = item(in.name());
+                        counts[id] = in.varint();
+                    }
+                }
+                replayed++;
+            }
+            in.end = data.length;
+            in.position += 4;
+        }
+    }
+    
+    /**
+     * 删除存档，玩家被击败后调用
+     */
+    public synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(journalFile.toPath());
+    }
+    
+    // 写出还没写的记录并关闭日志
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal == null) return;
+        try {
+            flush();
+        } finally {
+            journal.close();
+            journal = null;
+        }
+    }
+    
+    /**
+     * 可增长的字节数组，用来拼记录和快照
+     */
+    private static final class Bytes {
+        byte[] data = new byte[256];
+        int size;
+        
+        void ensure(int n) {
+            if (size + n > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + n));
+            }
+        }
+        
+        void bytes(byte[] b, int offset, int length) {
+            ensure(length);
+            System.arraycopy(b, offset, data, size, length);
+            size += length;
+        }
+        
+        void int8(int v) {
+            ensure(1);
+            data[size++] = (byte) v;
+        }
+        
+        void int32(int v) {
+            ensure(4);
+            data[size++] = (byte) (v >>> 24);
+            data[size++] = (byte) (v >>> 16);
+            data[size++] = (byte) (v >>> 8);
+            data[size++] = (byte) v;
+        }
+        
+        void varint(int v) {
+            varlong(v & 0xFFFFFFFFL);
+        }
+        
+        void varlong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                data[size++] = (byte) (v & 0x7F | 0x80);
+                v >>>= 7;
+            }
+            data[size++] = (byte) v;
+        }
+        
+        void zigzag(int v) {
+            varint(v << 1 ^ v >> 31);
+        }
+        
+        // 已经编码好的名字
+        void name(byte[] name) {
+            varint(name.length);
+            bytes(name, 0, name.length);
+        }
+    }
+    
+    /**
+     * 从字节数组 [position, end) 里读，越界说明文件已损坏
+     */
+    private static final class Reader {
+        final byte[] data;
+        int end;
+        int position;
+        // 日志里反复出现的物品名，解码过的不再新建字符串
+        private byte[][] encoded = new byte[0][];
+        private String[] names = new String[0];
+        
+        Reader(byte[] data, int position, int end) {
+            this.data = data;
+            this.position = position;
+            this.end = end;
+        }
+        
+        int int32() throws IOException {
+            if (end - position < 4) throw new IOException("存档已损坏");
+            int v = ByteBuffer.wrap(data, position, 4).getInt();
+            position += 4;
+            return v;
+        }
+        
+        long varlong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= end) throw new IOException("存档已损坏");
+                byte b = data[position++];
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return v;
+            }
+            throw new IOException("存档已损坏");
+        }
+        
+        int varint() throws IOException {
+            long v = varlong();
+            if (v >>> 32 != 0) throw new IOException("存档已损坏");
+            return (int) v;
+        }
+        
+        int zigzag() throws IOException {
+            int v = varint();
+            return v >>> 1 ^ -(v & 1);
+        }
+        
+        String name() throws IOException {
+            int length = varint();
+            if (length < 0 || length > end - position) throw new IOException("存档已损坏");
+            search:
+            for (int i = 0; i < names.length; i++) {
+                byte[] name = encoded[i];
+                if (name.length != length) continue;
+                for (int j = 0; j < length; j++) {
+                    if (name[j] != data[position + j]) continue search;
+                }
+                position += length;
+                return names[i];
+            }
+            String s = new String(data, position, length, StandardCharsets.UTF_8);
+            encoded = Arrays.copyOf(encoded, names.length + 1);
+            encoded[names.length] = Arrays.copyOfRange(data, position, position + length);
+            names = Arrays.copyOf(names, names.length + 1);
+            names[names.length - 1] = s;
+            position += length;
+            return s;
+        }
+    }
+}
\ No newline at end of file
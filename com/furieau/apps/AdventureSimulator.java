@@ -0,0 +1,478 @@
+package com.furieau.apps;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 文字冒险的数值平衡模拟，两部分都用 TextAdventureGame 里的同一套规则：
+ *   战斗扫描：每个等级按不喝药水的基础属性满血出发，和随机怪物连续战斗、一直攻击、中间不回血也不升级，
+ *     直到被击败或打满 MAX_CHAIN 场，得到“连续打 k 场后仍然存活”的生存曲线、每场受到的伤害和回合数。
+ *     只用几个 int 和规则函数，不创建对象。
+ *   完整流程：用真正的会话（关掉输出和提示）从 1 级开始，每回合探索，生命值不高于 HEAL_BELOW 且有治疗药水时先喝药，
+ *     直到被击败或满 turns 回合；统计按回合的生存曲线、每回合的金币和经验、到达各等级所用回合数的分布。
+ *     地图、物品表和事件表与游戏用同样的参数指定，不指定时用内置的。
+ * 工作按编号切成固定的块交给 ForkJoinPool，每块用由总种子和块起点决定的 SplittableRandom，结果与线程数无关；
+ * 每块在本地数组里计数，结束时一次加到共享的原子数组里。
+ */
+public final class AdventureSimulator {
+    // 每块的战斗串数和角色数
+    private static final int FIGHT_CHUNK = 4096;
+    private static final int LIFE_CHUNK = 64;
+    // 一串最多打的场数，高等级时怪物几乎打不动玩家
+    static final int MAX_CHAIN = 64;
+    // 一场受到的伤害按 0~MAX_HEALTH 分格
+    private static final int DAMAGE_BUCKETS = TextAdventureGame.MAX_HEALTH + 1;
+    // 完整流程的喝药策略
+    private static final int HEAL_BELOW = 40;
+    private static final String POTION = "治疗药水";
+    // 统计到达时间的最高等级
+    private static final int MAX_LEVEL = 30;
+    // 完整流程每块的区块缓存大小
+    private static final int CACHE_CHUNKS = 16;
+    
+    // 战斗扫描每级的计数：连胜场数直方图，场数、总回合、总伤害、战败次数，伤害直方图
+    private static final int FIGHTS = MAX_CHAIN + 1;
+    private static final int ROUNDS = FIGHTS + 1;
+    private static final int DAMAGE = FIGHTS + 2;
+    private static final int LOSSES = FIGHTS + 3;
+    private static final int DAMAGE_HISTOGRAM = FIGHTS + 4;
+    private static final int FIGHT_STRIDE = DAMAGE_HISTOGRAM + DAMAGE_BUCKETS;
+    
+    private AdventureSimulator() {
+    }
+    
+    private static double percent(long count, long total) {
+        return 100.0 * count / Math.max(1, total);
+    }
+    
+    // SplitMix64 的混合函数，由块的起点得到这一块的种子
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    private static SplittableRandom chunkRandom(long seed, long from) {
+        return new SplittableRandom(mix(seed + from * 0x9E3779B97F4A7C15L));
+    }
+    
+    private static long[] snapshot(AtomicLongArray counts) {
+        long[] result = new long[counts.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+    
+    private static void add(AtomicLongArray counts, long[] local) {
+        for (int i = 0; i < local.length; i++) {
+            if (local[i] != 0) counts.getAndAdd(i, local[i]);
+        }
+    }
+    
+    // 直方图 [offset, offset + length) 的 p 分位数所在的格
+    private static int percentile(long[] counts, int offset, int length, double p) {
+        long total = 0;
+        for (int i = 0; i < length; i++) {
+            total += counts[offset + i];
+        }
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int i = 0; i < length; i++) {
+            seen += counts[offset + i];
+            if (seen >= rank && seen > 0) return i;
+        }
+        return 0;
+    }
+    
+    static int attackAt(int level) {
+        return TextAdventureGame.START_ATTACK + TextAdventureGame.LEVEL_ATTACK * (level - 1);
+    }
+    
+    static int defenseAt(int level) {
+        return TextAdventureGame.START_DEFENSE + TextAdventureGame.LEVEL_DEFENSE * (level - 1);
+    }
+    
+    /**
+     * 战斗扫描的结果
+     */
+    public static final class FightReport {
+        private final int levels;
+        private final long chains;
+        private final long[] counts;
+        private final long nanos;
+        
+        FightReport(int levels, long chains, long[] counts, long nanos) {
+            this.levels = levels;
+            this.chains = chains;
+            this.counts = counts;
+            this.nanos = nanos;
+        }
+        
+        public long fights() {
+            long fights = 0;
+            for (int level = 1; level <= levels; level++) {
+                fights += counts[(level - 1) * FIGHT_STRIDE + FIGHTS];
+            }
+            return fights;
+        }
+        
+        // 连续打 k 场之后仍然存活的比例
+        public double survival(int level, int k) {
+            int base = (level - 1) * FIGHT_STRIDE;
+            long alive = 0;
+            for (int won = k; won <= MAX_CHAIN; won++) {
+                alive += counts[base + won];
+            }
+            return (double) alive / chains;
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("=== 战斗扫描：每级 %d 串连续战斗，共 %d 场，%.2f 秒（每秒 %.0f 场）===%n",
+                    chains, fights(), nanos / 1e9, fights() * 1e9 / nanos));
+            text.append("等级 攻击 防御  战败率  回合  受伤 平均/p50/p90/p99  |  连续 k 场后存活:");
+            for (int k = 1; k <= MAX_CHAIN; k *= 2) {
+                text.append(String.format(" %6d", k));
+            }
+            text.append('\n');
+            for (int level = 1; level <= levels; level++) {
+                int base = (level - 1) * FIGHT_STRIDE;
+                long fights = Math.max(1, counts[base + FIGHTS]);
+                text.append(String.format("%4d %4d %4d %6.2f%% %5.2f  %5.1f/%3d/%3d/%3d      |                ",
+                        level, attackAt(level), defenseAt(level), percent(counts[base + LOSSES], fights),
+                        (double) counts[base + ROUNDS] / fights, (double) counts[base + DAMAGE] / fights,
+                        percentile(counts, base + DAMAGE_HISTOGRAM, DAMAGE_BUCKETS, 0.5),
+                        percentile(counts, base + DAMAGE_HISTOGRAM, DAMAGE_BUCKETS, 0.9),
+                        percentile(counts, base + DAMAGE_HISTOGRAM, DAMAGE_BUCKETS, 0.99)));
+                for (int k = 1; k <= MAX_CHAIN; k *= 2) {
+                    text.append(String.format(" %5.1f%%", 100 * survival(level, k)));
+                }
+                text.append('\n');
+            }
+            return text.toString();
+        }
+    }
+    
+    /**
+     * 等级 1~levels 各打 chains 串连续战斗
+     */
+    public static FightReport fights(int levels, long chains, int threads, long seed) {
+        if (levels < 1 || chains < 1) {
+            throw new IllegalArgumentException("模拟参数无效: " + levels + " 级，每级 " + chains + " 串");
+        }
+        AtomicLongArray counts = new AtomicLongArray(levels * FIGHT_STRIDE);
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.invoke(new Chains(0, levels * chains, chains, seed, counts));
+        } finally {
+            pool.shutdown();
+        }
+        return new FightReport(levels, chains, snapshot(counts), System.nanoTime() - start);
+    }
+    
+    /**
+     * 一段连续编号的战斗串，编号除以每级串数得到等级
+     */
+    private static final class Chains extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        final long from;
+        final long to;
+        final long chains;
+        final long seed;
+        final AtomicLongArray counts;
+        
+        Chains(long from, long to, long chains, long seed, AtomicLongArray counts) {
+            this.from = from;
+            this.to = to;
+            this.chains = chains;
+            this.seed = seed;
+            this.counts = counts;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from > FIGHT_CHUNK) {
+                // 按块的边界拆分，块的划分（也就是每块的种子）与线程数无关
+                long middle = from + (to - from + 2L * FIGHT_CHUNK - 1) / (2 * FIGHT_CHUNK) * FIGHT_CHUNK;
+                invokeAll(new Chains(from, middle, chains, seed, counts), new Chains(middle, to, chains, seed, counts));
+                return;
+            }
+            SplittableRandom random = chunkRandom(seed, from);
+            long[] local = new long[counts.length()];
+            for (long chain = from; chain < to; chain++) {
+                int level = (int) (chain / chains) + 1;
+                chain(level, random, local, (level - 1) * FIGHT_STRIDE);
+            }
+            add(counts, local);
+        }
+    }
+    
+    /**
+     * 满血连续战斗直到被击败或打满 MAX_CHAIN 场，回合的顺序与 TextAdventureGame.fight() 相同：
+     * 玩家先攻击，怪物没死就反击
+     */
+    static void chain(int level, SplittableRandom random, long[] local, int base) {
+        int attack = attackAt(level);
+        int defense = defenseAt(level);
+        int health = TextAdventureGame.MAX_HEALTH;
+        int won = 0;
+        long rounds = 0;
+        long damage = 0;
+        while (won < MAX_CHAIN) {
+            int monsterHealth = TextAdventureGame.rollMonsterHealth(random);
+            int monsterAttack = TextAdventureGame.rollMonsterAttack(random);
+            int taken = 0;
+            while (true) {
+                rounds++;
+                monsterHealth -= TextAdventureGame.playerDamage(random, attack);
+                if (monsterHealth <= 0) break;
+                int hit = TextAdventureGame.monsterDamage(random, monsterAttack, defense);
+                health -= hit;
+                taken += hit;
+                if (health <= 0) break;
+            }
+            damage += taken;
+            local[base + DAMAGE_HISTOGRAM + Math.min(taken, DAMAGE_BUCKETS - 1)]++;
+            if (health <= 0) {
+                local[base + LOSSES]++;
+                break;
+            }
+            won++;
+        }
+        local[base + won]++;
+        local[base + FIGHTS] += won + (health <= 0 ? 1 : 0);
+        local[base + ROUNDS] += rounds;
+        local[base + DAMAGE] += damage;
+    }
+    
+    // 完整流程的计数：被击败时的回合直方图（turns + 1 格），再是总金币、总经验、总回合、喝药次数，
+    // 最后是等级 2~MAX_LEVEL 到达时的回合直方图
+    private static final int GOLD = 0;
+    private static final int EXPERIENCE = 1;
+    private static final int TURNS = 2;
+    private static final int POTIONS = 3;
+    private static final int TOTALS = 4;
+    
+    /**
+     * 完整流程的结果
+     */
+    public static final class LifeReport {
+        private final long lives;
+        private final int turns;
+        private final long[] counts;
+        private final long nanos;
+        
+        LifeReport(long lives, int turns, long[] counts, long nanos) {
+            this.lives = lives;
+            this.turns = turns;
+            this.counts = counts;
+            this.nanos = nanos;
+        }
+        
+        private int totals() {
+            return turns + 1;
+        }
+        
+        private int levelBase(int level) {
+            return turns + 1 + TOTALS + (level - 2) * (turns + 1);
+        }
+        
+        // 活过 t 回合的比例
+        public double survival(int t) {
+            long dead = 0;
+            for (int i = 0; i <= Math.min(t, turns); i++) {
+                dead += counts[i];
+            }
+            return 1 - (double) dead / lives;
+        }
+        
+        @Override
+        public String toString() {
+            long turnsPlayed = Math.max(1, counts[totals() + TURNS]);
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("=== 完整流程：%d 个角色，每个最多 %d 回合，%.2f 秒（每秒 %.0f 回合）===%n",
+                    lives, turns, nanos / 1e9, counts[totals() + TURNS] * 1e9 / nanos));
+            text.append("存活曲线：");
+            for (int t : new int[] {10, 25, 50, 100, 250, 500, 1000, 2500, 5000}) {
+                if (t >= turns) break;
+                text.append(String.format(" %d 回合 %.1f%%，", t, 100 * survival(t)));
+            }
+            text.append(String.format(" %d 回合 %.1f%%%n", turns, 100 * survival(turns)));
+            text.append(String.format("平均存活 %.1f 回合；每回合金币 %.2f，经验 %.2f；平均每个角色喝药 %.2f 瓶%n",
+                    (double) counts[totals() + TURNS] / lives, (double) counts[totals() + GOLD] / turnsPlayed,
+                    (double) counts[totals() + EXPERIENCE] / turnsPlayed, (double) counts[totals() + POTIONS] / lives));
+            text.append("等级  到达比例  平均回合   p10   p50   p90\n");
+            for (int level = 2; level <= MAX_LEVEL; level++) {
+                int base = levelBase(level);
+                long reached = 0;
+                long sum = 0;
+                for (int t = 0; t <= turns; t++) {
+                    reached += counts[base + t];
+                    sum += counts[base + t] * t;
+                }
+                if (reached == 0) break;
+                text.append(String.format("%4d %8.1f%% %9.1f %5d %5d %5d%n", level, percent(reached, lives),
+                        (double) sum / reached, percentile(counts, base, turns + 1, 0.1),
+                        percentile(counts, base, turns + 1, 0.5), percentile(counts, base, turns + 1, 0.9)));
+            }
+            return text.toString();
+        }
+    }
+    
+    /**
+     * 在 world 上用 items 和 events 模拟 lives 个角色从 1 级开始最多玩 turns 回合
+     */
+    public static LifeReport lives(AdventureWorld world, AdventureItems items, AdventureEvents events,
+            long lives, int turns, int threads, long seed) {
+        if (lives < 1 || turns < 1) {
+            throw new IllegalArgumentException("模拟参数无效: " + lives + " 个角色，" + turns + " 回合");
+        }
+        AtomicLongArray counts = new AtomicLongArray(turns + 1 + TOTALS + (MAX_LEVEL - 1) * (turns + 1));
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.invoke(new Lives(new Setup(world, items, events), 0, lives, turns, seed, counts));
+        } finally {
+            pool.shutdown();
+        }
+        return new LifeReport(lives, turns, snapshot(counts), System.nanoTime() - start);
+    }
+    
+    /**
+     * 完整流程用的地图、物品表和事件表，所有块共用
+     */
+    private static final class Setup {
+        final AdventureWorld world;
+        final AdventureItems items;
+        final AdventureEvents events;
+        
+        Setup(AdventureWorld world, AdventureItems items, AdventureEvents events) {
+            this.world = world;
+            this.items = items;
+            this.events = events;
+        }
+    }
+    
+    /**
+     * 一段连续编号的角色
+     */
+    private static final class Lives extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        final Setup setup;
+        final long from;
+        final long to;
+        final int turns;
+        final long seed;
+        final AtomicLongArray counts;
+        
+        Lives(Setup setup, long from, long to, int turns, long seed, AtomicLongArray counts) {
+            this.setup = setup;
+            this.from = from;
+            this.to = to;
+            this.turns = turns;
+            this.seed = seed;
+            this.counts = counts;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from > LIFE_CHUNK) {
+                long middle = from + (to - from + 2L * LIFE_CHUNK - 1) / (2 * LIFE_CHUNK) * LIFE_CHUNK;
+                invokeAll(new Lives(setup, from, middle, turns, seed, counts),
+                        new Lives(setup, middle, to, turns, seed, counts));
+                return;
+            }
+            SplittableRandom random = chunkRandom(seed, from);
+            AdventureWorld.Cache world = setup.world.newCache(CACHE_CHUNKS);
+            long[] local = new long[counts.length()];
+            for (long life = from; life < to; life++) {
+                life(new TextAdventureGame(world, setup.items, setup.events, random.split(), null), turns, local);
+            }
+            add(counts, local);
+        }
+    }
+    
+    private static void life(TextAdventureGame game, int turns, long[] local) {
+        int totals = turns + 1;
+        game.setPrompts(false);
+        int reached = 1;
+        int potion = game.items().id(POTION);
+        while (!game.isOver() && game.turns() < turns) {
+            if (game.health() <= HEAL_BELOW && potion >= 0 && game.count(potion) > 0) {
+                game.step("use", POTION);
+                local[totals + POTIONS]++;
+            } else {
+                game.step("explore", null);
+            }
+            // 遇到怪物就一直攻击到分出胜负
+            while (game.inCombat()) {
+                game.step("a", null);
+            }
+            for (int level = reached + 1; level <= Math.min(game.level(), MAX_LEVEL); level++) {
+                local[totals + TOTALS + (level - 2) * totals + game.turns()]++;
+            }
+            reached = Math.max(reached, game.level());
+        }
+        if (game.health() <= 0) {
+            local[Math.min(game.turns(), turns)]++;
+        }
+        local[totals + GOLD] += game.gold();
+        local[totals + EXPERIENCE] += game.totalExperience();
+        local[totals + TURNS] += game.turns();
+    }
+    
+    // --levels=等级数 --chains=每级战斗串数 --lives=角色数 --turns=回合上限 --threads=线程数 --seed=种子
+    // --world=地图文件 --items=物品文件 --events=事件文件，只影响完整流程
+    public static void main(String[] args) throws IOException {
+        int levels = 10;
+        long chains = 200_000;
+        long lives = 20_000;
+        int turns = 500;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 1;
+        String worldFile = null;
+        String itemsFile = null;
+        String eventsFile = null;
+        for (String arg : args) {
+            if (arg.startsWith("--levels=")) {
+                levels = Integer.parseInt(arg.substring("--levels=".length()));
+            } else if (arg.startsWith("--chains=")) {
+                chains = Long.parseLong(arg.substring("--chains=".length()));
+            } else if (arg.startsWith("--lives=")) {
+                lives = Long.parseLong(arg.substring("--lives=".length()));
+            } else if (arg.startsWith("--turns=")) {
+                turns = Integer.parseInt(arg.substring("--turns=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            } else if (arg.startsWith("--world=")) {
+                worldFile = arg.substring("--world=".length());
+            } else if (arg.startsWith("--items=")) {
+                itemsFile = arg.substring("--items=".length());
+            } else if (arg.startsWith("--events=")) {
+                eventsFile = arg.substring("--events=".length());
+            } else {
+                throw new IllegalArgumentException("未知参数: " + arg);
+            }
+        }
+        AdventureWorld world = worldFile == null ? TextAdventureGame.DEFAULT_WORLD : AdventureWorld.open(new File(worldFile));
+        AdventureItems items = itemsFile == null ? AdventureItems.DEFAULT : AdventureItems.load(new File(itemsFile));
+        AdventureEvents events = eventsFile == null ? AdventureEvents.DEFAULT : AdventureEvents.load(new File(eventsFile), items);
+        if (chains > 0) {
+            System.out.println(fights(levels, chains, threads, seed));
+        }
+        if (lives > 0) {
+            System.out.println(lives(world, items, events, lives, turns, threads, seed));
+        }
+    }
+}
\ No newline at end of file
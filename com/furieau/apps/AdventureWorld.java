@@ -0,0 +1,423 @@
+package com.furieau.apps;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * 文字冒险的分块地图
+ * 世界切成边长 2^shift 的正方形区块，每格是地点名表里的一个下标（一个字节，最多 256 种地点）。
+ * 每个区块单独做游程编码，按区块号查偏移表就能找到。打开文件时只读文件头和地点名表，整个文件映射到内存，
+ * 用到哪个区块操作系统才读哪几页，所以启动时间和堆占用与世界大小无关。
+ * 解码后的区块放在 Cache 里按最近使用淘汰；Cache 不是线程安全的，每个线程（事件循环）各用一个，
+ * AdventureWorld 本身只读，可以在线程间共享。
+ *
+ * 文件格式（大端）：
+ *   "ADVW"，版本号 int，宽 int，高 int，shift int，地点名个数 int，每个地点名是 UTF-8 字节数 short 加字节，
+ *   然后是按行排列的各个区块：若干段（连续格数 - 1 的 varint，地点下标 byte），区块外的格子也要编码，
+ *   之后是 区块数 + 1 个 int 的偏移表（第 i 个区块占 [偏移 i, 偏移 i+1)），最后一个 int 是偏移表的位置
+ */
+public final class AdventureWorld {
+    private static final int MAGIC = 0x41445657;
+    private static final int VERSION = 1;
+    private static final int MAX_NAMES = 256;
+    
+    // 生成的地图默认用 64×64 的区块，一个解码后的区块 4KB
+    public static final int DEFAULT_SHIFT = 6;
+    
+    private final int width;
+    private final int height;
+    private final int shift;
+    private final int chunksX;
+    private final int chunks;
+    private final String[] names;
+    private final ByteBuffer data;
+    private final int index;
+    
+    private AdventureWorld(ByteBuffer data, String source) throws IOException {
+        this.data = data;
+        int size = data.capacity();
+        if (size < 32 || data.getInt(0) != MAGIC) {
+            throw new IOException("不是地图文件: " + source);
+        }
+        int version = data.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("不支持的地图版本: " + version);
+        }
+        width = data.getInt(8);
+        height = data.getInt(12);
+        shift = data.getInt(16);
+        int count = data.getInt(20);
+        if (width < 1 || height < 1 || shift < 0 || shift > 12 || count < 1 || count > MAX_NAMES) {
+            throw new IOException("地图文件头无效: " + source);
+        }
+        chunksX = ((width - 1) >> shift) + 1;
+        long total = (long) chunksX * (((height - 1) >> shift) + 1);
+        index = data.getInt(size - 4);
+        if (index < 24 || (long) index + (total + 1) * 4 + 4 != size) {
+            throw new IOException("地图文件长度不对，可能没有写完: " + source);
+        }
+        chunks = (int) total;
+        names = new String[count];
+        int position = 24;
+        for (int i = 0; i < count; i++) {
+            int length = data.getShort(position) & 0xFFFF;
+            byte[] bytes = new byte[length];
+            for (int b = 0; b < length; b++) {
+                bytes[b] = data.get(position + 2 + b);
+            }
+            names[i] = new String(bytes, StandardCharsets.UTF_8);
+            position += 2 + length;
+        }
+    }
+    
+    /**
+     * 映射地图文件，只检查文件头和长度，区块在用到时才读
+     */
+    public static AdventureWorld open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("地图文件超过 2GB: " + file);
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new AdventureWorld(data, file.getPath());
+        }
+    }
+    
+    /**
+     * 由二维数组构造一张小地图，map[y][x] 是地点名，数据放在堆里
+     */
+    public static AdventureWorld of(String[][] map) {
+        int height = map.length;
+        int width = map[0].length;
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        for (String[] row : map) {
+            if (row.length != width) {
+                throw new IllegalArgumentException("地图每行的长度必须相同");
+            }
+            for (String name : row) {
+                ids.putIfAbsent(name, ids.size());
+            }
+        }
+        String[] names = ids.keySet().toArray(new String[0]);
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(width, height) - 1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            write(bytes, width, height, Math.min(shift, DEFAULT_SHIFT), names, (x, y) -> ids.get(map[y][x]));
+            return new AdventureWorld(ByteBuffer.wrap(bytes.toByteArray()), "内置地图");
+        } catch (IOException impossible) {
+            throw new UncheckedIOException(impossible);
+        }
+    }
+    
+    public int width() {
+        return width;
+    }
+    
+    public int height() {
+        return height;
+    }
+    
+    public int chunkSize() {
+        return 1 << shift;
+    }
+    
+    public int chunks() {
+        return chunks;
+    }
+    
+    // 新建一个最多保存 maxChunks 个解码后区块的缓存
+    public Cache newCache(int maxChunks) {
+        if (maxChunks < 1) {
+            throw new IllegalArgumentException("区块缓存至少要 1 个: " + maxChunks);
+        }
+        return new Cache(maxChunks);
+    }
+    
+    /**
+     * 解码一个区块到 cells，按区块内的行排列
+     */
+    private void decode(int chunk, byte[] cells) {
+        int position = data.getInt(index + chunk * 4);
+        int end = data.getInt(index + chunk * 4 + 4);
+        if (position < 24 || position > end || end > index) {
+            throw new IllegalStateException("地图文件损坏，区块 " + chunk);
+        }
+        int cell = 0;
+        while (position < end) {
+            int run = 0;
+            int bits = 0;
+            int b;
+            // shift 最大 12 时一段最长 2^24 格，varint 最多 4 个字节
+            do {
+                b = data.get(position++);
+                run |= (b & 0x7F) << bits;
+                bits += 7;
+            } while (b < 0 && bits < 28);
+            int id = data.get(position++) & 0xFF;
+            run++;
+            if (cell + run > cells.length || id >= names.length) break;
+            for (int i = 0; i < run; i++) {
+                cells[cell++] = (byte) id;
+            }
+        }
+        if (cell != cells.length || position != end) {
+            throw new IllegalStateException("地图文件损坏，区块 " + chunk);
+        }
+    }
+    
+    /**
+     * 解码后区块的最近使用缓存，只在一个线程里使用
+     */
+    public final class Cache {
+        private final LinkedHashMap<Integer, byte[]> cached;
+        private final int mask = (1 << shift) - 1;
+        // 最近一次用到的区块，同一区块里连续查询时不用查表
+        private int lastChunk = -1;
+        private byte[] lastCells;
+        // 淘汰下来的数组留给下一次解码
+        private byte[] spare;
+        private long hits;
+        private long misses;
+        
+        private Cache(int maxChunks) {
+            cached = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                    if (size() <= maxChunks) return false;
+                    spare = eldest.getValue();
+                    return true;
+                }
+            };
+        }
+        
+        public AdventureWorld world() {
+            return AdventureWorld.this;
+        }
+        
+        public int width() {
+            return width;
+        }
+        
+        public int height() {
+            return height;
+        }
+        
+        /**
+         * 坐标 (x, y) 的地点名
+         */
+        public String name(int x, int y) {
+            if (x < 0 || x >= width || y < 0 || y >= height) {
+                throw new IllegalArgumentException("坐标超出地图: (" + x + ", " + y + ")");
+            }
+            int chunk = (y >> shift) * chunksX + (x >> shift);
+            if (chunk != lastChunk) {
+                lastCells = load(chunk);
+                lastChunk = chunk;
+            } else {
+                hits++;
+            }
+            return names[lastCells[(y & mask) << shift | (x & mask)] & 0xFF];
+        }
+        
+        private byte[] load(int chunk) {
+            byte[] cells = cached.get(chunk);
+            if (cells != null) {
+                hits++;
+                return cells;
+            }
+            misses++;
+            cells = spare != null ? spare : new byte[1 << (2 * shift)];
+            spare = null;
+            decode(chunk, cells);
+            cached.put(chunk, cells);
+            return cells;
+        }
+        
+        public int size() {
+            return cached.size();
+        }
+        
+        public long hits() {
+            return hits;
+        }
+        
+        public long misses() {
+            return misses;
+        }
+    }
+    
+    // 按坐标给出地点下标
+    interface Cells {
+        int id(int x, int y);
+    }
+    
+    /**
+     * 按区块写出地图，区块一个一个生成、编码，写入时只占一个区块和偏移表的内存
+     */
+    static void write(OutputStream stream, int width, int height, int shift, String[] names, Cells cells) throws IOException {
+        if (width < 1 || height < 1 || shift < 0 || shift > 12 || names.length < 1 || names.length > MAX_NAMES) {
+            throw new IllegalArgumentException("地图参数无效: " + width + "×" + height + "，" + names.length + " 种地点");
+        }
+        int chunksX = ((width - 1) >> shift) + 1;
+        long total = (long) chunksX * (((height - 1) >> shift) + 1);
+        if (total > Integer.MAX_VALUE / 8) {
+            throw new IllegalArgumentException("地图太大: " + width + "×" + height);
+        }
+        int[] offsets = new int[(int) total + 1];
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(shift);
+        out.writeInt(names.length);
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+        int side = 1 << shift;
+        for (int chunk = 0; chunk < total; chunk++) {
+            offsets[chunk] = out.size();
+            int x0 = chunk % chunksX << shift;
+            int y0 = chunk / chunksX << shift;
+            int run = 0;
+            int current = -1;
+            for (int y = y0; y < y0 + side; y++) {
+                for (int x = x0; x < x0 + side; x++) {
+                    // 地图外的格子沿用上一格，不打断游程
+                    int id = x < width && y < height ? cells.id(x, y) : Math.max(current, 0);
+                    if (id != current && run > 0) {
+                        writeRun(out, run, current);
+                        run = 0;
+                    }
+                    current = id;
+                    run++;
+                }
+            }
+            writeRun(out, run, current);
+            if (out.size() < 0) {
+                throw new IllegalArgumentException("地图文件超过 2GB");
+            }
+        }
+        offsets[(int) total] = out.size();
+        int index = out.size();
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        out.writeInt(index);
+        out.flush();
+    }
+    
+    private static void writeRun(DataOutputStream out, int run, int id) throws IOException {
+        int value = run - 1;
+        while (value >= 0x80) {
+            out.writeByte(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+        out.writeByte(id);
+    }
+    
+    /**
+     * 随机生成一张地图：两层值噪声分别作海拔和湿度，决定每格的地形，再稀疏地撒上村庄、城堡和山洞
+     */
+    public static void generate(File file, int width, int height, long seed) throws IOException {
+        String[] names = {"平原", "森林", "河流", "山脉", "沙漠", "沼泽", "村庄", "城堡", "山洞"};
+        long elevation = new SplittableRandom(seed).nextLong();
+        long moisture = new SplittableRandom(seed + 1).nextLong();
+        // 先写到临时文件再改名，中途失败不会留下半张地图
+        File tmp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16)) {
+            write(out, width, height, DEFAULT_SHIFT, names, (x, y) -> {
+                double e = noise(elevation, x, y);
+                double m = noise(moisture, x, y);
+                double r = (hash(seed, x, y) >>> 11) * 0x1.0p-53;
+                if (e < 0.3) return 2;
+                if (e > 0.72) return r < 0.01 ? 8 : 3;
+                if (r < 0.0002) return 7;
+                if (r < 0.003) return 6;
+                if (m > 0.62) return e < 0.4 ? 5 : 1;
+                if (m < 0.35) return 4;
+                return 0;
+            });
+        }
+        if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            throw new IOException("无法写入地图文件: " + file);
+        }
+    }
+    
+    // 两个倍频的值噪声，结果在 0~1 之间
+    private static double noise(long seed, int x, int y) {
+        return 0.7 * lattice(seed, x, y, 48) + 0.3 * lattice(seed ^ 0x5DEECE66DL, x, y, 12);
+    }
+    
+    private static double lattice(long seed, int x, int y, int scale) {
+        int gx = Math.floorDiv(x, scale);
+        int gy = Math.floorDiv(y, scale);
+        double fx = smooth((x - gx * scale) / (double) scale);
+        double fy = smooth((y - gy * scale) / (double) scale);
+        double a = corner(seed, gx, gy);
+        double b = corner(seed, gx + 1, gy);
+        double c = corner(seed, gx, gy + 1);
+        double d = corner(seed, gx + 1, gy + 1);
+        return (a + (b - a) * fx) * (1 - fy) + (c + (d - c) * fx) * fy;
+    }
+    
+    private static double smooth(double t) {
+        return t * t * (3 - 2 * t);
+    }
+    
+    private static double corner(long seed, int x, int y) {
+        return (hash(seed, x, y) >>> 11) * 0x1.0p-53;
+    }
+    
+    // SplitMix64 的混合函数
+    private static long hash(long seed, int x, int y) {
+        long z = seed + ((long) x << 32 ^ (y & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    // 生成地图：--out=文件 --width=W --height=H [--seed=S]
+    public static void main(String[] args) throws IOException {
+        String out = "world.adv";
+        int width = 4096;
+        int height = 4096;
+        long seed = 1;
+        for (String arg : args) {
+            if (arg.startsWith("--out=")) {
+                out = arg.substring("--out=".length());
+            } else if (arg.startsWith("--width=")) {
+                width = Integer.parseInt(arg.substring("--width=".length()));
+            } else if (arg.startsWith("--height=")) {
+                height = Integer.parseInt(arg.substring("--height=".length()));
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            } else {
+                throw new IllegalArgumentException("未知参数: " + arg);
+            }
+        }
+        File file = new File(out);
+        long start = System.nanoTime();
+        generate(file, width, height, seed);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        
+        start = System.nanoTime();
+        AdventureWorld world = open(file);
+        Cache cache = world.newCache(64);
+        String center = cache.name(width / 2, height / 2);
+        double millis = (System.nanoTime() - start) / 1e6;
+        System.out.printf("%d×%d 共 %d 个地点，%d 个区块，文件 %d 字节（每个地点 %.3f 字节），生成用时 %.2f 秒%n",
+                width, height, (long) width * height, world.chunks(), file.length(),
+                file.length() / ((double) width * height), seconds);
+        System.out.printf("打开并读出中心地点（%s）用时 %.2f 毫秒，写入 %s%n", center, millis, file);
+    }
+}
\ No newline at end of file
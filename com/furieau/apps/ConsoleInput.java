@@ -0,0 +1,248 @@
+package com.furieau.apps;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 终端按键输入，贪吃蛇和竞技场客户端共用
+ * 后端：
+ *   native - 进程内调用 tcsetattr 切换原始模式（见 native/java22 下的 NativeTerminal，需要 Java 22）
+ *   stty   - 启动一次 stty 切换原始模式
+ *   line   - 不切换终端模式，按行阻塞读取，用于管道和没有终端的环境（如 Android）
+ *   auto   - 依次尝试 native、stty、line
+ * 原始模式下设置 VMIN=0、VTIME=超时，通过标准输入的 FileChannel 读取：
+ * 有按键时立即返回，没有按键时最多等待超时，读线程能及时发现游戏结束。
+ * 按键到生效的延迟只取决于帧间隔，与超时长短无关。
+ */
+final class ConsoleInput implements Closeable {
+    static final String AUTO = "auto";
+    static final String NATIVE = "native";
+    static final String STTY = "stty";
+    static final String LINE = "line";
+    
+    /**
+     * 终端模式切换
+     */
+    interface Terminal {
+        // 进入原始模式，没有按键时读取最多等待 timeoutMillis 毫秒
+        void enterRaw(int timeoutMillis) throws IOException;
+        
+        // 原始模式下切换读取方式：blocking 时至少读到一个字节才返回，否则回到进入原始模式时的超时
+        void setBlocking(boolean blocking) throws IOException;
+        
+        // 恢复进入原始模式前的设置
+        void restore() throws IOException;
+        
+        // 终端的行数和列数，取不到时返回 null
+        int[] size();
+    }
+    
+    private static Terminal nativeTerminal;
+    private static boolean nativeLoaded;
+    
+    private final String backend;
+    private final Terminal terminal;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    // 原始模式下读取的超时，远没到超时就读到 0 字节时要再确认是不是输入结束
+    private final long timeoutNanos;
+    
+    private ConsoleInput(String backend, Terminal terminal, int timeoutMillis) {
+        this.backend = backend;
+        this.terminal = terminal;
+        this.timeoutNanos = timeoutMillis * 1000000L;
+        if (terminal != null) {
+            // 不关闭这个通道，关闭会连带关闭标准输入
+            channel = new FileInputStream(FileDescriptor.in).getChannel();
+            buffer = ByteBuffer.allocateDirect(64);
+        } else {
+            channel = null;
+            buffer = null;
+        }
+    }
+    
+    /**
+     * 打开指定后端，auto 时失败会退到下一个后端，指定了后端时失败抛出异常
+     */
+    static ConsoleInput open(String backend, int timeoutMillis) throws IOException {
+        checkBackend(backend);
+        boolean auto = backend.equals(AUTO);
+        if (auto || backend.equals(NATIVE)) {
+            Terminal terminal = nativeTerminal();
+            if (terminal != null) {
+                try {
+                    terminal.enterRaw(timeoutMillis);
+                    return new ConsoleInput(NATIVE, terminal, timeoutMillis);
+                } catch (IOException e) {
+                    if (!auto) throw e;
+                }
+            } else if (!auto) {
+                throw new IOException("当前运行环境不支持 native 输入后端（需要 Linux 和 Java 22 及以上）");
+            }
+        }
+        if (auto || backend.equals(STTY)) {
+            Terminal terminal = new SttyTerminal();
+            try {
+                terminal.enterRaw(timeoutMillis);
+                return new ConsoleInput(STTY, terminal, timeoutMillis);
+            } catch (IOException e) {
+                if (!auto) throw e;
+            }
+        }
+        return new ConsoleInput(LINE, null, timeoutMillis);
+    }
+    
+    static void checkBackend(String backend) {
+        if (!backend.equals(AUTO) && !backend.equals(NATIVE) && !backend.equals(STTY) && !backend.equals(LINE)) {
+            throw new IllegalArgumentException("未知输入后端: " + backend + "（可选 auto、native、stty、line）");
+        }
+    }
+    
+    // 实际使用的后端
+    String backend() {
+        return backend;
+    }
+    
+    /**
+     * 读取按键
+     * @return 读到的字节数，超时返回 0，输入结束返回 -1
+     */
+    int read(byte[] keys) throws IOException {
+        if (channel == null) {
+            return System.in.read(keys);
+        }
+        buffer.clear();
+        buffer.limit(Math.min(keys.length, buffer.capacity()));
+        long start = System.nanoTime();
+        int n = channel.read(buffer);
+        if (n <= 0) {
+            // VMIN=0 时 read(2) 返回 0 既可能是超时也可能是输入结束，FileChannel 一律报告成 -1。
+            // 等满超时才返回的是没有按键；提前返回的可能是终端挂断，也可能只是被信号打断，
+            // 这时改成阻塞读再读一次，阻塞读也读不到字节才是真正的输入结束
+            if (System.nanoTime() - start >= timeoutNanos / 2) return 0;
+            terminal.setBlocking(true);
+            try {
+                n = channel.read(buffer);
+            } finally {
+                terminal.setBlocking(false);
+            }
+            if (n <= 0) return -1;
+        }
+        buffer.flip();
+        buffer.get(keys, 0, n);
+        return n;
+    }
+    
+    // 恢复终端设置
+    @Override
+    public void close() throws IOException {
+        if (terminal != null) {
+            terminal.restore();
+        }
+    }
+    
+    /**
+     * 读取终端行数和列数，依次尝试 native、stty、环境变量 LINES/COLUMNS，最后使用 24x80
+     */
+    static int[] terminalSize() {
+        Terminal terminal = nativeTerminal();
+        int[] size = terminal != null ? terminal.size() : null;
+        if (size == null) {
+            size = new SttyTerminal().size();
+        }
+        if (size == null) {
+            size = new int[] {parsePositive(System.getenv("LINES"), 24), parsePositive(System.getenv("COLUMNS"), 80)};
+        }
+        return size;
+    }
+    
+    // NativeTerminal 需要更新的 JDK 编译，用反射加载，类不存在或版本不符时返回 null
+    private static synchronized Terminal nativeTerminal() {
+        if (!nativeLoaded) {
+            nativeLoaded = true;
+            try {
+                Class<?> type = Class.forName("com.furieau.apps.NativeTerminal");
+                nativeTerminal = (Terminal) type.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                nativeTerminal = null;
+            }
+        }
+        return nativeTerminal;
+    }
+    
+    private static int parsePositive(String text, int fallback) {
+        try {
+            int value = Integer.parseInt(text.trim());
+            return value > 0 ? value : fallback;
+        } catch (RuntimeException e) {
+            return fallback;
+        }
+    }
+    
+    /**
+     * 通过 stty 切换模式，进入原始模式时只启动一个进程，同时保存原来的设置
+     */
+    static final class SttyTerminal implements Terminal {
+        private String saved;
+        private int deciseconds;
+        
+        @Override
+        public void enterRaw(int timeoutMillis) throws IOException {
+            deciseconds = Math.max(1, Math.min(255, timeoutMillis / 100));
+            // opost：保留输出处理（换行补回车），与 native 后端一致
+            saved = stty("stty -g </dev/tty && stty raw -echo opost min 0 time " + deciseconds + " </dev/tty");
+        }
+        
+        @Override
+        public void setBlocking(boolean blocking) throws IOException {
+            stty(blocking ? "stty min 1 time 0 </dev/tty" : "stty min 0 time " + deciseconds + " </dev/tty");
+        }
+        
+        @Override
+        public void restore() throws IOException {
+            if (saved != null) {
+                stty("stty " + saved + " </dev/tty");
+                saved = null;
+            }
+        }
+        
+        @Override
+        public int[] size() {
+            try {
+                String[] parts = stty("stty size </dev/tty").split("\\s+");
+                if (parts.length == 2) {
+                    int rows = parsePositive(parts[0], 0);
+                    int columns = parsePositive(parts[1], 0);
+                    if (rows > 0 && columns > 0) return new int[] {rows, columns};
+                }
+            } catch (IOException e) {
+                // 不是终端
+            }
+            return null;
+        }
+        
+        // 运行 shell 命令，返回第一行输出，失败时抛出异常；子进程的管道用完都关闭
+        private static String stty(String command) throws IOException {
+            Process process = new ProcessBuilder("/bin/sh", "-c", command).redirectErrorStream(true).start();
+            process.getOutputStream().close();
+            String line;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                line = reader.readLine();
+                // 读完剩下的输出，子进程不会因为管道写满而卡住
+                while (reader.readLine() != null) {
+                    // 丢弃
+                }
+            }
+            try {
+                if (process.waitFor() != 0) {
+                    throw new IOException("stty 执行失败: " + line);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待 stty 时被中断");
+            }
+            return line == null ? "" : line.trim();
+        }
+    }
+}
\ No newline at end of file
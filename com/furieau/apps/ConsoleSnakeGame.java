@@ -1,12 +1,17 @@
 package com.furieau.apps;
 
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 public class ConsoleSnakeGame {
-    // 游戏区域大小
-    private static final int WIDTH = 20;
-    private static final int HEIGHT = 15;
+    // 默认游戏区域大小
+    private static final int DEFAULT_WIDTH = 20;
+    private static final int DEFAULT_HEIGHT = 15;
     
     // 游戏元素符号
     private static final char SNAKE_BODY = '■';
@@ -14,273 +19,1511 @@ public class ConsoleSnakeGame {
     private static final char FOOD = '★';
     private static final char EMPTY = '　';
     
+    // 渲染器中使用的格子编码，对应上面的符号
+    static final byte GLYPH_EMPTY = 0;
+    static final byte GLYPH_BODY = 1;
+    static final byte GLYPH_HEAD = 2;
+    static final byte GLYPH_FOOD = 3;
+    private static final char[] GLYPHS = {EMPTY, SNAKE_BODY, SNAKE_HEAD, FOOD};
+    
+    // 状态栏行数：分数、操作提示、暂停/结束提示
+    private static final int STATUS_LINES = 3;
+    private static final String HELP_LINE = "使用 W A S D 控制方向，P 暂停，R 重新开始，Q 退出";
+    
     // 方向常量
-    private static final int UP = 0;
-    private static final int RIGHT = 1;
-    private static final int DOWN = 2;
-    private static final int LEFT = 3;
+    private static final int UP = SnakeGrid.UP;
+    private static final int RIGHT = SnakeGrid.RIGHT;
+    private static final int DOWN = SnakeGrid.DOWN;
+    private static final int LEFT = SnakeGrid.LEFT;
+    
+    // 输入命令，方向命令直接使用上面的方向常量
+    private static final int CMD_PAUSE = 4;
+    private static final int CMD_RESTART = 5;
+    private static final int CMD_QUIT = 6;
+    
+    // 默认每帧间隔（毫秒），0 表示不限速
+    private static final long DEFAULT_TICK_MILLIS = 200;
+    
+    // 自动驾驶模式下，游戏结束后停留多少帧再自动重新开始
+    private static final int AUTO_RESTART_TICKS = 15;
+    
+    // 输入线程没有按键时最多等待多久再检查游戏是否结束，不影响按键生效的延迟
+    private static final int INPUT_TIMEOUT_MILLIS = 100;
     
     // 游戏状态
-    private boolean gameOver = false;
     private boolean paused = false;
-    private int score = 0;
     
-    // 蛇和食物
-    private LinkedList<Point> snake;
-    private Point food;
-    private int direction;
+    // 模拟核心，以及本帧要转向的方向
+    private final Engine engine;
+    private final long engineSeed;
+    private int turn = Engine.KEEP;
     
-    // 随机数生成器
-    private Random random;
+    // 视口大小：棋盘比终端大时只显示跟随蛇头的一块区域
+    private final int viewWidth;
+    private final int viewHeight;
     
-    // 点类，表示坐标
-    private static class Point {
-        int x, y;
-        
-        Point(int x, int y) {
-            this.x = x;
-            this.y = y;
-        }
-        
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) return true;
-            if (obj == null || getClass() != obj.getClass()) return false;
-            Point point = (Point) obj;
-            return x == point.x && y == point.y;
+    // 自动驾驶，为 null 时由玩家控制
+    private final Autopilot autopilot;
+    private int overTicks;
+    
+    // 回放录制和播放，不使用时为 null
+    private ReplayRecorder recorder;
+    private ReplayPlayer player;
+    private boolean replayEnded;
+    
+    // 帧渲染器，以及缓存的分数行（分数变化时才重新拼接字符串）
+    private final FrameRenderer renderer;
+    private int renderedScore = -1;
+    private String scoreLine;
+    
+    // 输入线程解码后的命令队列，以及固定帧率的调度
+    private final CommandQueue commands = new CommandQueue(64);
+    private final long tickMillis;
+    private final String inputBackend;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean running;
+    // 帧线程上抛出的异常，run() 恢复终端后再抛出
+    private volatile Throwable failure;
+    
+    public ConsoleSnakeGame() {
+        this(new Options());
+    }
+    
+    public ConsoleSnakeGame(Options options) {
+        this(options, new FileOutputStream(FileDescriptor.out));
+    }
+    
+    // screen 是画面输出的目标，基准测试时传入空输出流
+    ConsoleSnakeGame(Options options, OutputStream screen) {
+        if (options.tickMillis < 0) {
+            throw new IllegalArgumentException("帧间隔不能为负数: " + options.tickMillis);
         }
+        ConsoleInput.checkBackend(options.input);
+        this.tickMillis = options.tickMillis;
+        this.inputBackend = options.input;
+        this.autopilot = options.autopilot ? new Autopilot() : null;
+        engineSeed = options.seeded ? options.seed : System.nanoTime();
+        engine = new Engine(options.width, options.height, engineSeed);
         
-        @Override
-        public int hashCode() {
-            return Objects.hash(x, y);
+        // 视口默认按终端大小计算：每格两列，去掉边框和状态栏
+        int viewWidth = options.viewWidth;
+        int viewHeight = options.viewHeight;
+        if (viewWidth <= 0 || viewHeight <= 0) {
+            int[] size = ConsoleInput.terminalSize();
+            if (viewWidth <= 0) viewWidth = (size[1] - 2) / 2;
+            if (viewHeight <= 0) viewHeight = size[0] - 3 - STATUS_LINES;
         }
+        this.viewWidth = Math.max(1, Math.min(options.width, viewWidth));
+        this.viewHeight = Math.max(1, Math.min(options.height, viewHeight));
+        renderer = new FrameRenderer(screen, this.viewWidth, this.viewHeight, STATUS_LINES);
+        initializeGame();
     }
     
-    public ConsoleSnakeGame() {
-        random = new Random();
-        initializeGame();
+    Engine engine() {
+        return engine;
+    }
+    
+    FrameRenderer renderer() {
+        return renderer;
+    }
+    
+    // 直接设置下一帧的转向，不经过键盘输入
+    void steer(int direction) {
+        turn = direction;
+    }
+    
+    /**
+     * 把这一局录制到文件，必须在开始运行之前调用
+     */
+    public void record(File file) throws IOException {
+        recorder = new ReplayRecorder(file, engine.width(), engine.height(), tickMillis, engineSeed);
+    }
+    
+    /**
+     * 播放回放文件，棋盘大小和种子必须与创建游戏时的选项一致（见 Options.replay）
+     */
+    void play(ReplayPlayer player) {
+        this.player = player;
     }
     
     // 初始化游戏
     private void initializeGame() {
-        // 初始化蛇，长度为3，位于屏幕中央
-        snake = new LinkedList<>();
-        int startX = WIDTH / 2;
-        int startY = HEIGHT / 2;
-        snake.add(new Point(startX, startY));
-        snake.add(new Point(startX - 1, startY));
-        snake.add(new Point(startX - 2, startY));
-        
-        // 初始方向向右
-        direction = RIGHT;
-        
-        // 生成第一个食物
-        generateFood();
-        
-        // 重置游戏状态
-        gameOver = false;
+        engine.reset();
+        turn = Engine.KEEP;
         paused = false;
-        score = 0;
-    }
-    
-    // 生成食物
-    private void generateFood() {
-        while (true) {
-            int x = random.nextInt(WIDTH);
-            int y = random.nextInt(HEIGHT);
-            food = new Point(x, y);
-            
-            // 确保食物不会生成在蛇身上
-            if (!snake.contains(food)) {
-                break;
-            }
-        }
+        overTicks = 0;
     }
     
     // 绘制游戏界面
-    private void draw() {
-        // 清屏
-        System.out.print("\033[H\033[2J");
-        System.out.flush();
+    void draw() {
+        // 视口以蛇头为中心，靠近边界时贴边，每帧只处理视口内的格子
+        int width = engine.width();
+        int head = engine.head();
+        int food = engine.food();
+        int left = clamp(head % width - viewWidth / 2, 0, width - viewWidth);
+        int top = clamp(head / width - viewHeight / 2, 0, engine.height() - viewHeight);
         
-        // 绘制上边界
-        System.out.print("┌");
-        for (int i = 0; i < WIDTH; i++) {
-            System.out.print("─");
-        }
-        System.out.println("┐");
-        
-        // 绘制游戏区域
-        for (int y = 0; y < HEIGHT; y++) {
-            System.out.print("│");
-            for (int x = 0; x < WIDTH; x++) {
-                Point current = new Point(x, y);
-                if (snake.getFirst().equals(current)) {
-                    System.out.print(SNAKE_HEAD);
-                } else if (snake.contains(current)) {
-                    System.out.print(SNAKE_BODY);
-                } else if (food.equals(current)) {
-                    System.out.print(FOOD);
+        // 填充下一帧，渲染器只输出与上一帧不同的格子
+        for (int y = 0; y < viewHeight; y++) {
+            int row = (top + y) * width + left;
+            for (int x = 0; x < viewWidth; x++) {
+                int current = row + x;
+                byte glyph;
+                if (current == head) {
+                    glyph = GLYPH_HEAD;
+                } else if (engine.isOccupied(current)) {
+                    glyph = GLYPH_BODY;
+                } else if (current == food) {
+                    glyph = GLYPH_FOOD;
                 } else {
-                    System.out.print(EMPTY);
+                    glyph = GLYPH_EMPTY;
                 }
+                renderer.setCell(x, y, glyph);
             }
-            System.out.println("│");
-        }
-        
-        // 绘制下边界
-        System.out.print("└");
-        for (int i = 0; i < WIDTH; i++) {
-            System.out.print("─");
         }
-        System.out.println("┘");
         
         // 显示分数和提示
-        System.out.println("分数: " + score);
-        System.out.println("使用 W A S D 控制方向，P 暂停，R 重新开始，Q 退出");
-        if (paused) {
-            System.out.println("游戏已暂停，按 P 继续");
+        int score = engine.score();
+        if (score != renderedScore) {
+            renderedScore = score;
+            scoreLine = "分数: " + score;
         }
-        if (gameOver) {
-            System.out.println("游戏结束！按 R 重新开始");
+        renderer.setStatus(0, scoreLine);
+        renderer.setStatus(1, HELP_LINE);
+        if (replayEnded) {
+            renderer.setStatus(2, "回放结束，按 Q 退出");
+        } else if (engine.isWon()) {
+            renderer.setStatus(2, "恭喜你占满了整个棋盘！按 R 重新开始");
+        } else if (engine.isOver()) {
+            renderer.setStatus(2, "游戏结束！按 R 重新开始");
+        } else if (paused) {
+            renderer.setStatus(2, "游戏已暂停，按 P 继续");
+        } else {
+            renderer.setStatus(2, "");
+        }
+        
+        try {
+            renderer.flush();
+        } catch (IOException e) {
+            // 输出失败时跳过这一帧
         }
     }
     
-    // 处理输入
+    static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+    
+    // 处理输入：暂停、重开、退出立即生效，方向每帧最多转一次，
+    // 剩下的方向命令留到后面的帧，连按两个键不会丢失
     private void processInput() {
+        int command;
+        while ((command = commands.poll()) >= 0) {
+            switch (command) {
+                case UP:
+                case DOWN:
+                case LEFT:
+                case RIGHT:
+                    // 回放时忽略方向键；不能直接掉头，也忽略与当前方向相同的按键
+                    if (player != null) break;
+                    int direction = engine.direction();
+                    if (command != direction && command != (direction + 2) % 4) {
+                        turn = command;
+                        return;
+                    }
+                    break;
+                case CMD_PAUSE:
+                    paused = !paused;
+                    break;
+                case CMD_RESTART:
+                    if (engine.isOver() && player == null) restartGame();
+                    break;
+                case CMD_QUIT:
+                    stop();
+                    return;
+            }
+        }
+    }
+    
+    // 把按键解码为命令，无关按键返回 -1
+    private static int decodeKey(int key) {
+        switch (key) {
+            case 'w':
+            case 'W':
+                return UP;
+            case 's':
+            case 'S':
+                return DOWN;
+            case 'a':
+            case 'A':
+                return LEFT;
+            case 'd':
+            case 'D':
+                return RIGHT;
+            case 'p':
+            case 'P':
+                return CMD_PAUSE;
+            case 'r':
+            case 'R':
+                return CMD_RESTART;
+            case 'q':
+            case 'Q':
+                return CMD_QUIT;
+            default:
+                return -1;
+        }
+    }
+    
+    // 输入线程：等待按键，解码后放入命令队列；超时返回时检查游戏是否已结束
+    private void readInput(ConsoleInput input) {
+        byte[] keys = new byte[64];
         try {
-            // 非阻塞读取输入
-            if (System.in.available() > 0) {
-                int key = System.in.read();
-                
-                // 忽略回车键
-                if (key == 10) return;
-                
-                switch (key) {
-                    case 'w':
-                    case 'W':
-                        if (direction != DOWN) direction = UP;
-                        break;
-                    case 's':
-                    case 'S':
-                        if (direction != UP) direction = DOWN;
-                        break;
-                    case 'a':
-                    case 'A':
-                        if (direction != RIGHT) direction = LEFT;
-                        break;
-                    case 'd':
-                    case 'D':
-                        if (direction != LEFT) direction = RIGHT;
-                        break;
-                    case 'p':
-                    case 'P':
-                        paused = !paused;
-                        break;
-                    case 'r':
-                    case 'R':
-                        if (gameOver) initializeGame();
-                        break;
-                    case 'q':
-                    case 'Q':
-                        System.exit(0);
-                        break;
+            int n;
+            while (running && (n = input.read(keys)) >= 0) {
+                for (int i = 0; i < n; i++) {
+                    int command = decodeKey(keys[i]);
+                    if (command >= 0) {
+                        // 队列满时丢弃，说明按键远快于帧率
+                        commands.offer(command);
+                    }
                 }
             }
-        } catch (Exception e) {
+        } catch (IOException e) {
             // 忽略输入异常
         }
     }
     
+    // 一帧：处理输入、更新状态、绘制
+    private void tick() {
+        if (!running) return;
+        try {
+            processInput();
+            update();
+            draw();
+        } catch (RuntimeException | Error e) {
+            // 调度器的 Future 没人读，异常留给 run() 处理
+            failure = e;
+            stop();
+        }
+    }
+    
+    private void stop() {
+        running = false;
+        stopped.countDown();
+    }
+    
     // 更新游戏状态
-    private void update() {
-        if (paused || gameOver) return;
-        
-        // 计算新的蛇头位置
-        Point head = snake.getFirst();
-        Point newHead;
-        
-        switch (direction) {
-            case UP:
-                newHead = new Point(head.x, head.y - 1);
-                break;
-            case DOWN:
-                newHead = new Point(head.x, head.y + 1);
-                break;
-            case LEFT:
-                newHead = new Point(head.x - 1, head.y);
-                break;
-            case RIGHT:
-                newHead = new Point(head.x + 1, head.y);
-                break;
-            default:
-                newHead = head;
+    void update() {
+        if (paused || replayEnded) return;
+        try {
+            if (player != null) {
+                replayStep();
+                return;
+            }
+            if (engine.isOver()) {
+                // 无人值守时自动开始下一局
+                if (autopilot != null && ++overTicks >= AUTO_RESTART_TICKS) {
+                    restartGame();
+                }
+                return;
+            }
+            if (autopilot != null) {
+                turn = autopilot.nextTurn(engine);
+            }
+            engine.step(turn);
+            if (recorder != null) {
+                recorder.step(turn);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        
-        // 检查是否撞墙
-        if (newHead.x < 0 || newHead.x >= WIDTH || newHead.y < 0 || newHead.y >= HEIGHT) {
-            gameOver = true;
+        turn = Engine.KEEP;
+    }
+    
+    // 回放一帧：先处理重新开始，再按录制的方向前进
+    private void replayStep() throws IOException {
+        int command;
+        while ((command = player.next()) == REPLAY_RESTART) {
+            initializeGame();
+        }
+        if (command == REPLAY_END) {
+            replayEnded = true;
             return;
         }
+        engine.step(command);
+    }
+    
+    // 重新开始一局，录制时记录下来
+    private void restartGame() {
+        initializeGame();
+        if (recorder != null) {
+            try {
+                recorder.restart();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+    
+    /**
+     * 不绘制画面，尽快播放完整个回放，返回播放的帧数
+     */
+    long replayAll() {
+        long ticks = 0;
+        while (!replayEnded) {
+            update();
+            ticks++;
+        }
+        return ticks;
+    }
+    
+    // 运行游戏
+    public void run() {
+        System.out.println("贪吃蛇游戏开始！");
+        System.out.println(HELP_LINE);
+        System.out.flush();
         
-        // 检查是否撞到自己
-        if (snake.contains(newHead)) {
-            gameOver = true;
-            return;
+        // 设置控制台为原始模式，失败时按行读取
+        ConsoleInput input;
+        try {
+            input = ConsoleInput.open(inputBackend, INPUT_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            System.err.println("无法使用输入后端 " + inputBackend + ": " + e.getMessage() + "，改为按行读取");
+            try {
+                input = ConsoleInput.open(ConsoleInput.LINE, INPUT_TIMEOUT_MILLIS);
+            } catch (IOException impossible) {
+                throw new UncheckedIOException(impossible);
+            }
         }
         
-        // 移动蛇
-        snake.addFirst(newHead);
+        running = true;
+        ConsoleInput keys = input;
+        Thread reader = new Thread(() -> readInput(keys), "snake-input");
+        reader.setDaemon(true);
+        reader.start();
         
-        // 检查是否吃到食物
-        if (newHead.equals(food)) {
-            score += 10;
+        // 不限速时直接在当前线程循环，用作压力测试
+        if (tickMillis == 0) {
+            while (running) {
+                tick();
+            }
+        }
+        
+        // 游戏主循环：按固定频率调度，绘制耗时不会让帧间隔漂移
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snake-tick");
+            t.setDaemon(true);
+            return t;
+        });
+        if (tickMillis > 0) {
+            scheduler.scheduleAtFixedRate(this::tick, 0, tickMillis, TimeUnit.MILLISECONDS);
+        }
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        running = false;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        // 结束录制，恢复光标和控制台设置
+        try {
+            if (recorder != null) recorder.close();
+            if (player != null) player.close();
+        } catch (IOException e) {
+            System.err.println("关闭回放文件失败: " + e.getMessage());
+        }
+        try {
+            renderer.close();
+        } catch (IOException e) {
+            // 忽略异常
+        }
+        try {
+            input.close();
+        } catch (IOException e) {
+            // 忽略异常
+        }
+        
+        // 帧线程出错结束时不能当作正常退出
+        Throwable error = failure;
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error != null) {
+            throw (Error) error;
+        }
+    }
+    
+    /**
+     * 无 I/O 的贪吃蛇模拟核心
+     * 只依赖种子和每帧输入的方向，同样的种子和输入总是得到同样的结果。
+     * step() 不分配对象，copyFrom() 只做数组拷贝，适合机器人评估和批量回归。
+     * 棋盘大小在运行时指定，内存只有蛇身长度的环形缓冲区和每格一位的占用位图。
+     */
+    public static final class Engine {
+        // step() 返回的事件位
+        public static final int EVENT_ATE = 1;
+        public static final int EVENT_DIED = 2;
+        public static final int EVENT_WON = 4;
+        
+        // 表示本帧不转向
+        public static final int KEEP = -1;
+        
+        // 格子数上限，保证压缩坐标不会溢出
+        public static final int MAX_CELLS = SnakeGrid.MAX_CELLS;
+        
+        // 棋盘大小，格子用压缩坐标 y * width + x 表示
+        private final SnakeGrid grid;
+        
+        // 蛇身：按需扩容的环形缓冲区，从蛇头到蛇尾
+        private final SnakeGrid.Body body;
+        
+        // 占用位图：每个格子一位，用于 O(1) 判断是否撞到自己
+        private final long[] occupied;
+        
+        // 空闲格子索引：freeCells[0..freeCount) 是所有不在蛇身上的格子，
+        // freePos 记录每个格子在 freeCells 中的位置，占用/释放时交换删除，都是 O(1)。
+        // 蛇身不到半个棋盘时在位图上随机取点，期望不超过两次就能命中空格，
+        // 只有蛇占满半个棋盘之后才建立索引，大棋盘平时不需要这两个数组。
+        private int[] freeCells;
+        private int[] freePos;
+        private int freeCount;
+        private boolean indexed;
+        
+        private int food;
+        private int direction;
+        private int score;
+        private boolean over;
+        private boolean won;
+        private long ticks;
+        
+        // 随机数（SplitMix64），只有一个 long 的状态，复制状态时一起拷贝
+        private final SnakeGrid.SplitMix random = new SnakeGrid.SplitMix(0);
+        
+        public Engine(int width, int height, long seed) {
+            this.grid = new SnakeGrid(width, height);
+            this.body = new SnakeGrid.Body(64, grid.cells);
+            this.occupied = grid.bitmap();
+            reset(seed);
+        }
+        
+        // 用新的种子重新开始
+        public void reset(long seed) {
+            random.seed = seed;
+            reset();
+        }
+        
+        // 重新开始，随机数序列接着上一局继续
+        public void reset() {
+            // 初始化蛇，长度为3，位于屏幕中央
+            Arrays.fill(occupied, 0L);
+            indexed = false;
+            body.clear();
+            int startX = grid.width / 2;
+            int startY = grid.height / 2;
+            addTail(cellOf(startX, startY));
+            addTail(cellOf(startX - 1, startY));
+            addTail(cellOf(startX - 2, startY));
+            
+            // 初始方向向右
+            direction = RIGHT;
+            score = 0;
+            over = false;
+            won = false;
+            ticks = 0;
+            
+            // 生成第一个食物
             generateFood();
-        } else {
+        }
+        
+        /**
+         * 用给定的蛇身（蛇头在前）重新开始，用于基准测试构造指定长度的蛇
+         */
+        void reset(int[] snake, int direction) {
+            Arrays.fill(occupied, 0L);
+            indexed = false;
+            body.clear();
+            for (int cell : snake) {
+                addTail(cell);
+            }
+            this.direction = direction;
+            score = 0;
+            over = false;
+            won = false;
+            ticks = 0;
+            generateFood();
+        }
+        
+        // 复制另一个同样大小的模拟的全部状态
+        public void copyFrom(Engine other) {
+            if (other.grid.width != grid.width || other.grid.height != grid.height) {
+                throw new IllegalArgumentException("棋盘大小不同");
+            }
+            body.copyFrom(other.body);
+            System.arraycopy(other.occupied, 0, occupied, 0, occupied.length);
+            indexed = other.indexed;
+            if (indexed) {
+                ensureIndexArrays();
+                System.arraycopy(other.freeCells, 0, freeCells, 0, other.freeCount);
+                System.arraycopy(other.freePos, 0, freePos, 0, grid.cells);
+            }
+            freeCount = other.freeCount;
+            food = other.food;
+            direction = other.direction;
+            score = other.score;
+            over = other.over;
+            won = other.won;
+            ticks = other.ticks;
+            random.seed = other.random.seed;
+        }
+        
+        public Engine copy() {
+            Engine engine = new Engine(grid.width, grid.height, 0);
+            engine.copyFrom(this);
+            return engine;
+        }
+        
+        /**
+         * 前进一帧
+         * @param turn 新方向，KEEP 表示保持；掉头会被忽略
+         * @return 本帧发生的事件位，游戏已结束时返回 0
+         */
+        public int step(int turn) {
+            if (over) return 0;
+            if (turn >= 0 && turn != (direction + 2) % 4) {
+                direction = turn;
+            }
+            ticks++;
+            
+            // 计算新的蛇头位置，撞墙时返回 -1
+            int newHead = neighbour(head(), direction);
+            if (newHead < 0) {
+                over = true;
+                return EVENT_DIED;
+            }
+            
+            // 检查是否撞到自己
+            if (isOccupied(newHead)) {
+                over = true;
+                return EVENT_DIED;
+            }
+            
+            // 移动蛇
+            addHead(newHead);
+            
+            // 检查是否吃到食物
+            if (newHead == food) {
+                score += 10;
+                generateFood();
+                return won ? EVENT_ATE | EVENT_WON : EVENT_ATE;
+            }
             // 如果没有吃到食物，移除蛇尾
-            snake.removeLast();
+            removeTail();
+            return 0;
+        }
+        
+        /**
+         * 批量前进，依次使用 turns[from..from+count) 作为每帧的方向
+         * @return 实际前进的帧数，游戏结束时提前停止
+         */
+        public int run(int[] turns, int from, int count) {
+            for (int i = 0; i < count; i++) {
+                if (over) return i;
+                step(turns[from + i]);
+            }
+            return count;
+        }
+        
+        public int width() {
+            return grid.width;
+        }
+        
+        public int height() {
+            return grid.height;
+        }
+        
+        public int cells() {
+            return grid.cells;
+        }
+        
+        public int cellOf(int x, int y) {
+            return y * grid.width + x;
+        }
+        
+        // 格子朝某个方向的相邻格子，出界返回 -1
+        public int neighbour(int cell, int dir) {
+            return grid.neighbour(cell, dir);
+        }
+        
+        public int head() {
+            return body.head();
+        }
+        
+        public int tail() {
+            return body.tail();
+        }
+        
+        public int food() {
+            return food;
+        }
+        
+        public int direction() {
+            return direction;
+        }
+        
+        public int score() {
+            return score;
+        }
+        
+        public int length() {
+            return body.length();
+        }
+        
+        public long ticks() {
+            return ticks;
+        }
+        
+        public boolean isOver() {
+            return over;
+        }
+        
+        public boolean isWon() {
+            return won;
+        }
+        
+        public boolean isOccupied(int cell) {
+            return SnakeGrid.isSet(occupied, cell);
+        }
+        
+        // 生成食物，不会生成在蛇身上
+        void generateFood() {
+            if (body.length() == grid.cells) {
+                // 蛇已经占满整个棋盘，玩家获胜
+                food = -1;
+                won = true;
+                over = true;
+                return;
+            }
+            if (!indexed && body.length() >= grid.cells / 2) {
+                buildIndex();
+            }
+            if (indexed) {
+                // 直接从空闲格子里随机取一个，只需一次随机数
+                food = freeCells[random.nextInt(freeCount)];
+                return;
+            }
+            // 空格至少占一半，随机取点期望不超过两次
+            int cell;
+            do {
+                cell = random.nextInt(grid.cells);
+            } while (isOccupied(cell));
+            food = cell;
+        }
+        
+        // 根据占用位图建立空闲格子索引
+        private void buildIndex() {
+            ensureIndexArrays();
+            freeCount = 0;
+            for (int cell = 0; cell < grid.cells; cell++) {
+                if (isOccupied(cell)) {
+                    freePos[cell] = -1;
+                } else {
+                    freeCells[freeCount] = cell;
+                    freePos[cell] = freeCount++;
+                }
+            }
+            indexed = true;
+        }
+        
+        private void ensureIndexArrays() {
+            if (freeCells == null) {
+                freeCells = new int[grid.cells];
+                freePos = new int[grid.cells];
+            }
+        }
+        
+        // 在蛇头前面加入一格
+        private void addHead(int cell) {
+            body.addHead(cell);
+            occupy(cell);
+        }
+        
+        // 在蛇尾后面加入一格（只在初始化时使用）
+        private void addTail(int cell) {
+            body.addTail(cell);
+            occupy(cell);
+        }
+        
+        // 移除蛇尾
+        private void removeTail() {
+            vacate(body.removeTail());
+        }
+        
+        // 标记格子被占用，已建立索引时从空闲索引中交换删除
+        private void occupy(int cell) {
+            SnakeGrid.set(occupied, cell);
+            if (indexed) {
+                int pos = freePos[cell];
+                int last = freeCells[--freeCount];
+                freeCells[pos] = last;
+                freePos[last] = pos;
+                freePos[cell] = -1;
+            }
+        }
+        
+        // 标记格子空闲，已建立索引时追加到空闲索引末尾
+        private void vacate(int cell) {
+            SnakeGrid.clear(occupied, cell);
+            if (indexed) {
+                freeCells[freeCount] = cell;
+                freePos[cell] = freeCount++;
+            }
+        }
+        
+        /**
+         * 在所有 CPU 核心上并行跑多局独立的游戏
+         * 第 i 局使用种子 baseSeed + i，每局最多 maxTicks 帧
+         * @param controllers 为每一局创建一个控制器
+         * @return 每一局的分数和帧数
+         */
+        public static BatchResult runBatch(int width, int height, int games, long baseSeed, long maxTicks,
+                Supplier<Controller> controllers) {
+            BatchResult result = new BatchResult(games);
+            IntStream.range(0, games).parallel().forEach(i -> {
+                Engine engine = new Engine(width, height, baseSeed + i);
+                Controller controller = controllers.get();
+                while (!engine.isOver() && engine.ticks() < maxTicks) {
+                    engine.step(controller.nextTurn(engine));
+                }
+                result.scores[i] = engine.score();
+                result.ticks[i] = engine.ticks();
+            });
+            return result;
         }
     }
     
-    // 运行游戏
-    public void run() {
-        System.out.println("贪吃蛇游戏开始！");
-        System.out.println("使用 W A S D 控制方向，P 暂停，R 重新开始，Q 退出");
+    /**
+     * 模拟控制器：根据当前局面决定下一帧的方向
+     */
+    public interface Controller {
+        int nextTurn(Engine engine);
+    }
+    
+    /**
+     * 批量模拟的结果
+     */
+    public static final class BatchResult {
+        public final int[] scores;
+        public final long[] ticks;
         
-        // 设置控制台为原始模式（如果支持）
-        try {
-            String[] cmd = {"/bin/sh", "-c", "stty raw -echo </dev/tty"};
-            Runtime.getRuntime().exec(cmd).waitFor();
-        } catch (Exception e) {
-            // 如果设置原始模式失败，继续使用普通模式
+        BatchResult(int games) {
+            scores = new int[games];
+            ticks = new long[games];
         }
         
-        // 游戏主循环
-        while (true) {
-            draw();
-            processInput();
-            update();
+        public long totalTicks() {
+            long total = 0;
+            for (long t : ticks) total += t;
+            return total;
+        }
+    }
+    
+    /**
+     * 简单的贪心控制器：优先选择靠近食物且下一步不会死的方向
+     */
+    static final class GreedyController implements Controller {
+        @Override
+        public int nextTurn(Engine engine) {
+            int width = engine.width();
+            int head = engine.head();
+            int food = engine.food();
+            int best = Engine.KEEP;
+            int bestDistance = Integer.MAX_VALUE;
+            for (int turn = 0; turn < 4; turn++) {
+                if (turn == (engine.direction() + 2) % 4) continue;
+                int next = engine.neighbour(head, turn);
+                if (next < 0 || engine.isOccupied(next)) continue;
+                int distance = Math.abs(next % width - food % width) + Math.abs(next / width - food / width);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = turn;
+                }
+            }
+            return best;
+        }
+    }
+    
+    /**
+     * 自动驾驶控制器
+     * 先用 BFS 找到去食物的最短路径，并在虚拟局面里走完这条路径，确认吃到食物后
+     * 蛇头仍然能到达蛇尾；不安全时沿哈密顿回路走，再不行就追着蛇尾走。
+     * 所有搜索都使用预先分配的 int 数组（第一次决策时按棋盘大小分配），决策过程不分配对象。
+     */
+    static final class Autopilot implements Controller {
+        // BFS 使用的数组，visited 用递增的标记代替每次清零
+        private int[] visited;
+        private int[] parent;
+        private int[] queue;
+        private int[] path;
+        private int pathLength;
+        private int stamp;
+        private int width;
+        
+        // 哈密顿回路上每个格子的下一步方向，棋盘两边都是奇数时不存在回路
+        private int[] cycleNext;
+        
+        // 用于模拟走完路径后的局面
+        private Engine scratch;
+        
+        // 一旦转入沿回路前进，就一直走到吃到下一个食物，避免在两种策略之间来回兜圈
+        private boolean followingCycle;
+        private int lastLength;
+        
+        // 很久没吃到食物说明陷入了循环，这时放宽安全检查直接去吃
+        private int hungryTicks;
+        
+        @Override
+        public int nextTurn(Engine engine) {
+            prepare(engine);
+            int head = engine.head();
+            if (engine.length() != lastLength) {
+                lastLength = engine.length();
+                followingCycle = false;
+                hungryTicks = 0;
+            }
+            boolean starving = ++hungryTicks > engine.cells() * 2L;
+            
+            // 1. 去食物的最短路径，走完之后还能回到蛇尾才算安全
+            if (!followingCycle && engine.food() >= 0 && search(engine, head, engine.food())) {
+                int first = path[0];
+                scratch.copyFrom(engine);
+                for (int i = 0; i < pathLength && !scratch.isOver(); i++) {
+                    scratch.step(directionBetween(i == 0 ? head : path[i - 1], path[i]));
+                }
+                if (!scratch.isOver() && (starving || canReachTail(scratch))) {
+                    return directionBetween(head, first);
+                }
+            }
+            
+            // 2. 沿哈密顿回路前进
+            if (cycleNext != null) {
+                int dir = cycleNext[head];
+                if (isSafeMove(engine, dir)) {
+                    followingCycle = true;
+                    return dir;
+                }
+                followingCycle = false;
+            }
+            
+            // 3. 追着蛇尾走，选离蛇尾最远的安全方向，让蛇身尽量舒展开
+            int best = Engine.KEEP;
+            int bestDistance = -1;
+            int fallback = Engine.KEEP;
+            for (int dir = 0; dir < 4; dir++) {
+                int next = engine.neighbour(head, dir);
+                if (next < 0 || engine.isOccupied(next) || dir == (engine.direction() + 2) % 4) continue;
+                fallback = dir;
+                if (isSafeMove(engine, dir) && pathLength > bestDistance) {
+                    bestDistance = pathLength;
+                    best = dir;
+                }
+            }
+            if (best != Engine.KEEP) {
+                return best;
+            }
+            
+            // 4. 随便找一个不会立刻撞死的方向
+            return fallback;
+        }
+        
+        // 按棋盘大小分配搜索数组
+        private void prepare(Engine engine) {
+            if (scratch != null && scratch.width() == engine.width() && scratch.height() == engine.height()) {
+                return;
+            }
+            int cells = engine.cells();
+            visited = new int[cells];
+            parent = new int[cells];
+            queue = new int[cells];
+            path = new int[cells];
+            stamp = 0;
+            width = engine.width();
+            scratch = new Engine(engine.width(), engine.height(), 0);
+            cycleNext = buildCycle(engine);
+        }
+        
+        // 走一步之后是否还能到达蛇尾
+        private boolean isSafeMove(Engine engine, int dir) {
+            if (dir == (engine.direction() + 2) % 4) return false;
+            int next = engine.neighbour(engine.head(), dir);
+            if (next < 0 || engine.isOccupied(next)) return false;
+            scratch.copyFrom(engine);
+            scratch.step(dir);
+            return !scratch.isOver() && canReachTail(scratch);
+        }
+        
+        // 蛇头能否到达蛇尾，能到达时 pathLength 是最短距离
+        private boolean canReachTail(Engine engine) {
+            pathLength = 0;
+            return engine.length() < 2 || search(engine, engine.head(), engine.tail());
+        }
+        
+        /**
+         * BFS 最短路径，蛇身格子不可通过（目标格子除外）
+         * 找到时把路径（不含起点）写入 path[0..pathLength)
+         */
+        private boolean search(Engine engine, int from, int target) {
+            if (++stamp == 0) {
+                Arrays.fill(visited, 0);
+                stamp = 1;
+            }
+            int headPos = 0;
+            int tailPos = 0;
+            queue[tailPos++] = from;
+            visited[from] = stamp;
+            while (headPos < tailPos) {
+                int cell = queue[headPos++];
+                for (int dir = 0; dir < 4; dir++) {
+                    int next = engine.neighbour(cell, dir);
+                    if (next < 0 || visited[next] == stamp) continue;
+                    if (next != target && engine.isOccupied(next)) continue;
+                    visited[next] = stamp;
+                    parent[next] = cell;
+                    if (next == target) {
+                        // 从目标倒推回起点，得到路径
+                        int length = 0;
+                        for (int c = target; c != from; c = parent[c]) length++;
+                        pathLength = length;
+                        for (int c = target; c != from; c = parent[c]) path[--length] = c;
+                        return true;
+                    }
+                    queue[tailPos++] = next;
+                }
+            }
+            return false;
+        }
+        
+        // 相邻两个格子之间的方向
+        private int directionBetween(int from, int to) {
+            if (to == from - width) return UP;
+            if (to == from + width) return DOWN;
+            if (to == from - 1) return LEFT;
+            return RIGHT;
+        }
+        
+        /**
+         * 构造哈密顿回路：第 0 列留作回程通道，其余格子按行蛇形遍历（需要行数为偶数）；
+         * 行数为奇数而列数为偶数时按转置的方式构造
+         */
+        private int[] buildCycle(Engine engine) {
+            int width = engine.width();
+            int height = engine.height();
+            int cells = engine.cells();
+            boolean byRows = height % 2 == 0;
+            if (!byRows && width % 2 != 0) return null;
+            int major = byRows ? height : width;
+            int minor = byRows ? width : height;
+            int[] order = new int[cells];
+            int n = 0;
+            for (int i = 0; i < major; i++) {
+                for (int k = 1; k < minor; k++) {
+                    int j = i % 2 == 0 ? k : minor - k;
+                    order[n++] = byRows ? engine.cellOf(j, i) : engine.cellOf(i, j);
+                }
+            }
+            for (int i = major - 1; i >= 0; i--) {
+                order[n++] = byRows ? engine.cellOf(0, i) : engine.cellOf(i, 0);
+            }
+            int[] next = new int[cells];
+            for (int i = 0; i < cells; i++) {
+                next[order[i]] = directionBetween(order[i], order[(i + 1) % cells]);
+            }
+            return next;
+        }
+    }
+    
+    /**
+     * 双缓冲差分渲染器
+     * 保存上一帧和下一帧的格子编码，每帧只把变化的格子用光标定位序列写出，
+     * 符号预先编码成 UTF-8，整帧拼到一个字节缓冲区里一次写出。
+     */
+    static final class FrameRenderer {
+        private static final byte[] CLEAR = ascii("\033[?25l\033[H\033[2J");
+        private static final byte[] ERASE_LINE = ascii("\033[K");
+        private static final byte[] RESET = ascii("\033[?25h\033[0m");
+        
+        private final OutputStream out;
+        private final int width;
+        private final int height;
+        private final byte[] prev;
+        private final byte[] next;
+        private final byte[][] glyphs;
+        private final String[] prevStatus;
+        private final String[] nextStatus;
+        private final byte[][] statusBytes;
+        private final byte[] borderTop;
+        private final byte[] borderSide;
+        private final byte[] borderBottom;
+        
+        private byte[] buffer = new byte[4096];
+        private int size;
+        private boolean fullRedraw = true;
+        
+        FrameRenderer(OutputStream out, int width, int height, int statusLines) {
+            this.out = out;
+            this.width = width;
+            this.height = height;
+            this.prev = new byte[width * height];
+            this.next = new byte[width * height];
+            this.glyphs = new byte[GLYPHS.length][];
+            for (int i = 0; i < GLYPHS.length; i++) {
+                glyphs[i] = String.valueOf(GLYPHS[i]).getBytes(StandardCharsets.UTF_8);
+            }
+            this.prevStatus = new String[statusLines];
+            this.nextStatus = new String[statusLines];
+            this.statusBytes = new byte[statusLines][];
+            
+            // 每个格子占两列，边框也按两列一格绘制
+            StringBuilder top = new StringBuilder("┌");
+            StringBuilder bottom = new StringBuilder("└");
+            for (int i = 0; i < width * 2; i++) {
+                top.append('─');
+                bottom.append('─');
+            }
+            this.borderTop = top.append('┐').toString().getBytes(StandardCharsets.UTF_8);
+            this.borderBottom = bottom.append('┘').toString().getBytes(StandardCharsets.UTF_8);
+            this.borderSide = "│".getBytes(StandardCharsets.UTF_8);
+        }
+        
+        void setCell(int x, int y, byte glyph) {
+            next[y * width + x] = glyph;
+        }
+        
+        void setStatus(int line, String text) {
+            nextStatus[line] = text;
+        }
+        
+        // 下一帧强制整屏重绘，例如终端被其他输出弄乱之后
+        void invalidate() {
+            fullRedraw = true;
+        }
+        
+        void flush() throws IOException {
+            size = 0;
+            if (fullRedraw) {
+                append(CLEAR);
+                moveTo(1, 1);
+                append(borderTop);
+                for (int y = 0; y < height; y++) {
+                    moveTo(y + 2, 1);
+                    append(borderSide);
+                    moveTo(y + 2, width * 2 + 2);
+                    append(borderSide);
+                }
+                moveTo(height + 2, 1);
+                append(borderBottom);
+            }
+            
+            for (int y = 0; y < height; y++) {
+                int row = y * width;
+                int x = 0;
+                while (x < width) {
+                    int i = row + x;
+                    if (!fullRedraw && prev[i] == next[i]) {
+                        x++;
+                        continue;
+                    }
+                    // 连续变化的格子只需要定位一次
+                    moveTo(y + 2, x * 2 + 2);
+                    while (x < width && (fullRedraw || prev[row + x] != next[row + x])) {
+                        append(glyphs[next[row + x]]);
+                        prev[row + x] = next[row + x];
+                        x++;
+                    }
+                }
+            }
+            
+            for (int line = 0; line < nextStatus.length; line++) {
+                String text = nextStatus[line];
+                if (!fullRedraw && text == prevStatus[line]) {
+                    continue;
+                }
+                if (text != prevStatus[line] || statusBytes[line] == null) {
+                    statusBytes[line] = text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8);
+                }
+                prevStatus[line] = text;
+                moveTo(height + 3 + line, 1);
+                append(statusBytes[line]);
+                append(ERASE_LINE);
+            }
             
+            // 把光标停在状态栏下方
+            moveTo(height + 3 + nextStatus.length, 1);
+            fullRedraw = false;
+            out.write(buffer, 0, size);
+            out.flush();
+        }
+        
+        void close() throws IOException {
+            out.write(RESET);
+            out.flush();
+        }
+        
+        private void moveTo(int row, int column) {
+            ensure(16);
+            buffer[size++] = 0x1b;
+            buffer[size++] = '[';
+            appendInt(row);
+            buffer[size++] = ';';
+            appendInt(column);
+            buffer[size++] = 'H';
+        }
+        
+        private void appendInt(int value) {
+            int start = size;
+            do {
+                buffer[size++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+            // 数字是倒着写的，翻转回来
+            for (int i = start, j = size - 1; i < j; i++, j--) {
+                byte t = buffer[i];
+                buffer[i] = buffer[j];
+                buffer[j] = t;
+            }
+        }
+        
+        private void append(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+        
+        private void ensure(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+        
+        private static byte[] ascii(String s) {
+            return s.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+    
+    /**
+     * 回放文件格式（版本 1）：
+     * "SNKR"、版本号、宽、高、帧间隔（变长整数）、种子（8 字节），然后是若干条记录。
+     * 每条记录是一个变长整数和一个命令字节：变长整数表示命令之前有多少帧没有转向，
+     * 命令 0-3 表示这一帧转向对应方向，REPLAY_RESTART 表示重新开始，REPLAY_END 表示结束。
+     * 不转向的帧只计数，所以文件大小只和转向次数有关，每次转向两三个字节。
+     */
+    private static final byte[] REPLAY_MAGIC = {'S', 'N', 'K', 'R'};
+    private static final int REPLAY_VERSION = 1;
+    static final int REPLAY_RESTART = 4;
+    static final int REPLAY_END = 5;
+    
+    /**
+     * 回放录制器：记录每一帧传给 Engine.step() 的方向和每次重新开始
+     */
+    static final class ReplayRecorder implements Closeable {
+        private final DataOutputStream out;
+        private long gap;
+        
+        ReplayRecorder(File file, int width, int height, long tickMillis, long seed) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.write(REPLAY_MAGIC);
+            out.write(REPLAY_VERSION);
+            writeVarint(width);
+            writeVarint(height);
+            writeVarint(tickMillis);
+            out.writeLong(seed);
+        }
+        
+        // 记录一帧
+        void step(int turn) throws IOException {
+            if (turn == Engine.KEEP) {
+                gap++;
+            } else {
+                writeRecord(turn);
+            }
+        }
+        
+        // 记录一次重新开始
+        void restart() throws IOException {
+            writeRecord(REPLAY_RESTART);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            writeRecord(REPLAY_END);
+            out.close();
+        }
+        
+        private void writeRecord(int command) throws IOException {
+            writeVarint(gap);
+            gap = 0;
+            out.write(command);
+        }
+        
+        // 无符号 LEB128 变长整数，每字节 7 位
+        private void writeVarint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+    }
+    
+    /**
+     * 回放播放器：按帧还原录制时传给 Engine.step() 的方向
+     */
+    static final class ReplayPlayer implements Closeable {
+        private final DataInputStream in;
+        final int width;
+        final int height;
+        final long tickMillis;
+        final long seed;
+        private long gap;
+        private int command;
+        
+        ReplayPlayer(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            byte[] magic = new byte[REPLAY_MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, REPLAY_MAGIC)) {
+                throw new IOException("不是贪吃蛇回放文件: " + file);
+            }
+            int version = in.read();
+            if (version != REPLAY_VERSION) {
+                throw new IOException("不支持的回放版本: " + version);
+            }
+            width = (int) readVarint();
+            height = (int) readVarint();
+            tickMillis = readVarint();
+            seed = in.readLong();
+            readRecord();
+        }
+        
+        /**
+         * 下一条命令：方向、Engine.KEEP、REPLAY_RESTART 或 REPLAY_END（之后一直返回 REPLAY_END）
+         */
+        int next() throws IOException {
+            if (gap > 0) {
+                gap--;
+                return Engine.KEEP;
+            }
+            int current = command;
+            if (current != REPLAY_END) {
+                readRecord();
+            }
+            return current;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+        
+        private void readRecord() throws IOException {
             try {
-                // 控制游戏速度
-                TimeUnit.MILLISECONDS.sleep(200);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
+                gap = readVarint();
+                command = in.readUnsignedByte();
+            } catch (EOFException e) {
+                // 录制中断（例如进程被杀）时文件没有结束标记，按结束处理
+                gap = 0;
+                command = REPLAY_END;
+            }
+            if (command > REPLAY_END) {
+                throw new IOException("回放文件已损坏");
             }
         }
         
-        // 恢复控制台设置
-        try {
-            String[] cmd = {"/bin/sh", "-c", "stty cooked echo </dev/tty"};
-            Runtime.getRuntime().exec(cmd).waitFor();
-        } catch (Exception e) {
-            // 忽略异常
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("回放文件已损坏");
         }
     }
     
-    public static void main(String[] args) {
-        ConsoleSnakeGame game = new ConsoleSnakeGame();
+    /**
+     * 有界无锁命令队列
+     * 单生产者（输入线程）单消费者（游戏线程），容量为 2 的幂，
+     * 通过 head/tail 两个计数器发布数据，不需要加锁。
+     */
+    static final class CommandQueue {
+        private final int[] items;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+        
+        CommandQueue(int capacity) {
+            if (Integer.bitCount(capacity) != 1) {
+                throw new IllegalArgumentException("容量必须是 2 的幂: " + capacity);
+            }
+            this.items = new int[capacity];
+            this.mask = capacity - 1;
+        }
+        
+        // 入队，队列已满时返回 false
+        boolean offer(int command) {
+            long t = tail.get();
+            if (t - head.get() == items.length) {
+                return false;
+            }
+            items[(int) t & mask] = command;
+            tail.lazySet(t + 1);
+            return true;
+        }
+        
+        // 出队，队列为空时返回 -1
+        int poll() {
+            long h = head.get();
+            if (h == tail.get()) {
+                return -1;
+            }
+            int command = items[(int) h & mask];
+            head.lazySet(h + 1);
+            return command;
+        }
+    }
+    
+    /**
+     * 命令行选项
+     */
+    public static final class Options {
+        public int width = DEFAULT_WIDTH;
+        public int height = DEFAULT_HEIGHT;
+        public int viewWidth;
+        public int viewHeight;
+        public long tickMillis = DEFAULT_TICK_MILLIS;
+        public boolean autopilot;
+        public int simulateGames;
+        public long seed;
+        public boolean seeded;
+        public String record;
+        public String replay;
+        public boolean replayFast;
+        public String input = ConsoleInput.AUTO;
+        
+        // 解析 --size=WxH --view=WxH --tick=ms --auto --simulate=N --seed=N
+        // --record=文件 --replay=文件 --replay-fast --input=auto|native|stty|line
+        public static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                if (arg.startsWith("--size=")) {
+                    int[] size = parseSize(arg.substring("--size=".length()));
+                    // 与 Engine 的限制相同，在这里检查才能给出参数错误而不是异常堆栈
+                    if (size[0] < 4 || size[1] < 2 || (long) size[0] * size[1] > SnakeGrid.MAX_CELLS) {
+                        throw new IllegalArgumentException("棋盘至少 4x2，格子数不能超过 " + SnakeGrid.MAX_CELLS + ": "
+                                + size[0] + "x" + size[1]);
+                    }
+                    options.width = size[0];
+                    options.height = size[1];
+                } else if (arg.startsWith("--view=")) {
+                    int[] size = parseSize(arg.substring("--view=".length()));
+                    options.viewWidth = size[0];
+                    options.viewHeight = size[1];
+                } else if (arg.startsWith("--tick=")) {
+                    options.tickMillis = Long.parseLong(arg.substring("--tick=".length()));
+                } else if (arg.startsWith("--simulate=")) {
+                    options.simulateGames = Integer.parseInt(arg.substring("--simulate=".length()));
+                } else if (arg.equals("--auto")) {
+                    options.autopilot = true;
+                } else if (arg.startsWith("--seed=")) {
+                    options.seed = Long.parseLong(arg.substring("--seed=".length()));
+                    options.seeded = true;
+                } else if (arg.startsWith("--record=")) {
+                    options.record = arg.substring("--record=".length());
+                } else if (arg.startsWith("--replay=")) {
+                    options.replay = arg.substring("--replay=".length());
+                } else if (arg.equals("--replay-fast")) {
+                    options.replayFast = true;
+                } else if (arg.startsWith("--input=")) {
+                    options.input = arg.substring("--input=".length());
+                    ConsoleInput.checkBackend(options.input);
+                } else {
+                    throw new IllegalArgumentException("未知参数: " + arg);
+                }
+            }
+            return options;
+        }
+        
+        private static int[] parseSize(String text) {
+            int x = text.indexOf('x');
+            if (x < 0) {
+                throw new IllegalArgumentException("大小格式应为 宽x高: " + text);
+            }
+            return new int[] {Integer.parseInt(text.substring(0, x)), Integer.parseInt(text.substring(x + 1))};
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("参数错误: " + e.getMessage());
+            System.err.println("用法: ConsoleSnakeGame [--size=宽x高] [--view=宽x高] [--tick=毫秒] [--auto] [--simulate=局数]"
+                    + " [--seed=种子] [--record=文件] [--replay=文件] [--replay-fast] [--input=auto|native|stty|line]");
+            System.exit(2);
+            return;
+        }
+        
+        // 回放：棋盘大小、帧间隔和种子都来自回放文件
+        ReplayPlayer player = null;
+        if (options.replay != null) {
+            player = new ReplayPlayer(new File(options.replay));
+            options.width = player.width;
+            options.height = player.height;
+            options.tickMillis = player.tickMillis;
+            options.seed = player.seed;
+            options.seeded = true;
+            options.autopilot = false;
+            if (options.replayFast) {
+                options.viewWidth = 1;
+                options.viewHeight = 1;
+                ConsoleSnakeGame game = new ConsoleSnakeGame(options);
+                game.play(player);
+                long start = System.nanoTime();
+                long ticks = game.replayAll();
+                double seconds = (System.nanoTime() - start) / 1e9;
+                player.close();
+                System.out.printf("回放 %d 帧，最终分数 %d，耗时 %.3f 秒，%.0f 帧/秒%n",
+                        ticks, game.engine.score(), seconds, ticks / seconds);
+                return;
+            }
+        }
+        
+        // 无终端的批量模拟：用贪心控制器（或自动驾驶）跑多局，输出吞吐量
+        if (options.simulateGames > 0) {
+            // 第 i 局用种子 baseSeed + i，打印出来以便用 --seed 重现同一批
+            long baseSeed = options.seeded ? options.seed : System.nanoTime();
+            long start = System.nanoTime();
+            Supplier<Controller> controllers = options.autopilot ? Autopilot::new : GreedyController::new;
+            BatchResult result = Engine.runBatch(options.width, options.height, options.simulateGames, baseSeed,
+                    100_000, controllers);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long totalTicks = result.totalTicks();
+            System.out.printf("模拟 %d 局（--seed=%d），共 %d 帧，平均分数 %.1f，耗时 %.2f 秒，%.0f 帧/秒%n",
+                    options.simulateGames, baseSeed, totalTicks, Arrays.stream(result.scores).average().orElse(0),
+                    seconds, totalTicks / seconds);
+            return;
+        }
+        
+        ConsoleSnakeGame game = new ConsoleSnakeGame(options);
+        if (player != null) {
+            game.play(player);
+        } else if (options.record != null) {
+            game.record(new File(options.record));
+        }
         game.run();
     }
 }
\ No newline at end of file
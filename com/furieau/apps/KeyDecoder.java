@@ -0,0 +1,252 @@
+package com.furieau.apps;
+
+/**
+ * 终端按键的增量解码器
+ * 把原始字节流逐字节喂进一个状态机，输出按键事件：普通字符是它的 Unicode 码点，
+ * 方向键、功能键等是下面的负数常量。支持 CSI（ESC [ ...）和 SS3（ESC O ...）序列、多字节 UTF-8，
+ * 序列被拆在两次读取之间也没关系，状态会保留到下一次 decode()。
+ * 序列一完整就立即输出，不额外等待；只有单独的 ESC 无法马上判断是 Esc 键还是序列的开头，
+ * 调用方在一次读取超时（没有后续字节）时调用 flush() 把它作为 ESCAPE 输出。
+ */
+final class KeyDecoder {
+    static final int UP = -1;
+    static final int DOWN = -2;
+    static final int RIGHT = -3;
+    static final int LEFT = -4;
+    static final int HOME = -5;
+    static final int END = -6;
+    static final int INSERT = -7;
+    static final int DELETE = -8;
+    static final int PAGE_UP = -9;
+    static final int PAGE_DOWN = -10;
+    static final int ESCAPE = -11;
+    static final int BACK_TAB = -12;
+    // F1~F12 是 F1 - 0 到 F1 - 11
+    static final int F1 = -20;
+    // 无法识别的序列，整条序列算一个事件
+    static final int UNKNOWN = -99;
+    // 无效的 UTF-8
+    static final int REPLACEMENT = 0xFFFD;
+    
+    private static final int GROUND = 0;
+    private static final int ESC = 1;
+    private static final int CSI = 2;
+    private static final int SS3 = 3;
+    private static final int UTF8 = 4;
+    
+    // CSI 只记第一个参数（修饰键参数用不到），序列超过这个长度按无法识别处理
+    private static final int MAX_SEQUENCE = 32;
+    
+    private int state = GROUND;
+    private int param;
+    private int firstParam;
+    private int params;
+    private int length;
+    private int codePoint;
+    private int remaining;
+    private int minimum;
+    
+    /**
+     * 解码 length 个字节，事件依次写入 keys
+     * keys 至少要有 length + 1 个位置（一个字节最多产生两个事件）
+     * @return 事件个数
+     */
+    int decode(byte[] bytes, int offset, int length, int[] keys) {
+        int n = 0;
+        for (int i = offset; i < offset + length; i++) {
+            n = feed(bytes[i] & 0xFF, keys, n);
+        }
+        return n;
+    }
+    
+    /**
+     * 输入暂时没有后续字节时调用：单独的 ESC 输出为 ESCAPE，不完整的 UTF-8 输出为 REPLACEMENT，
+     * 不完整的 CSI/SS3 序列丢弃
+     * @return 事件个数
+     */
+    int flush(int[] keys) {
+        int n = 0;
+        if (state == ESC) {
+            keys[n++] = ESCAPE;
+        } else if (state == UTF8) {
+            keys[n++] = REPLACEMENT;
+        }
+        state = GROUND;
+        return n;
+    }
+    
+    private int feed(int b, int[] keys, int n) {
+        switch (state) {
+            case ESC:
+                if (b == '[') {
+                    state = CSI;
+                    param = 0;
+                    firstParam = 0;
+                    params = 0;
+                    length = 0;
+                    return n;
+                }
+                if (b == 'O') {
+                    state = SS3;
+                    return n;
+                }
+                // ESC 后面跟普通字符：先输出 ESCAPE，这个字节按普通输入处理（Alt+键 也是这样发送的）
+                keys[n++] = ESCAPE;
+                state = GROUND;
+                return ground(b, keys, n);
+            case CSI:
+                if (b >= '0' && b <= '9') {
+                    param = Math.min(param * 10 + b - '0', 9999);
+                } else if (b == ';') {
+                    if (params++ == 0) firstParam = param;
+                    param = 0;
+                } else if (b >= 0x40 && b <= 0x7E) {
+                    if (params == 0) firstParam = param;
+                    keys[n++] = csi(b, firstParam);
+                    state = GROUND;
+                } else if (b < 0x20 || b > 0x3F) {
+                    // 序列中间出现控制字符：放弃这条序列，按普通输入处理
+                    state = GROUND;
+                    keys[n++] = UNKNOWN;
+                    return ground(b, keys, n);
+                }
+                if (state == CSI && ++length > MAX_SEQUENCE) {
+                    keys[n++] = UNKNOWN;
+                    state = GROUND;
+                }
+                return n;
+            case SS3:
+                state = GROUND;
+                keys[n++] = ss3(b);
+                return n;
+            case UTF8:
+                if ((b & 0xC0) != 0x80) {
+                    // 少了后续字节
+                    keys[n++] = REPLACEMENT;
+                    state = GROUND;
+                    return ground(b, keys, n);
+                }
+                codePoint = codePoint << 6 | (b & 0x3F);
+                if (--remaining == 0) {
+                    state = GROUND;
+                    // 过长编码和代理区都算无效
+                    boolean valid = codePoint >= minimum && codePoint <= 0x10FFFF
+                            && (codePoint < 0xD800 || codePoint > 0xDFFF);
+                    keys[n++] = valid ? codePoint : REPLACEMENT;
+                }
+                return n;
+            default:
+                return ground(b, keys, n);
+        }
+    }
+    
+    private int ground(int b, int[] keys, int n) {
+        if (b == 0x1B) {
+            state = ESC;
+        } else if (b < 0x80) {
+            keys[n++] = b;
+        } else if (b >= 0xC2 && b <= 0xDF) {
+            startUtf8(b & 0x1F, 1, 0x80);
+        } else if (b >= 0xE0 && b <= 0xEF) {
+            startUtf8(b & 0x0F, 2, 0x800);
+        } else if (b >= 0xF0 && b <= 0xF4) {
+            startUtf8(b & 0x07, 3, 0x10000);
+        } else {
+            keys[n++] = REPLACEMENT;
+        }
+        return n;
+    }
+    
+    private void startUtf8(int bits, int count, int min) {
+        state = UTF8;
+        codePoint = bits;
+        remaining = count;
+        minimum = min;
+    }
+    
+    // CSI 序列的结尾字符；带修饰键的方向键（如 ESC [ 1 ; 5 A）同样当作方向键
+    private static int csi(int last, int param) {
+        switch (last) {
+            case 'A':
+                return UP;
+            case 'B':
+                return DOWN;
+            case 'C':
+                return RIGHT;
+            case 'D':
+                return LEFT;
+            case 'H':
+                return HOME;
+            case 'F':
+                return END;
+            case 'Z':
+                return BACK_TAB;
+            case '~':
+                return tilde(param);
+            default:
+                return UNKNOWN;
+        }
+    }
+    
+    // ESC [ 数字 ~ 形式的按键（VT220 编码）
+    private static int tilde(int param) {
+        switch (param) {
+            case 1:
+            case 7:
+                return HOME;
+            case 2:
+                return INSERT;
+            case 3:
+                return DELETE;
+            case 4:
+            case 8:
+                return END;
+            case 5:
+                return PAGE_UP;
+            case 6:
+                return PAGE_DOWN;
+            case 11:
+            case 12:
+            case 13:
+            case 14:
+            case 15:
+                return F1 - (param - 11);
+            case 17:
+            case 18:
+            case 19:
+            case 20:
+            case 21:
+                return F1 - (param - 12);
+            case 23:
+            case 24:
+                return F1 - (param - 13);
+            default:
+                return UNKNOWN;
+        }
+    }
+    
+    // 应用光标键模式下的 SS3 序列
+    private static int ss3(int last) {
+        switch (last) {
+            case 'A':
+                return UP;
+            case 'B':
+                return DOWN;
+            case 'C':
+                return RIGHT;
+            case 'D':
+                return LEFT;
+            case 'H':
+                return HOME;
+            case 'F':
+                return END;
+            case 'P':
+            case 'Q':
+            case 'R':
+            case 'S':
+                return F1 - (last - 'P');
+            default:
+                return UNKNOWN;
+        }
+    }
+}
\ No newline at end of file
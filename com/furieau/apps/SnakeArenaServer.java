@@ -0,0 +1,781 @@
+package com.furieau.apps;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * 贪吃蛇多人竞技场
+ * 服务器用一个 Selector 事件循环处理所有连接，同一个线程按固定频率推进整个竞技场，
+ * 所有蛇共用一张占用位图判断碰撞，每帧只广播二进制的增量事件，不发送整屏画面。
+ * 默认只监听本机，用 --bind=地址 监听其他网卡；用 --connect=主机:端口 启动时作为客户端连接服务器。
+ */
+public class SnakeArenaServer {
+    // 方向常量，与 ConsoleSnakeGame 相同
+    static final int UP = SnakeGrid.UP;
+    static final int RIGHT = SnakeGrid.RIGHT;
+    static final int DOWN = SnakeGrid.DOWN;
+    static final int LEFT = SnakeGrid.LEFT;
+    
+    // 消息类型，每条消息前面是 4 字节的长度
+    static final byte MSG_WELCOME = 0;
+    static final byte MSG_TICK = 1;
+    
+    // 帧内事件类型
+    static final byte EV_SPAWN = 1;
+    static final byte EV_MOVE = 2;
+    static final byte EV_DIE = 3;
+    static final byte EV_FOOD = 4;
+    
+    // 客户端发给服务器的按键
+    static final byte KEY_RESPAWN = 'r';
+    
+    // 同时在场的蛇的上限，蛇的编号用两个字节传输
+    static final int MAX_SNAKES = 4096;
+    
+    // 客户端积压的待发送数据超过这个大小就断开，避免慢客户端拖累整个服务器
+    private static final int MAX_BACKLOG = 4 << 20;
+    
+    // 客户端输入线程没有按键时最多等待多久再检查是否已退出
+    private static final int INPUT_TIMEOUT_MILLIS = 100;
+    
+    private final Arena arena;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final long tickNanos;
+    private final Connection[] connections = new Connection[MAX_SNAKES];
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(256);
+    private int clientCount;
+    
+    public SnakeArenaServer(InetAddress address, int port, int width, int height, long tickMillis, int bots) throws IOException {
+        this.arena = new Arena(width, height, System.nanoTime());
+        this.tickNanos = tickMillis * 1_000_000L;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(address, port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        for (int i = 0; i < bots; i++) {
+            int id = arena.allocate(true);
+            if (id < 0) break;
+            arena.spawn(id);
+        }
+    }
+    
+    /**
+     * 事件循环：在两帧之间处理网络事件，到点后推进一帧并广播
+     */
+    public void serve() throws IOException {
+        long nextTick = System.nanoTime() + tickNanos;
+        long totalNanos = 0;
+        long maxNanos = 0;
+        int ticks = 0;
+        while (true) {
+            long wait = nextTick - System.nanoTime();
+            if (wait > 0) {
+                selector.select(Math.max(1, wait / 1_000_000));
+            } else {
+                selector.selectNow();
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) accept();
+                    if (key.isValid() && key.isReadable()) read(key);
+                    if (key.isValid() && key.isWritable()) write(key);
+                } catch (IOException e) {
+                    disconnect((Connection) key.attachment());
+                }
+            }
+            
+            long now = System.nanoTime();
+            if (now - nextTick >= 0) {
+                ByteBuffer frame = arena.tick();
+                broadcast(frame);
+                long spent = System.nanoTime() - now;
+                totalNanos += spent;
+                maxNanos = Math.max(maxNanos, spent);
+                nextTick += tickNanos;
+                
+                // 每 100 帧输出一次帧耗时统计
+                if (++ticks == 100) {
+                    System.out.printf("帧 %d：蛇 %d 条，客户端 %d 个，平均 %d 微秒，最长 %d 微秒%n",
+                            arena.tickCount(), arena.aliveCount(), clientCount,
+                            totalNanos / ticks / 1000, maxNanos / 1000);
+                    ticks = 0;
+                    totalNanos = 0;
+                    maxNanos = 0;
+                }
+            }
+        }
+    }
+    
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) return;
+        int id = arena.allocate(false);
+        if (id < 0) {
+            // 竞技场已满
+            channel.close();
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel, id);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connections[id] = connection;
+        clientCount++;
+        
+        // 先发送欢迎消息和当前局面快照，再让新蛇出场（出场事件随下一帧广播）
+        enqueue(connection, arena.snapshot(id));
+        arena.spawn(id);
+    }
+    
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        readBuffer.clear();
+        int n = connection.channel.read(readBuffer);
+        if (n < 0) {
+            disconnect(connection);
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            int b = readBuffer.get(i);
+            int turn = decodeKey(b);
+            if (turn >= 0) {
+                arena.turn(connection.id, turn);
+            } else if (b == KEY_RESPAWN) {
+                arena.spawn(connection.id);
+            }
+        }
+    }
+    
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        connection.out.flip();
+        connection.channel.write(connection.out);
+        connection.out.compact();
+        if (connection.out.position() == 0) {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+    
+    private void broadcast(ByteBuffer frame) {
+        for (int id = 0; id < MAX_SNAKES; id++) {
+            Connection connection = connections[id];
+            if (connection != null) {
+                frame.rewind();
+                enqueue(connection, frame);
+            }
+        }
+    }
+    
+    // 追加到客户端的发送缓冲区并尽量立即发出
+    private void enqueue(Connection connection, ByteBuffer message) {
+        if (connection.out.remaining() < message.remaining()) {
+            int needed = connection.out.position() + message.remaining();
+            if (needed > MAX_BACKLOG) {
+                disconnect(connection);
+                return;
+            }
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(needed, connection.out.capacity() * 2));
+            connection.out.flip();
+            bigger.put(connection.out);
+            connection.out = bigger;
+        }
+        connection.out.put(message);
+        try {
+            write(connection.key);
+            if (connection.out.position() > 0) {
+                connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            disconnect(connection);
+        }
+    }
+    
+    private void disconnect(Connection connection) {
+        if (connection == null || connections[connection.id] != connection) return;
+        connections[connection.id] = null;
+        clientCount--;
+        arena.release(connection.id);
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // 忽略异常
+        }
+    }
+    
+    // 把按键解码为方向，无关按键返回 -1
+    static int decodeKey(int key) {
+        switch (key) {
+            case 'w':
+            case 'W':
+                return UP;
+            case 's':
+            case 'S':
+                return DOWN;
+            case 'a':
+            case 'A':
+                return LEFT;
+            case 'd':
+            case 'D':
+                return RIGHT;
+            default:
+                return -1;
+        }
+    }
+    
+    /**
+     * 一个客户端连接
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        final int id;
+        SelectionKey key;
+        ByteBuffer out = ByteBuffer.allocate(16 << 10);
+        
+        Connection(SocketChannel channel, int id) {
+            this.channel = channel;
+            this.id = id;
+        }
+    }
+    
+    /**
+     * 竞技场状态
+     * 沿用单人游戏的规则：撞墙、撞到任何蛇身（包括自己）都会死，吃到食物长一格加 10 分。
+     * 多条蛇在同一帧里先根据移动前的占用位图判断碰撞，两条蛇同时进入同一格则都死。
+     */
+    static final class Arena {
+        // 棋盘大小、相邻格子和位图操作与单人游戏的 Engine 共用
+        private final SnakeGrid grid;
+        
+        // 所有蛇共用的占用位图，以及食物位图
+        private final long[] occupied;
+        private final long[] foodBits;
+        private int foodCount;
+        
+        // 每条蛇的蛇身，第一次出场时分配
+        private final SnakeGrid.Body[] bodies = new SnakeGrid.Body[MAX_SNAKES];
+        private final int[] direction = new int[MAX_SNAKES];
+        private final int[] pendingTurn = new int[MAX_SNAKES];
+        private final int[] score = new int[MAX_SNAKES];
+        private final boolean[] used = new boolean[MAX_SNAKES];
+        private final boolean[] alive = new boolean[MAX_SNAKES];
+        private final boolean[] bot = new boolean[MAX_SNAKES];
+        private final boolean[] spawnRequested = new boolean[MAX_SNAKES];
+        
+        // 每帧的目标格子：高位是格子，低 12 位是蛇的编号，排序后找出相撞的蛇
+        private final long[] targets = new long[MAX_SNAKES];
+        private final int[] targetCell = new int[MAX_SNAKES];
+        private final boolean[] dying = new boolean[MAX_SNAKES];
+        
+        // 本帧事件，消息头之后依次写入
+        private ByteBuffer events = ByteBuffer.allocate(64 << 10);
+        private int eventCount;
+        private int tickCount;
+        private int aliveCount;
+        
+        // 随机数（SplitMix64）
+        private final SnakeGrid.SplitMix random;
+        
+        Arena(int width, int height, long seed) {
+            this.grid = new SnakeGrid(width, height);
+            this.occupied = grid.bitmap();
+            this.foodBits = grid.bitmap();
+            this.random = new SnakeGrid.SplitMix(seed);
+        }
+        
+        int tickCount() {
+            return tickCount;
+        }
+        
+        int aliveCount() {
+            return aliveCount;
+        }
+        
+        // 分配一个蛇的编号，已满时返回 -1
+        int allocate(boolean isBot) {
+            for (int id = 0; id < MAX_SNAKES; id++) {
+                // 刚离开的玩家的蛇要等下一帧清出棋盘后才能复用编号
+                if (!used[id] && !alive[id]) {
+                    used[id] = true;
+                    bot[id] = isBot;
+                    alive[id] = false;
+                    score[id] = 0;
+                    return id;
+                }
+            }
+            return -1;
+        }
+        
+        // 释放编号，蛇还活着时在下一帧移除
+        void release(int id) {
+            used[id] = false;
+            spawnRequested[id] = false;
+        }
+        
+        // 请求在下一帧出场（已经活着时忽略）
+        void spawn(int id) {
+            if (used[id] && !alive[id]) {
+                spawnRequested[id] = true;
+            }
+        }
+        
+        // 记录下一帧的转向，掉头在推进时忽略
+        void turn(int id, int turn) {
+            pendingTurn[id] = turn;
+        }
+        
+        /**
+         * 推进一帧
+         * @return 本帧的增量消息，下一次调用前有效
+         */
+        ByteBuffer tick() {
+            tickCount++;
+            events.clear();
+            events.putInt(0);
+            events.put(MSG_TICK);
+            events.putInt(tickCount);
+            events.putInt(0);
+            eventCount = 0;
+            
+            // 1. 清掉离开的玩家，机器人转向或重新出场
+            for (int id = 0; id < MAX_SNAKES; id++) {
+                if (alive[id] && !used[id]) {
+                    kill(id);
+                } else if (bot[id] && used[id]) {
+                    if (alive[id]) {
+                        pendingTurn[id] = botTurn(id);
+                    } else {
+                        spawnRequested[id] = true;
+                    }
+                }
+            }
+            
+            // 2. 计算所有蛇的新蛇头，按移动前的占用判断撞墙和撞到蛇身
+            int n = 0;
+            for (int id = 0; id < MAX_SNAKES; id++) {
+                if (!alive[id]) continue;
+                int turn = pendingTurn[id];
+                if (turn >= 0 && turn != (direction[id] + 2) % 4) {
+                    direction[id] = turn;
+                }
+                pendingTurn[id] = -1;
+                int target = grid.neighbour(bodies[id].head(), direction[id]);
+                targetCell[id] = target;
+                dying[id] = target < 0 || SnakeGrid.isSet(occupied, target);
+                if (!dying[id]) {
+                    targets[n++] = ((long) target << 12) | id;
+                }
+            }
+            
+            // 3. 两条蛇同时进入同一格则都死
+            Arrays.sort(targets, 0, n);
+            for (int i = 1; i < n; i++) {
+                if ((targets[i] >>> 12) == (targets[i - 1] >>> 12)) {
+                    dying[(int) (targets[i] & 0xFFF)] = true;
+                    dying[(int) (targets[i - 1] & 0xFFF)] = true;
+                }
+            }
+            
+            // 4. 移动存活的蛇，死亡的蛇清出棋盘
+            for (int id = 0; id < MAX_SNAKES; id++) {
+                if (!alive[id]) continue;
+                if (dying[id]) {
+                    kill(id);
+                    continue;
+                }
+                int target = targetCell[id];
+                bodies[id].addHead(target);
+                SnakeGrid.set(occupied, target);
+                int tail = -1;
+                if (SnakeGrid.isSet(foodBits, target)) {
+                    SnakeGrid.clear(foodBits, target);
+                    foodCount--;
+                    score[id] += 10;
+                } else {
+                    tail = bodies[id].removeTail();
+                    SnakeGrid.clear(occupied, tail);
+                }
+                event(EV_MOVE);
+                events.putShort((short) id);
+                events.putInt(target);
+                events.putInt(tail);
+            }
+            
+            // 5. 新蛇出场，补充食物
+            for (int id = 0; id < MAX_SNAKES; id++) {
+                if (spawnRequested[id]) {
+                    spawnRequested[id] = false;
+                    place(id);
+                }
+            }
+            int foodTarget = Math.max(8, aliveCount / 2);
+            for (int attempts = 0; foodCount < foodTarget && attempts < foodTarget * 4; attempts++) {
+                int cell = random.nextInt(grid.cells);
+                if (!SnakeGrid.isSet(occupied, cell) && !SnakeGrid.isSet(foodBits, cell)) {
+                    SnakeGrid.set(foodBits, cell);
+                    foodCount++;
+                    event(EV_FOOD);
+                    events.putInt(cell);
+                }
+            }
+            
+            // 回填消息长度和事件数
+            events.putInt(0, events.position() - 4);
+            events.putInt(9, eventCount);
+            events.flip();
+            return events;
+        }
+        
+        /**
+         * 新客户端的欢迎消息：自己的编号、竞技场大小、所有蛇和食物的快照
+         */
+        ByteBuffer snapshot(int self) {
+            int size = 4 + 1 + 2 + 4 + 4 + 4 + 4;
+            for (int id = 0; id < MAX_SNAKES; id++) {
+                if (alive[id]) size += 2 + 4 + bodies[id].length() * 4;
+            }
+            size += foodCount * 4;
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            buffer.putInt(size - 4);
+            buffer.put(MSG_WELCOME);
+            buffer.putShort((short) self);
+            buffer.putInt(grid.width);
+            buffer.putInt(grid.height);
+            buffer.putInt(aliveCount);
+            for (int id = 0; id < MAX_SNAKES; id++) {
+                if (!alive[id]) continue;
+                SnakeGrid.Body body = bodies[id];
+                buffer.putShort((short) id);
+                buffer.putInt(body.length());
+                for (int i = 0; i < body.length(); i++) {
+                    buffer.putInt(body.get(i));
+                }
+            }
+            buffer.putInt(foodCount);
+            for (int word = 0; word < foodBits.length; word++) {
+                long bits = foodBits[word];
+                while (bits != 0) {
+                    buffer.putInt((word << 6) + Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+        
+        // 随机找一段横向连续 3 格的空地放下新蛇，蛇头朝右，前面一格也要空着，找不到就等下一帧再试
+        private void place(int id) {
+            for (int attempt = 0; attempt < 64; attempt++) {
+                int y = random.nextInt(grid.height);
+                // x 在 [2, width - 2]，蛇头不会贴着右边的墙
+                int x = 2 + random.nextInt(grid.width - 3);
+                int head = y * grid.width + x;
+                if (SnakeGrid.isSet(occupied, head) || SnakeGrid.isSet(occupied, head - 1)
+                        || SnakeGrid.isSet(occupied, head - 2)) continue;
+                if (SnakeGrid.isSet(occupied, grid.neighbour(head, RIGHT))) continue;
+                if (bodies[id] == null) bodies[id] = new SnakeGrid.Body(16, grid.cells);
+                bodies[id].clear();
+                direction[id] = RIGHT;
+                pendingTurn[id] = -1;
+                score[id] = 0;
+                alive[id] = true;
+                aliveCount++;
+                event(EV_SPAWN);
+                events.putShort((short) id);
+                events.putInt(3);
+                for (int i = 0; i < 3; i++) {
+                    int cell = head - i;
+                    if (SnakeGrid.isSet(foodBits, cell)) {
+                        SnakeGrid.clear(foodBits, cell);
+                        foodCount--;
+                    }
+                    bodies[id].addTail(cell);
+                    SnakeGrid.set(occupied, cell);
+                    events.putInt(cell);
+                }
+                return;
+            }
+            spawnRequested[id] = true;
+        }
+        
+        // 蛇死亡：清出棋盘，并把身体格子随事件发给客户端
+        private void kill(int id) {
+            alive[id] = false;
+            aliveCount--;
+            event(EV_DIE);
+            SnakeGrid.Body body = bodies[id];
+            events.putShort((short) id);
+            events.putInt(body.length());
+            ensureEvents(body.length() * 4);
+            for (int i = 0; i < body.length(); i++) {
+                int cell = body.get(i);
+                SnakeGrid.clear(occupied, cell);
+                events.putInt(cell);
+            }
+            body.clear();
+        }
+        
+        // 机器人：前方安全就直走，偶尔随机转弯，前方危险时找一个安全方向
+        private int botTurn(int id) {
+            int head = bodies[id].head();
+            int dir = direction[id];
+            int ahead = grid.neighbour(head, dir);
+            boolean safe = ahead >= 0 && !SnakeGrid.isSet(occupied, ahead);
+            if (safe && random.nextInt(8) != 0) return -1;
+            int start = random.nextInt(4);
+            for (int i = 0; i < 4; i++) {
+                int turn = (start + i) % 4;
+                if (turn == (dir + 2) % 4) continue;
+                int next = grid.neighbour(head, turn);
+                if (next >= 0 && !SnakeGrid.isSet(occupied, next)) return turn;
+            }
+            return -1;
+        }
+        
+        private void event(byte type) {
+            ensureEvents(64);
+            events.put(type);
+            eventCount++;
+        }
+        
+        private void ensureEvents(int extra) {
+            if (events.remaining() < extra) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(events.capacity() * 2, events.position() + extra));
+                events.flip();
+                bigger.put(events);
+                events = bigger;
+            }
+        }
+        
+    }
+    
+    /**
+     * 竞技场客户端
+     * 把按键原样发给服务器，根据收到的增量事件维护本地的格子画面，
+     * 用单人游戏的差分渲染器显示跟随自己蛇头的视口。
+     */
+    static final class Client {
+        private final SocketChannel channel;
+        private final DataInputStream in;
+        private int self;
+        private int width;
+        private byte[] grid;
+        private final int[] heads = new int[MAX_SNAKES];
+        private int lastHead;
+        private ConsoleSnakeGame.FrameRenderer renderer;
+        private int viewWidth;
+        private int viewHeight;
+        private volatile boolean running = true;
+        private final String inputBackend;
+        
+        Client(String host, int port, String inputBackend) throws IOException {
+            ConsoleInput.checkBackend(inputBackend);
+            this.inputBackend = inputBackend;
+            channel = SocketChannel.open(new InetSocketAddress(host, port));
+            channel.socket().setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            Arrays.fill(heads, -1);
+        }
+        
+        void run() throws IOException {
+            // 设置控制台为原始模式，失败时按行读取
+            ConsoleInput input;
+            try {
+                input = ConsoleInput.open(inputBackend, INPUT_TIMEOUT_MILLIS);
+            } catch (IOException e) {
+                System.err.println("无法使用输入后端 " + inputBackend + ": " + e.getMessage() + "，改为按行读取");
+                input = ConsoleInput.open(ConsoleInput.LINE, INPUT_TIMEOUT_MILLIS);
+            }
+            ConsoleInput keys = input;
+            Thread reader = new Thread(() -> forwardInput(keys), "arena-input");
+            reader.setDaemon(true);
+            reader.start();
+            
+            try {
+                while (running) {
+                    in.readInt();
+                    byte type = in.readByte();
+                    if (type == MSG_WELCOME) {
+                        readWelcome();
+                    } else if (type == MSG_TICK) {
+                        readTick();
+                        draw();
+                    }
+                }
+            } catch (EOFException | ClosedChannelException e) {
+                // 服务器关闭了连接，或者按 Q 退出时关闭了连接
+            } finally {
+                running = false;
+                if (renderer != null) renderer.close();
+                input.close();
+                channel.close();
+            }
+        }
+        
+        // 输入线程：按键原样转发，Q 退出
+        private void forwardInput(ConsoleInput input) {
+            byte[] keys = new byte[64];
+            ByteBuffer out = ByteBuffer.allocate(keys.length);
+            try {
+                int n;
+                while (running && (n = input.read(keys)) >= 0) {
+                    out.clear();
+                    for (int i = 0; i < n; i++) {
+                        if (keys[i] == 'q' || keys[i] == 'Q') {
+                            running = false;
+                            channel.close();
+                            return;
+                        }
+                        out.put(keys[i]);
+                    }
+                    out.flip();
+                    while (out.hasRemaining()) {
+                        channel.write(out);
+                    }
+                }
+            } catch (IOException e) {
+                // 忽略输入异常
+            }
+        }
+        
+        private void readWelcome() throws IOException {
+            self = in.readShort();
+            width = in.readInt();
+            int height = in.readInt();
+            grid = new byte[width * height];
+            int snakes = in.readInt();
+            for (int i = 0; i < snakes; i++) {
+                readSnake();
+            }
+            int foods = in.readInt();
+            for (int i = 0; i < foods; i++) {
+                grid[in.readInt()] = ConsoleSnakeGame.GLYPH_FOOD;
+            }
+            int[] size = ConsoleInput.terminalSize();
+            viewWidth = Math.max(1, Math.min(width, (size[1] - 2) / 2));
+            viewHeight = Math.max(1, Math.min(height, size[0] - 5));
+            renderer = new ConsoleSnakeGame.FrameRenderer(new FileOutputStream(FileDescriptor.out),
+                    viewWidth, viewHeight, 2);
+        }
+        
+        private void readSnake() throws IOException {
+            int id = in.readShort();
+            int length = in.readInt();
+            for (int i = 0; i < length; i++) {
+                int cell = in.readInt();
+                grid[cell] = i == 0 ? ConsoleSnakeGame.GLYPH_HEAD : ConsoleSnakeGame.GLYPH_BODY;
+                if (i == 0) heads[id] = cell;
+            }
+        }
+        
+        private void readTick() throws IOException {
+            in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte type = in.readByte();
+                switch (type) {
+                    case EV_SPAWN:
+                        readSnake();
+                        break;
+                    case EV_MOVE: {
+                        int id = in.readShort();
+                        int head = in.readInt();
+                        int tail = in.readInt();
+                        if (heads[id] >= 0) grid[heads[id]] = ConsoleSnakeGame.GLYPH_BODY;
+                        grid[head] = ConsoleSnakeGame.GLYPH_HEAD;
+                        heads[id] = head;
+                        if (tail >= 0) grid[tail] = ConsoleSnakeGame.GLYPH_EMPTY;
+                        break;
+                    }
+                    case EV_DIE: {
+                        int id = in.readShort();
+                        int length = in.readInt();
+                        for (int k = 0; k < length; k++) {
+                            grid[in.readInt()] = ConsoleSnakeGame.GLYPH_EMPTY;
+                        }
+                        heads[id] = -1;
+                        break;
+                    }
+                    case EV_FOOD:
+                        grid[in.readInt()] = ConsoleSnakeGame.GLYPH_FOOD;
+                        break;
+                    default:
+                        throw new IOException("未知事件: " + type);
+                }
+            }
+        }
+        
+        private void draw() throws IOException {
+            if (renderer == null) return;
+            if (heads[self] >= 0) lastHead = heads[self];
+            int height = grid.length / width;
+            int left = ConsoleSnakeGame.clamp(lastHead % width - viewWidth / 2, 0, width - viewWidth);
+            int top = ConsoleSnakeGame.clamp(lastHead / width - viewHeight / 2, 0, height - viewHeight);
+            for (int y = 0; y < viewHeight; y++) {
+                int row = (top + y) * width + left;
+                for (int x = 0; x < viewWidth; x++) {
+                    renderer.setCell(x, y, grid[row + x]);
+                }
+            }
+            renderer.setStatus(0, heads[self] >= 0 ? "W A S D 控制方向，Q 退出" : "你死了！按 R 重新出场，Q 退出");
+            renderer.setStatus(1, "");
+            renderer.flush();
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        int port = 7777;
+        int width = 200;
+        int height = 100;
+        long tickMillis = 100;
+        int bots = 0;
+        String bind = null;
+        String connect = null;
+        String input = ConsoleInput.AUTO;
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--size=")) {
+                String size = arg.substring("--size=".length());
+                int x = size.indexOf('x');
+                width = Integer.parseInt(size.substring(0, x));
+                height = Integer.parseInt(size.substring(x + 1));
+            } else if (arg.startsWith("--tick=")) {
+                tickMillis = Long.parseLong(arg.substring("--tick=".length()));
+            } else if (arg.startsWith("--bots=")) {
+                bots = Integer.parseInt(arg.substring("--bots=".length()));
+            } else if (arg.startsWith("--bind=")) {
+                bind = arg.substring("--bind=".length());
+            } else if (arg.startsWith("--connect=")) {
+                connect = arg.substring("--connect=".length());
+            } else if (arg.startsWith("--input=")) {
+                input = arg.substring("--input=".length());
+            } else {
+                throw new IllegalArgumentException("未知参数: " + arg);
+            }
+        }
+        
+        if (connect != null) {
+            int colon = connect.lastIndexOf(':');
+            String host = colon < 0 ? connect : connect.substring(0, colon);
+            int serverPort = colon < 0 ? port : Integer.parseInt(connect.substring(colon + 1));
+            new Client(host, serverPort, input).run();
+            return;
+        }
+        
+        // 默认只监听本机
+        InetAddress address = bind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind);
+        System.out.println("贪吃蛇竞技场启动，" + address.getHostAddress() + " 端口 " + port + "，大小 " + width + "x" + height);
+        new SnakeArenaServer(address, port, width, height, tickMillis, bots).serve();
+    }
+}
\ No newline at end of file
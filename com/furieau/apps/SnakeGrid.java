@@ -0,0 +1,163 @@
+package com.furieau.apps;
+
+/**
+ * 贪吃蛇棋盘的公共部分，单人游戏的 Engine 和多人竞技场的 Arena 共用
+ * 格子用压缩坐标 y * width + x 表示。这里放相邻格子的计算、每格一位的位图、
+ * 蛇身的环形缓冲区和 SplitMix64 随机数，两边的移动和出界规则只有这一份。
+ */
+final class SnakeGrid {
+    // 方向常量，ConsoleSnakeGame 和 SnakeArenaServer 都用这里的值
+    static final int UP = 0;
+    static final int RIGHT = 1;
+    static final int DOWN = 2;
+    static final int LEFT = 3;
+    
+    // 格子数上限，保证压缩坐标不会溢出
+    static final int MAX_CELLS = 1 << 30;
+    
+    final int width;
+    final int height;
+    final int cells;
+    
+    SnakeGrid(int width, int height) {
+        if (width < 4 || height < 2 || (long) width * height > MAX_CELLS) {
+            throw new IllegalArgumentException("棋盘大小无效: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.cells = width * height;
+    }
+    
+    // 格子朝某个方向的相邻格子，出界返回 -1
+    int neighbour(int cell, int dir) {
+        switch (dir) {
+            case UP:
+                return cell >= width ? cell - width : -1;
+            case DOWN:
+                return cell < cells - width ? cell + width : -1;
+            case LEFT:
+                return cell % width > 0 ? cell - 1 : -1;
+            default:
+                return cell % width < width - 1 ? cell + 1 : -1;
+        }
+    }
+    
+    // 每个格子一位的位图
+    long[] bitmap() {
+        return new long[(cells + 63) >>> 6];
+    }
+    
+    static boolean isSet(long[] bits, int cell) {
+        return (bits[cell >>> 6] & (1L << cell)) != 0;
+    }
+    
+    static void set(long[] bits, int cell) {
+        bits[cell >>> 6] |= 1L << cell;
+    }
+    
+    static void clear(long[] bits, int cell) {
+        bits[cell >>> 6] &= ~(1L << cell);
+    }
+    
+    /**
+     * 蛇身：按需扩容的环形缓冲区，head 指向蛇头，向后依次是蛇身直到蛇尾
+     * 只记录格子，占用位图由调用方维护。
+     */
+    static final class Body {
+        private int[] ring;
+        private int head;
+        private int length;
+        // 容量上限，蛇身不会超过棋盘格子数
+        private final int limit;
+        
+        Body(int capacity, int limit) {
+            this.ring = new int[Math.min(capacity, limit)];
+            this.limit = limit;
+        }
+        
+        int head() {
+            return ring[head];
+        }
+        
+        int tail() {
+            return get(length - 1);
+        }
+        
+        // 从蛇头数起的第 i 格
+        int get(int i) {
+            return ring[(head + i) % ring.length];
+        }
+        
+        int length() {
+            return length;
+        }
+        
+        void clear() {
+            head = 0;
+            length = 0;
+        }
+        
+        // 在蛇头前面加入一格
+        void addHead(int cell) {
+            if (length == ring.length) grow();
+            head = head == 0 ? ring.length - 1 : head - 1;
+            ring[head] = cell;
+            length++;
+        }
+        
+        // 在蛇尾后面加入一格（只在出场时使用）
+        void addTail(int cell) {
+            if (length == ring.length) grow();
+            ring[(head + length) % ring.length] = cell;
+            length++;
+        }
+        
+        // 移除蛇尾，返回被移除的格子
+        int removeTail() {
+            length--;
+            return ring[(head + length) % ring.length];
+        }
+        
+        // 复制另一条蛇身，按顺序拷贝到缓冲区开头
+        void copyFrom(Body other) {
+            if (ring.length < other.length) {
+                ring = new int[other.ring.length];
+            }
+            for (int i = 0; i < other.length; i++) {
+                ring[i] = other.get(i);
+            }
+            head = 0;
+            length = other.length;
+        }
+        
+        // 环形缓冲区已满时容量翻倍，蛇身按顺序搬到新数组开头
+        private void grow() {
+            int[] bigger = new int[(int) Math.min(limit, ring.length * 2L)];
+            for (int i = 0; i < length; i++) {
+                bigger[i] = get(i);
+            }
+            ring = bigger;
+            head = 0;
+        }
+    }
+    
+    /**
+     * SplitMix64 随机数，状态只有一个 long，复制局面时直接拷贝 seed
+     */
+    static final class SplitMix {
+        long seed;
+        
+        SplitMix(long seed) {
+            this.seed = seed;
+        }
+        
+        // 再用乘法把 32 位随机数映射到 [0, bound)
+        int nextInt(int bound) {
+            long z = (seed += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z ^= z >>> 31;
+            return (int) (((z >>> 32) * bound) >>> 32);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,263 @@
+package com.furieau.apps;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 文字冒险的脚本批量运行，用作回归测试和压力测试
+ * 脚本是一串命令，用换行或分号分开，# 开头的行是注释；move 和 use 可以把参数写在同一条命令里，
+ * 例如 move n; explore; use 治疗药水。每一局新开一个关掉提示的会话，逐条 step() 执行，战斗自动打完，
+ * 玩家被击败或脚本执行完这一局就结束。第 i 局的种子只由总种子和 i 决定，结果与线程数无关。
+ * 需要输出时各局依次运行，输出攒在 StringBuilder 里整局写出；--quiet 时不生成输出，
+ * 各局按编号切块交给 ForkJoinPool，每个工作线程有自己的区块缓存，一块跑完把计数加到共享的原子数组里。
+ * 最后汇总被击败的比例、平均回合数、等级、金币，以及所有局终局状态的校验值：改动规则或重构之后，
+ * 同一脚本、同一种子的校验值变了就说明行为变了。
+ */
+public final class TextAdventureBatch {
+    // 每块的局数
+    private static final int CHUNK = 256;
+    
+    // 汇总计数的下标
+    private static final int RUNS = 0;
+    private static final int DEFEATED = 1;
+    private static final int TURNS = 2;
+    private static final int LEVELS = 3;
+    private static final int GOLD = 4;
+    private static final int DIGEST = 5;
+    private static final int COUNTERS = 6;
+    
+    private final AdventureWorld world;
+    private final int cacheChunks;
+    private final AdventureItems items;
+    private final AdventureEvents events;
+    // 预先拆好的命令和参数，运行时不再解析
+    private final String[] commands;
+    private final String[] arguments;
+    
+    public TextAdventureBatch(AdventureWorld world, int cacheChunks, AdventureItems items, AdventureEvents events, String script) {
+        this.world = world;
+        this.cacheChunks = cacheChunks;
+        this.items = items;
+        this.events = events;
+        List<String> commands = new ArrayList<>();
+        List<String> arguments = new ArrayList<>();
+        for (String line : script.split("\n")) {
+            if (line.trim().startsWith("#")) continue;
+            for (String command : line.split(";")) {
+                command = command.trim();
+                if (command.isEmpty()) continue;
+                int space = command.indexOf(' ');
+                // 命令和 handle() 一样不区分大小写，物品名保持原样
+                commands.add((space < 0 ? command : command.substring(0, space)).toLowerCase());
+                arguments.add(space < 0 ? null : command.substring(space + 1).trim());
+            }
+        }
+        if (commands.isEmpty()) {
+            throw new IllegalArgumentException("脚本里没有命令");
+        }
+        this.commands = commands.toArray(new String[0]);
+        this.arguments = arguments.toArray(new String[0]);
+    }
+    
+    public int length() {
+        return commands.length;
+    }
+    
+    /**
+     * 汇总结果
+     */
+    public static final class Result {
+        private final long[] counts;
+        private final long nanos;
+        
+        Result(long[] counts, long nanos) {
+            this.counts = counts;
+            this.nanos = nanos;
+        }
+        
+        public long runs() {
+            return counts[RUNS];
+        }
+        
+        public long defeated() {
+            return counts[DEFEATED];
+        }
+        
+        // 所有局终局状态的校验值，与运行顺序无关
+        public long digest() {
+            return counts[DIGEST];
+        }
+        
+        public double runsPerSecond() {
+            return counts[RUNS] * 1e9 / nanos;
+        }
+        
+        public double turnsPerSecond() {
+            return counts[TURNS] * 1e9 / nanos;
+        }
+        
+        @Override
+        public String toString() {
+            long runs = Math.max(1, counts[RUNS]);
+            return String.format("%d 局，用时 %.2f 秒，每秒 %.0f 局、%.0f 回合%n"
+                    + "被击败 %.1f%%，平均 %.1f 回合，平均等级 %.2f，平均金币 %.1f%n校验值 %016x",
+                    counts[RUNS], nanos / 1e9, runsPerSecond(), turnsPerSecond(),
+                    100.0 * counts[DEFEATED] / runs, (double) counts[TURNS] / runs,
+                    (double) counts[LEVELS] / runs, (double) counts[GOLD] / runs, counts[DIGEST]);
+        }
+    }
+    
+    /**
+     * 不输出，多线程跑 runs 局
+     */
+    public Result run(long runs, int threads, long seed) {
+        AtomicLongArray counts = new AtomicLongArray(COUNTERS);
+        ThreadLocal<Worker> local = ThreadLocal.withInitial(Worker::new);
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.invoke(new Runs(0, runs, seed, local, counts));
+        } finally {
+            pool.shutdown();
+        }
+        long nanos = System.nanoTime() - start;
+        long[] result = new long[COUNTERS];
+        for (int i = 0; i < COUNTERS; i++) {
+            result[i] = counts.get(i);
+        }
+        return new Result(result, nanos);
+    }
+    
+    /**
+     * 在当前线程依次跑 runs 局，每局的输出写到 out，多于一局时每局前面加一行标题
+     */
+    public Result print(long runs, long seed, PrintStream out) {
+        Worker worker = new Worker();
+        StringBuilder text = new StringBuilder(1 << 16);
+        long start = System.nanoTime();
+        for (long run = 0; run < runs; run++) {
+            text.setLength(0);
+            if (runs > 1) {
+                text.append("\n### 第 ").append(run + 1).append(" 局\n");
+            }
+            worker.play(run, seed, text);
+            out.print(text);
+        }
+        out.println();
+        return new Result(worker.tally, System.nanoTime() - start);
+    }
+    
+    /**
+     * 一段连续编号的局，超过 CHUNK 局就对半拆开
+     */
+    private final class Runs extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        final long from;
+        final long to;
+        final long seed;
+        final ThreadLocal<Worker> local;
+        final AtomicLongArray counts;
+        
+        Runs(long from, long to, long seed, ThreadLocal<Worker> local, AtomicLongArray counts) {
+            this.from = from;
+            this.to = to;
+            this.seed = seed;
+            this.local = local;
+            this.counts = counts;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK) {
+                long middle = (from + to) >>> 1;
+                invokeAll(new Runs(from, middle, seed, local, counts), new Runs(middle, to, seed, local, counts));
+                return;
+            }
+            Worker worker = local.get();
+            long[] tally = worker.tally;
+            Arrays.fill(tally, 0L);
+            for (long run = from; run < to; run++) {
+                worker.play(run, seed, null);
+            }
+            for (int i = 0; i < COUNTERS; i++) {
+                if (tally[i] != 0) counts.getAndAdd(i, tally[i]);
+            }
+        }
+    }
+    
+    /**
+     * 一个工作线程的状态
+     */
+    private final class Worker {
+        final AdventureWorld.Cache cache = world.newCache(cacheChunks);
+        final long[] tally = new long[COUNTERS];
+        
+        void play(long run, long seed, StringBuilder out) {
+            TextAdventureGame game = new TextAdventureGame(cache, items, events,
+                    new SplittableRandom(mix(seed + run * 0x9E3779B97F4A7C15L)), out);
+            game.setPrompts(false);
+            game.start();
+            for (int i = 0; i < commands.length && !game.isOver(); i++) {
+                game.step(commands[i], arguments[i]);
+            }
+            tally[RUNS]++;
+            if (game.health() <= 0) tally[DEFEATED]++;
+            tally[TURNS] += game.turns();
+            tally[LEVELS] += game.level();
+            tally[GOLD] += game.gold();
+            long state = game.health();
+            state = state * 31 + game.gold();
+            state = state * 31 + game.level();
+            state = state * 31 + game.experience();
+            state = state * 31 + game.x();
+            state = state * 31 + game.y();
+            state = state * 31 + game.turns();
+            state = state * 31 + game.itemCount();
+            // 加上局的编号再混合，交换两局的结果也会改变校验值
+            tally[DIGEST] += mix(state ^ mix(run));
+        }
+    }
+    
+    // SplitMix64 的混合函数
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    /**
+     * TextAdventureGame --batch=脚本 [--runs=局数 --seed=种子 --threads=线程数 --quiet]
+     */
+    static void main(AdventureWorld world, int cacheChunks, AdventureItems items, AdventureEvents events, String file, long seed, long runs, int threads, boolean quiet)
+            throws IOException {
+        String script;
+        try (InputStream in = file.equals("-") ? System.in : new FileInputStream(file)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, n);
+            }
+            script = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+        TextAdventureBatch batch = new TextAdventureBatch(world, cacheChunks, items, events, script);
+        Result result;
+        if (quiet) {
+            result = batch.run(runs, threads, seed);
+        } else {
+            PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), false, "UTF-8");
+            result = batch.print(runs, seed, out);
+            out.flush();
+        }
+        System.err.println("脚本 " + batch.length() + " 条命令，种子 " + seed);
+        System.err.println(result);
+    }
+}
\ No newline at end of file
@@ -1,313 +1,757 @@
 package com.furieau.apps;
 
-import java.util.Scanner;
-import java.util.Random;
-import java.util.HashMap;
+import java.io.*;
+import java.util.SplittableRandom;
+import java.util.Timer;
+import java.util.TimerTask;
 
+/**
+ * 文字冒险游戏的一个会话（一个玩家）
+ * 会话不自己读输入：调用方每收到一行就调用 handle()，会话按当前等待的输入（命令、方向、物品、战斗操作）处理，
+ * 输出追加到构造时传入的 StringBuilder，由调用方取走。会话之间不共享可变状态，
+ * 同一个线程可以轮流驱动任意多个会话（见 TextAdventureServer），空闲的会话只占这个对象本身。
+ * 脚本运行（见 TextAdventureBatch）时关掉提示，用 step() 执行带参数的命令，战斗自动打完。
+ */
 public class TextAdventureGame {
-    private static Scanner scanner = new Scanner(System.in);
-    private static Random random = new Random();
+    // 会话当前等待的输入
+    private static final int COMMAND = 0;
+    private static final int DIRECTION = 1;
+    private static final int ITEM = 2;
+    private static final int COMBAT = 3;
+    private static final int OVER = 4;
     
-    // 玩家属性
-    private static int playerHealth = 100;
-    private static int playerAttack = 15;
-    private static int playerDefense = 5;
-    private static int playerGold = 0;
-    private static int playerLevel = 1;
-    private static int experience = 0;
-    private static HashMap<String, Integer> inventory = new HashMap<>();
-    
-    // 游戏地图
-    private static String[][] map = {
+    // 数值规则，AdventureSimulator 用同一套规则做平衡模拟
+    static final int MAX_HEALTH = 100;
+    static final int START_ATTACK = 15;
+    static final int START_DEFENSE = 5;
+    // 每升一级增加的攻击力和防御力
+    static final int LEVEL_ATTACK = 3;
+    static final int LEVEL_DEFENSE = 2;
+    static final int FLEE_PERCENT = 50;
+    
+    // 地图以玩家为中心最多显示的范围（向每个方向的格数）
+    private static final int MAP_RADIUS = 4;
+    
+    // 没有指定地图文件时用的 3×3 地图
+    static final AdventureWorld DEFAULT_WORLD = AdventureWorld.of(new String[][] {
         {"森林", "河流", "山洞"},
         {"村庄", "平原", "沼泽"},
         {"山脉", "沙漠", "城堡"}
-    };
-    private static int playerX = 1;
-    private static int playerY = 1;
+    });
+    
+    private final AdventureWorld.Cache world;
+    private final AdventureEvents events;
+    private final SplittableRandom random;
+    private final StringBuilder out;
+    private int state = COMMAND;
+    private boolean playing = true;
+    private boolean prompts = true;
+    private int turns;
+    
+    // 玩家属性
+    private int playerHealth = MAX_HEALTH;
+    private int playerAttack = START_ATTACK;
+    private int playerDefense = START_DEFENSE;
+    private int playerGold = 0;
+    private int playerLevel = 1;
+    private int experience = 0;
+    // 累计获得的经验，升级清零的 experience 不算
+    private int totalExperience;
+    // 背包，下标是物品编号；itemCount 是所有物品的总数
+    private final AdventureItems items;
+    private final int[] inventory;
+    private int itemCount;
+    
+    // 玩家位置，从地图中央出发
+    private int playerX;
+    private int playerY;
+    
+    // 正在战斗的怪物
+    private String monster;
+    private int monsterHealth;
+    private int monsterAttack;
+    
+    // 在内置的 3×3 地图上开始
+    public TextAdventureGame(SplittableRandom random, StringBuilder out) {
+        this(DEFAULT_WORLD.newCache(1), random, out);
+    }
     
-    public static void main(String[] args) {
-        System.out.println("=== 文字冒险游戏 ===");
-        System.out.println("欢迎来到冒险世界！");
-        System.out.println("输入 'help' 查看可用命令");
+    /**
+     * world 是本线程的区块缓存，同一个线程上的会话可以共用；out 为 null 时不输出
+     */
+    public TextAdventureGame(AdventureWorld.Cache world, SplittableRandom random, StringBuilder out) {
+        this(world, AdventureItems.DEFAULT, AdventureEvents.DEFAULT, random, out);
+    }
+    
+    // items 是物品表，events 是事件表，所有会话共用
+    public TextAdventureGame(AdventureWorld.Cache world, AdventureItems items, AdventureEvents events,
+            SplittableRandom random, StringBuilder out) {
+        this.world = world;
+        this.items = items;
+        this.events = events;
+        this.random = random;
+        this.out = out;
+        playerX = world.width() / 2;
+        playerY = world.height() / 2;
         
         // 初始化物品
-        inventory.put("治疗药水", 2);
-        inventory.put("剑", 1);
+        inventory = new int[items.size()];
+        for (int id = 0; id < inventory.length; id++) {
+            inventory[id] = items.starting(id);
+            itemCount += inventory[id];
+        }
+    }
+    
+    // --world=地图文件 --cache=区块数 --items=物品文件 --events=事件文件（改了自动重新加载） --seed=种子，--batch=脚本文件（- 表示标准输入）时按脚本批量运行，
+    // --save=存档文件 时从存档继续并自动存档，--sync=毫秒 是日志刷盘的间隔
+    public static void main(String[] args) throws IOException {
+        String worldFile = null;
+        String itemsFile = null;
+        String eventsFile = null;
+        int cacheChunks = 16;
+        Long seed = null;
+        String batch = null;
+        long runs = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean quiet = false;
+        String saveFile = null;
+        long syncMillis = 1000;
+        for (String arg : args) {
+            if (arg.startsWith("--world=")) {
+                worldFile = arg.substring("--world=".length());
+            } else if (arg.startsWith("--cache=")) {
+                cacheChunks = Integer.parseInt(arg.substring("--cache=".length()));
+            } else if (arg.startsWith("--items=")) {
+                itemsFile = arg.substring("--items=".length());
+            } else if (arg.startsWith("--events=")) {
+                eventsFile = arg.substring("--events=".length());
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            } else if (arg.startsWith("--batch=")) {
+                batch = arg.substring("--batch=".length());
+            } else if (arg.startsWith("--runs=")) {
+                runs = Long.parseLong(arg.substring("--runs=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.equals("--quiet")) {
+                quiet = true;
+            } else if (arg.startsWith("--save=")) {
+                saveFile = arg.substring("--save=".length());
+            } else if (arg.startsWith("--sync=")) {
+                syncMillis = Long.parseLong(arg.substring("--sync=".length()));
+            } else {
+                throw new IllegalArgumentException("未知参数: " + arg);
+            }
+        }
+        AdventureWorld world = worldFile == null ? DEFAULT_WORLD : AdventureWorld.open(new File(worldFile));
+        AdventureItems items = itemsFile == null ? AdventureItems.DEFAULT : AdventureItems.load(new File(itemsFile));
+        AdventureEvents events = eventsFile == null ? AdventureEvents.DEFAULT : AdventureEvents.load(new File(eventsFile), items);
         
-        boolean playing = true;
+        // 批量运行要能重现，不重新加载事件表
+        if (batch != null) {
+            TextAdventureBatch.main(world, cacheChunks, items, events, batch, seed == null ? 1 : seed, runs, threads, quiet);
+            return;
+        }
         
-        while (playing && playerHealth > 0) {
-            displayLocation();
-            System.out.print("\n你要做什么？> ");
-            String input = scanner.nextLine().toLowerCase();
-            
-            switch (input) {
-                case "help":
-                    showHelp();
-                    break;
-                case "move":
-                    movePlayer();
-                    break;
-                case "map":
-                    showMap();
-                    break;
-                case "status":
-                    showStatus();
-                    break;
-                case "inventory":
-                    showInventory();
-                    break;
-                case "explore":
-                    explore();
-                    break;
-                case "use":
-                    useItem();
-                    break;
-                case "quit":
-                    playing = false;
-                    break;
-                default:
-                    System.out.println("未知命令，输入 'help' 查看可用命令");
+        StringBuilder out = new StringBuilder();
+        SplittableRandom random = seed == null ? new SplittableRandom() : new SplittableRandom(seed);
+        TextAdventureGame game = new TextAdventureGame(world.newCache(cacheChunks), items, events, random, out);
+        events.watch(1000);
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        AdventureSave save = null;
+        if (saveFile != null) {
+            save = AdventureSave.open(new File(saveFile), game, syncMillis);
+            if (save.restored()) {
+                System.out.println("已读取存档（重放 " + save.replayed() + " 条记录），第 " + game.turns() + " 回合");
             }
-            
-            // 随机事件
-            if (random.nextInt(100) < 25) { // 25% 几率遇到事件
-                randomEvent();
+            // 玩家停下来不输入时也要把攒着的记录写出去
+            AdventureSave journal = save;
+            Timer timer = new Timer(true);
+            timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    try {
+                        journal.flush();
+                    } catch (IOException e) {
+                        System.err.println("自动存档失败: " + e.getMessage());
+                    }
+                }
+            }, syncMillis, Math.max(1, syncMillis));
+        }
+        game.start();
+        System.out.print(out);
+        String line;
+        while (!game.isOver() && (line = in.readLine()) != null) {
+            out.setLength(0);
+            int turn = game.turns;
+            game.handle(line);
+            System.out.print(out);
+            if (save != null && game.turns != turn && game.playerHealth > 0) {
+                save.afterTurn();
             }
-            
-            // 检查升级
-            checkLevelUp();
         }
+        if (save != null) {
+            if (game.playerHealth <= 0) {
+                save.delete();
+            } else {
+                // 退出或输入结束时写一份完整快照，下次不用重放日志
+                save.snapshot();
+                save.close();
+            }
+        }
+    }
+    
+    /**
+     * 输出欢迎信息和第一回合的提示
+     */
+    public void start() {
+        println("=== 文字冒险游戏 ===");
+        println("欢迎来到冒险世界！");
+        println("输入 'help' 查看可用命令");
+        prompt();
+    }
+    
+    /**
+     * 处理玩家输入的一行，回合结束时结算随机事件和升级，再输出下一个提示
+     */
+    public void handle(String input) {
+        switch (state) {
+            case COMMAND:
+                command(input.toLowerCase());
+                break;
+            case DIRECTION:
+                movePlayer(input.toLowerCase());
+                break;
+            case ITEM:
+                useItem(input);
+                break;
+            case COMBAT:
+                fight(input.toLowerCase());
+                break;
+            default:
+                // 游戏已经结束，忽略输入
+        }
+    }
+    
+    // 游戏结束（被击败或退出）后不再接受输入
+    public boolean isOver() {
+        return state == OVER;
+    }
+    
+    // 关掉提示后不再输出每回合的位置和各种输入提示，只输出命令本身的结果
+    public void setPrompts(boolean prompts) {
+        this.prompts = prompts;
+    }
+    
+    /**
+     * 执行一串命令，用换行或分号分开，例如 "move n; explore; use 治疗药水"
+     */
+    public void execute(String script) {
+        for (String command : script.split("[;\n]")) {
+            command = command.trim();
+            if (command.isEmpty()) continue;
+            int space = command.indexOf(' ');
+            step(space < 0 ? command : command.substring(0, space),
+                    space < 0 ? null : command.substring(space + 1).trim());
+        }
+    }
+    
+    /**
+     * 执行一条命令，argument 是 move 的方向或 use 的物品，没有时为 null
+     * 正在战斗而命令不是 a/r 时，先一直攻击到战斗结束再执行这条命令，脚本不需要知道要打几下
+     */
+    void step(String command, String argument) {
+        if (state == COMBAT && !command.equals("a") && !command.equals("r")) {
+            while (state == COMBAT) {
+                fight("a");
+            }
+        }
+        if (state == OVER) return;
+        handle(command);
+        if (argument != null && (state == DIRECTION || state == ITEM)) {
+            handle(argument);
+        }
+    }
+    
+    // 以下给脚本运行和模拟统计用
+    boolean inCombat() {
+        return state == COMBAT;
+    }
+    
+    int health() {
+        return playerHealth;
+    }
+    
+    int gold() {
+        return playerGold;
+    }
+    
+    int level() {
+        return playerLevel;
+    }
+    
+    int experience() {
+        return experience;
+    }
+    
+    int totalExperience() {
+        return totalExperience;
+    }
+    
+    int x() {
+        return playerX;
+    }
+    
+    int y() {
+        return playerY;
+    }
+    
+    // 已经结束的回合数
+    int turns() {
+        return turns;
+    }
+    
+    AdventureItems items() {
+        return items;
+    }
+    
+    // 背包里某种物品的数量
+    int count(int id) {
+        return inventory[id];
+    }
+    
+    // 背包里的物品总数
+    int itemCount() {
+        return itemCount;
+    }
+    
+    // 存档用的数值状态，按下面的顺序排列
+    static final int STATS = 10;
+    
+    void saveStats(int[] stats) {
+        stats[0] = playerHealth;
+        stats[1] = playerAttack;
+        stats[2] = playerDefense;
+        stats[3] = playerGold;
+        stats[4] = playerLevel;
+        stats[5] = experience;
+        stats[6] = totalExperience;
+        stats[7] = playerX;
+        stats[8] = playerY;
+        stats[9] = turns;
+    }
+    
+    /**
+     * 恢复存档，只能在回合之间调用
+     */
+    void loadStats(int[] stats, int[] counts) {
+        if (stats[7] < 0 || stats[7] >= world.width() || stats[8] < 0 || stats[8] >= world.height()) {
+            throw new IllegalArgumentException("存档的位置超出地图: (" + stats[7] + ", " + stats[8] + ")");
+        }
+        playerHealth = stats[0];
+        playerAttack = stats[1];
+        playerDefense = stats[2];
+        playerGold = stats[3];
+        playerLevel = stats[4];
+        experience = stats[5];
+        totalExperience = stats[6];
+        playerX = stats[7];
+        playerY = stats[8];
+        turns = stats[9];
+        System.arraycopy(counts, 0, inventory, 0, inventory.length);
+        itemCount = 0;
+        for (int n : inventory) {
+            itemCount += n;
+        }
+    }
+    
+    // 背包里各物品的数量，按编号
+    void saveCounts(int[] counts) {
+        System.arraycopy(inventory, 0, counts, 0, inventory.length);
+    }
+    
+    private void command(String input) {
+        switch (input) {
+            case "help":
+                showHelp();
+                break;
+            case "move":
+                if (prompts) print("移动方向 (n-北, s-南, e-东, w-西): ");
+                state = DIRECTION;
+                return;
+            case "map":
+                showMap();
+                break;
+            case "status":
+                showStatus();
+                break;
+            case "inventory":
+                showInventory();
+                break;
+            case "explore":
+                if (explore()) return;
+                break;
+            case "use":
+                if (prompts) {
+                    showInventory();
+                    print("使用哪个物品？> ");
+                }
+                state = ITEM;
+                return;
+            case "quit":
+                playing = false;
+                break;
+            default:
+                println("未知命令，输入 'help' 查看可用命令");
+        }
+        endTurn();
+    }
+    
+    private void endTurn() {
+        state = COMMAND;
+        turns++;
+        
+        // 随机事件
+        happen(events.current().table(world.name(playerX, playerY), AdventureEvents.EVENT));
+        
+        // 检查升级
+        checkLevelUp();
         
         if (playerHealth <= 0) {
-            System.out.println("\n游戏结束！你被击败了...");
+            println("\n游戏结束！你被击败了...");
+            state = OVER;
+        } else if (!playing) {
+            println("\n感谢游玩！再见！");
+            state = OVER;
         } else {
-            System.out.println("\n感谢游玩！再见！");
+            prompt();
         }
     }
     
-    private static void displayLocation() {
-        System.out.println("\n=================================");
-        System.out.println("当前位置: " + map[playerY][playerX]);
-        System.out.println("坐标: (" + playerX + ", " + playerY + ")");
-        System.out.println("=================================");
+    private void prompt() {
+        if (!prompts) return;
+        displayLocation();
+        print("\n你要做什么？> ");
     }
     
-    private static void showHelp() {
-        System.out.println("\n可用命令:");
-        System.out.println("help    - 显示帮助信息");
-        System.out.println("move    - 移动角色");
-        System.out.println("map     - 显示地图");
-        System.out.println("status  - 显示角色状态");
-        System.out.println("inventory - 查看背包");
-        System.out.println("explore - 探索当前区域");
-        System.out.println("use     - 使用物品");
-        System.out.println("quit    - 退出游戏");
+    private void displayLocation() {
+        println("\n=================================");
+        println("当前位置: " + world.name(playerX, playerY));
+        println("坐标: (" + playerX + ", " + playerY + ")");
+        println("=================================");
     }
     
-    private static void movePlayer() {
-        System.out.print("移动方向 (n-北, s-南, e-东, w-西): ");
-        String direction = scanner.nextLine().toLowerCase();
-        
+    private void showHelp() {
+        println("\n可用命令:");
+        println("help    - 显示帮助信息");
+        println("move    - 移动角色");
+        println("map     - 显示地图");
+        println("status  - 显示角色状态");
+        println("inventory - 查看背包");
+        println("explore - 探索当前区域");
+        println("use     - 使用物品");
+        println("quit    - 退出游戏");
+    }
+    
+    private void movePlayer(String direction) {
         switch (direction) {
             case "n": // 北
                 if (playerY > 0) playerY--;
-                else System.out.println("无法向北移动！");
+                else println("无法向北移动！");
                 break;
             case "s": // 南
-                if (playerY < 2) playerY++;
-                else System.out.println("无法向南移动！");
+                if (playerY < world.height() - 1) playerY++;
+                else println("无法向南移动！");
                 break;
             case "e": // 东
-                if (playerX < 2) playerX++;
-                else System.out.println("无法向东移动！");
+                if (playerX < world.width() - 1) playerX++;
+                else println("无法向东移动！");
                 break;
             case "w": // 西
                 if (playerX > 0) playerX--;
-                else System.out.println("无法向西移动！");
+                else println("无法向西移动！");
                 break;
             default:
-                System.out.println("无效方向！");
+                println("无效方向！");
+                endTurn();
                 return;
         }
-        System.out.println("你移动到了: " + map[playerY][playerX]);
+        println("你移动到了: " + world.name(playerX, playerY));
+        endTurn();
     }
     
-    private static void showMap() {
-        System.out.println("\n=== 世界地图 ===");
-        for (int y = 0; y < 3; y++) {
-            for (int x = 0; x < 3; x++) {
+    // 显示以玩家为中心的一块地图，靠近边界时窗口贴着边界，小地图整张显示
+    private void showMap() {
+        println("\n=== 世界地图 ===");
+        int x0 = viewStart(playerX, world.width());
+        int y0 = viewStart(playerY, world.height());
+        int x1 = Math.min(x0 + 2 * MAP_RADIUS, world.width() - 1);
+        int y1 = Math.min(y0 + 2 * MAP_RADIUS, world.height() - 1);
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
                 if (x == playerX && y == playerY) {
-                    System.out.print("[你] ");
+                    print("[你] ");
                 } else {
-                    System.out.print("[" + map[y][x] + "] ");
+                    print("[" + world.name(x, y) + "] ");
                 }
             }
-            System.out.println();
+            println("");
         }
+        if (x1 - x0 + 1 < world.width() || y1 - y0 + 1 < world.height()) {
+            println("(" + x0 + ", " + y0 + ") ~ (" + x1 + ", " + y1 + ")，世界大小 " + world.width() + "×" + world.height());
+        }
+    }
+    
+    private static int viewStart(int player, int size) {
+        return Math.max(0, Math.min(player - MAP_RADIUS, size - 2 * MAP_RADIUS - 1));
     }
     
-    private static void showStatus() {
-        System.out.println("\n=== 角色状态 ===");
-        System.out.println("生命值: " + playerHealth + "/100");
-        System.out.println("等级: " + playerLevel);
-        System.out.println("经验: " + experience + "/" + (playerLevel * 50));
-        System.out.println("攻击力: " + playerAttack);
-        System.out.println("防御力: " + playerDefense);
-        System.out.println("金币: " + playerGold);
+    private void showStatus() {
+        println("\n=== 角色状态 ===");
+        println("生命值: " + playerHealth + "/" + MAX_HEALTH);
+        println("等级: " + playerLevel);
+        println("经验: " + experience + "/" + experienceToLevelUp(playerLevel));
+        println("攻击力: " + playerAttack);
+        println("防御力: " + playerDefense);
+        println("金币: " + playerGold);
     }
     
-    private static void showInventory() {
-        System.out.println("\n=== 背包 ===");
-        if (inventory.isEmpty()) {
-            System.out.println("背包空空如也...");
+    private void showInventory() {
+        println("\n=== 背包 ===");
+        if (itemCount == 0) {
+            println("背包空空如也...");
         } else {
-            for (String item : inventory.keySet()) {
-                System.out.println(item + ": " + inventory.get(item));
+            for (int id = 0; id < inventory.length; id++) {
+                if (inventory[id] > 0) println(items.name(id) + ": " + inventory[id]);
             }
         }
     }
     
-    private static void explore() {
-        System.out.println("\n你在 " + map[playerY][playerX] + " 中探索...");
-        
-        int event = random.nextInt(100);
-        
-        if (event < 40) { // 40% 几率找到物品
-            findItem();
-        } else if (event < 70) { // 30% 几率遇到怪物
-            encounterMonster();
-        } else if (event < 85) { // 15% 几率找到金币
-            findGold();
-        } else { // 15% 几率无事发生
-            System.out.println("你探索了一番，但没有发现什么特别的东西。");
+    // 返回 true 表示遇到了怪物，回合要等战斗结束
+    private boolean explore() {
+        String location = world.name(playerX, playerY);
+        println("\n你在 " + location + " 中探索...");
+        return happen(events.current().table(location, AdventureEvents.EXPLORE));
+    }
+    
+    // 从事件表里抽一个结果执行，返回 true 表示遇到了怪物
+    private boolean happen(AdventureEvents.Table table) {
+        int event = table.sample(random);
+        switch (table.action(event)) {
+            case AdventureEvents.ITEM:
+                findItem(table.item(event));
+                break;
+            case AdventureEvents.MONSTER:
+                encounterMonster(table.text(event));
+                return true;
+            case AdventureEvents.GOLD: {
+                int gold = table.roll(event, random);
+                playerGold += gold;
+                println("你找到了 " + gold + " 枚金币!");
+                break;
+            }
+            case AdventureEvents.CHEST: {
+                println("\n*** 随机事件: 你发现了一个宝箱！ ***");
+                int gold = table.roll(event, random);
+                playerGold += gold;
+                println("获得 " + gold + " 金币!");
+                break;
+            }
+            case AdventureEvents.TRAP: {
+                println("\n*** 随机事件: 你踩到了陷阱！ ***");
+                int damage = table.roll(event, random);
+                playerHealth -= damage;
+                println("受到 " + damage + " 点伤害!");
+                break;
+            }
+            default:
+                if (table.text(event) != null) println(table.text(event));
+        }
+        return false;
+    }
+    
+    // item 是物品编号，-1 时从能找到的物品里随机选一个
+    private void findItem(int item) {
+        int found = item;
+        if (found < 0 && items.findable() > 0) {
+            found = items.findable(random.nextInt(items.findable()));
         }
+        if (found < 0) {
+            println("你探索了一番，但没有发现什么特别的东西。");
+            return;
+        }
+        
+        inventory[found]++;
+        itemCount++;
+        println("你找到了: " + items.name(found) + "!");
     }
     
-    private static void findItem() {
-        String[] items = {"治疗药水", "力量药水", "防御药水", "魔法剑"};
-        String foundItem = items[random.nextInt(items.length)];
+    private void encounterMonster(String name) {
+        monster = name;
+        monsterHealth = rollMonsterHealth(random);
+        monsterAttack = rollMonsterAttack(random);
         
-        inventory.put(foundItem, inventory.getOrDefault(foundItem, 0) + 1);
-        System.out.println("你找到了: " + foundItem + "!");
+        println("你遇到了 " + monster + "!");
+        println("怪物生命值: " + monsterHealth);
+        combatPrompt();
+        state = COMBAT;
     }
     
-    private static void findGold() {
-        int gold = random.nextInt(50) + 10;
-        playerGold += gold;
-        System.out.println("你找到了 " + gold + " 枚金币!");
+    private void combatPrompt() {
+        if (!prompts) return;
+        println("\n你的生命值: " + playerHealth);
+        println(monster + " 的生命值: " + monsterHealth);
+        print("你要做什么？(a-攻击, r-逃跑): ");
     }
     
-    private static void encounterMonster() {
-        String[] monsters = {"哥布林", "骷髅", "巨蜘蛛", "狼人"};
-        String monster = monsters[random.nextInt(monsters.length)];
-        int monsterHealth = random.nextInt(30) + 20;
-        int monsterAttack = random.nextInt(10) + 5;
-        
-        System.out.println("你遇到了 " + monster + "!");
-        System.out.println("怪物生命值: " + monsterHealth);
-        
-        while (monsterHealth > 0 && playerHealth > 0) {
-            System.out.println("\n你的生命值: " + playerHealth);
-            System.out.println(monster + " 的生命值: " + monsterHealth);
-            System.out.print("你要做什么？(a-攻击, r-逃跑): ");
-            String action = scanner.nextLine().toLowerCase();
+    // 战斗中的一个回合，双方都还活着时继续等待下一个操作
+    private void fight(String action) {
+        if (action.equals("a")) {
+            // 玩家攻击
+            int damage = playerDamage();
+            monsterHealth -= damage;
+            println("你对 " + monster + " 造成了 " + damage + " 点伤害!");
             
-            if (action.equals("a")) {
-                // 玩家攻击
-                int damage = playerAttack + random.nextInt(10);
-                monsterHealth -= damage;
-                System.out.println("你对 " + monster + " 造成了 " + damage + " 点伤害!");
-                
-                if (monsterHealth > 0) {
-                    // 怪物反击
-                    int monsterDamage = Math.max(0, monsterAttack - playerDefense + random.nextInt(5));
-                    playerHealth -= monsterDamage;
-                    System.out.println(monster + " 对你造成了 " + monsterDamage + " 点伤害!");
-                }
-            } else if (action.equals("r")) {
-                if (random.nextInt(100) < 50) { // 50% 逃跑成功率
-                    System.out.println("你成功逃跑了!");
-                    return;
-                } else {
-                    System.out.println("逃跑失败!");
-                    int monsterDamage = Math.max(0, monsterAttack - playerDefense + random.nextInt(5));
-                    playerHealth -= monsterDamage;
-                    System.out.println(monster + " 对你造成了 " + monsterDamage + " 点伤害!");
-                }
+            if (monsterHealth > 0) {
+                // 怪物反击
+                int monsterDamage = monsterDamage(monsterAttack);
+                playerHealth -= monsterDamage;
+                println(monster + " 对你造成了 " + monsterDamage + " 点伤害!");
+            }
+        } else if (action.equals("r")) {
+            if (fleeSucceeds(random)) {
+                println("你成功逃跑了!");
+                endTurn();
+                return;
+            } else {
+                println("逃跑失败!");
+                int monsterDamage = monsterDamage(monsterAttack);
+                playerHealth -= monsterDamage;
+                println(monster + " 对你造成了 " + monsterDamage + " 点伤害!");
             }
         }
         
+        if (monsterHealth > 0 && playerHealth > 0) {
+            combatPrompt();
+            return;
+        }
+        
         if (monsterHealth <= 0) {
-            int expGained = random.nextInt(20) + 10;
-            int goldGained = random.nextInt(30) + 5;
+            int expGained = rollExperience(random);
+            int goldGained = rollGold(random);
             experience += expGained;
+            totalExperience += expGained;
             playerGold += goldGained;
-            System.out.println("你击败了 " + monster + "!");
-            System.out.println("获得 " + expGained + " 经验值!");
-            System.out.println("获得 " + goldGained + " 金币!");
+            println("你击败了 " + monster + "!");
+            println("获得 " + expGained + " 经验值!");
+            println("获得 " + goldGained + " 金币!");
         }
+        endTurn();
     }
     
-    private static void useItem() {
-        showInventory();
-        System.out.print("使用哪个物品？> ");
-        String item = scanner.nextLine();
-        
-        if (inventory.containsKey(item) && inventory.get(item) > 0) {
-            switch (item) {
-                case "治疗药水":
-                    playerHealth = Math.min(100, playerHealth + 30);
-                    System.out.println("使用治疗药水，恢复30点生命值!");
-                    break;
-                case "力量药水":
-                    playerAttack += 5;
-                    System.out.println("使用力量药水，攻击力增加5点!");
-                    break;
-                case "防御药水":
-                    playerDefense += 3;
-                    System.out.println("使用防御药水，防御力增加3点!");
-                    break;
-                default:
-                    System.out.println("这个物品无法直接使用!");
-                    return;
-            }
-            inventory.put(item, inventory.get(item) - 1);
-            if (inventory.get(item) == 0) {
-                inventory.remove(item);
-            }
-        } else {
-            System.out.println("没有这个物品或数量不足!");
-        }
+    // 玩家一次攻击造成的伤害
+    int playerDamage() {
+        return playerDamage(random, playerAttack);
     }
     
-    private static void randomEvent() {
-        int event = random.nextInt(100);
-        
-        if (event < 20) { // 20% 几率遇到好事
-            System.out.println("\n*** 随机事件: 你发现了一个宝箱！ ***");
-            int gold = random.nextInt(100) + 50;
-            playerGold += gold;
-            System.out.println("获得 " + gold + " 金币!");
-        } else if (event < 35) { // 15% 几率遇到坏事
-            System.out.println("\n*** 随机事件: 你踩到了陷阱！ ***");
-            int damage = random.nextInt(20) + 5;
-            playerHealth -= damage;
-            System.out.println("受到 " + damage + " 点伤害!");
+    // 怪物一次攻击对玩家造成的伤害，扣除防御后不低于0
+    int monsterDamage(int monsterAttack) {
+        return monsterDamage(random, monsterAttack, playerDefense);
+    }
+    
+    static int playerDamage(SplittableRandom random, int attack) {
+        return attack + random.nextInt(10);
+    }
+    
+    static int monsterDamage(SplittableRandom random, int monsterAttack, int defense) {
+        return Math.max(0, monsterAttack - defense + random.nextInt(5));
+    }
+    
+    static int rollMonsterHealth(SplittableRandom random) {
+        return random.nextInt(30) + 20;
+    }
+    
+    static int rollMonsterAttack(SplittableRandom random) {
+        return random.nextInt(10) + 5;
+    }
+    
+    // 50% 逃跑成功率
+    static boolean fleeSucceeds(SplittableRandom random) {
+        return random.nextInt(100) < FLEE_PERCENT;
+    }
+    
+    // 击败怪物获得的经验和金币
+    static int rollExperience(SplittableRandom random) {
+        return random.nextInt(20) + 10;
+    }
+    
+    static int rollGold(SplittableRandom random) {
+        return random.nextInt(30) + 5;
+    }
+    
+    static int experienceToLevelUp(int level) {
+        return level * 50;
+    }
+    
+    // 物品效果，下标是 AdventureItems 里的效果编号，null 表示不能直接使用
+    private interface Effect {
+        void apply(TextAdventureGame game, String item, int amount);
+    }
+    
+    private static final Effect[] EFFECTS = {
+        null,
+        (game, item, amount) -> {
+            game.playerHealth = Math.min(MAX_HEALTH, game.playerHealth + amount);
+            game.println("使用" + item + "，恢复" + amount + "点生命值!");
+        },
+        (game, item, amount) -> {
+            game.playerAttack += amount;
+            game.println("使用" + item + "，攻击力增加" + amount + "点!");
+        },
+        (game, item, amount) -> {
+            game.playerDefense += amount;
+            game.println("使用" + item + "，防御力增加" + amount + "点!");
         }
+    };
+    
+    private void useItem(String item) {
+        int id = items.id(item);
+        if (id >= 0 && inventory[id] > 0) {
+            Effect effect = EFFECTS[items.effect(id)];
+            if (effect == null) {
+                println("这个物品无法直接使用!");
+                endTurn();
+                return;
+            }
+            effect.apply(this, item, items.amount(id));
+            inventory[id]--;
+            itemCount--;
+        } else {
+            println("没有这个物品或数量不足!");
+        }
+        endTurn();
     }
     
-    private static void checkLevelUp() {
-        int requiredExp = playerLevel * 50;
+    private void checkLevelUp() {
+        int requiredExp = experienceToLevelUp(playerLevel);
         if (experience >= requiredExp) {
             playerLevel++;
             experience = 0;
-            playerAttack += 3;
-            playerDefense += 2;
-            playerHealth = 100; // 升级恢复生命值
-            System.out.println("\n*** 恭喜！你升级到 " + playerLevel + " 级！ ***");
-            System.out.println("攻击力 +3, 防御力 +2, 生命值恢复!");
+            playerAttack += LEVEL_ATTACK;
+            playerDefense += LEVEL_DEFENSE;
+            playerHealth = MAX_HEALTH; // 升级恢复生命值
+            println("\n*** 恭喜！你升级到 " + playerLevel + " 级！ ***");
+            println("攻击力 +3, 防御力 +2, 生命值恢复!");
         }
     }
+    
+    private void print(String text) {
+        if (out == null) return;
+        out.append(text);
+    }
+    
+    private void println(String text) {
+        if (out == null) return;
+        out.append(text).append('\n');
+    }
 }
\ No newline at end of file
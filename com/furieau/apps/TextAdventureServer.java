@@ -0,0 +1,618 @@
+package com.furieau.apps;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.*;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 文字冒险多人服务器
+ * 每个 TCP 连接是一个独立的 TextAdventureGame 会话，协议就是文本行（UTF-8）：客户端每发一行，
+ * 服务器回复这一回合的输出，以提示（"> " 或 "): " 结尾，不换行）结束。用 nc 或 telnet 就能玩。
+ * 几个事件循环线程各有一个 Selector，连接按轮转分给它们，此后只由这个线程处理，会话之间没有锁。
+ * 会话是由输入驱动的状态机，不占线程也不占栈；同一个循环里的会话共用读写缓冲区和输出的 StringBuilder，
+ * 只有发不出去的数据和没读完的半行才按连接保存。地图只读、所有循环共享，解码后的区块缓存每个循环一个。
+ * 用 --bench=会话数 启动时做压力测试。
+ */
+public class TextAdventureServer {
+    // 一行输入的字节数上限，超过就断开
+    private static final int MAX_LINE = 1024;
+    
+    // 客户端积压的待发送数据超过这个大小就断开
+    private static final int MAX_BACKLOG = 1 << 20;
+    
+    private final ServerSocketChannel server;
+    private final Loop[] loops;
+    private volatile boolean running = true;
+    private int nextLoop;
+    
+    public TextAdventureServer(InetAddress address, int port, int threads, AdventureWorld world, int cacheChunks,
+            AdventureItems items, AdventureEvents events) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("线程数无效: " + threads);
+        }
+        loops = new Loop[threads];
+        SplittableRandom seeds = new SplittableRandom();
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new Loop(world.newCache(cacheChunks), items, events, seeds.split());
+        }
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(address, port), 1024);
+        server.configureBlocking(false);
+        // 第一个循环同时负责接受连接
+        server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+    }
+    
+    // 实际监听的端口，端口参数为 0 时由系统分配
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+    
+    /**
+     * 在当前线程运行第一个事件循环，其余的各开一个线程，stop() 后全部退出才返回
+     */
+    public void serve() throws IOException {
+        Thread[] threads = new Thread[loops.length];
+        for (int i = 1; i < loops.length; i++) {
+            Loop loop = loops[i];
+            threads[i] = new Thread(() -> {
+                try {
+                    loop.run();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "adventure-loop-" + i);
+            threads[i].start();
+        }
+        try {
+            loops[0].run();
+        } finally {
+            stop();
+            server.close();
+            for (int i = 1; i < threads.length; i++) {
+                try {
+                    threads[i].join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+    
+    // 让所有事件循环在下一轮退出
+    public void stop() {
+        running = false;
+        for (Loop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+    
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Loop loop = loops[nextLoop];
+            nextLoop = (nextLoop + 1) % loops.length;
+            if (loop == loops[0]) {
+                loop.open(channel);
+            } else {
+                loop.pending.add(channel);
+                loop.selector.wakeup();
+            }
+        }
+    }
+    
+    /**
+     * 一个事件循环线程和它负责的所有会话
+     */
+    private final class Loop {
+        final Selector selector;
+        // 其他线程接受、交给这个循环的连接
+        final ConcurrentLinkedQueue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final AdventureWorld.Cache world;
+        private final AdventureItems items;
+        private final AdventureEvents events;
+        private final SplittableRandom random;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(64 << 10);
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(64 << 10);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        // 本循环所有会话共用的输出，每处理完一个连接的输入就编码发出并清空
+        private final StringBuilder out = new StringBuilder(4096);
+        // 只由本线程写，统计时由第一个循环读
+        volatile int sessions;
+        volatile long lines;
+        
+        Loop(AdventureWorld.Cache world, AdventureItems items, AdventureEvents events, SplittableRandom random)
+                throws IOException {
+            this.world = world;
+            this.items = items;
+            this.events = events;
+            this.random = random;
+            this.selector = Selector.open();
+        }
+        
+        void run() throws IOException {
+            long reportAt = System.nanoTime() + 5_000_000_000L;
+            long lastLines = 0;
+            try {
+                while (running) {
+                    selector.select(1000);
+                    SocketChannel channel;
+                    while ((channel = pending.poll()) != null) {
+                        open(channel);
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (!key.isValid()) continue;
+                            if (key.isAcceptable()) accept();
+                            if (key.isValid() && key.isReadable()) read(connection);
+                            if (key.isValid() && key.isWritable()) write(connection);
+                        } catch (IOException e) {
+                            close(connection);
+                        }
+                    }
+                    
+                    // 每 5 秒输出一次统计
+                    long now = System.nanoTime();
+                    if (this == loops[0] && now - reportAt >= 0) {
+                        int total = 0;
+                        long handled = 0;
+                        for (Loop loop : loops) {
+                            total += loop.sessions;
+                            handled += loop.lines;
+                        }
+                        System.out.printf("会话 %d 个，每秒处理 %d 行输入%n", total, (handled - lastLines) / 5);
+                        lastLines = handled;
+                        reportAt = now + 5_000_000_000L;
+                    }
+                }
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            }
+        }
+        
+        // 新连接开始一个会话，立即发出欢迎信息
+        void open(SocketChannel channel) throws IOException {
+            Connection connection = new Connection(channel);
+            try {
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (ClosedChannelException e) {
+                return;
+            }
+            connection.game = new TextAdventureGame(world, items, events, random.split(), out);
+            sessions++;
+            connection.game.start();
+            try {
+                send(connection);
+            } catch (IOException e) {
+                close(connection);
+            }
+        }
+        
+        /**
+         * 读出所有完整的行交给会话，剩下的半行留到下次
+         */
+        private void read(Connection connection) throws IOException {
+            ByteBuffer in = readBuffer;
+            in.clear();
+            if (connection.partial != null) {
+                in.put(connection.partial);
+                connection.partial = null;
+            }
+            if (connection.channel.read(in) < 0) {
+                close(connection);
+                return;
+            }
+            byte[] bytes = in.array();
+            int end = in.position();
+            int start = 0;
+            int handled = 0;
+            for (int i = 0; i < end && !connection.game.isOver(); i++) {
+                if (bytes[i] != '\n') continue;
+                int length = i - start;
+                if (length > 0 && bytes[start + length - 1] == '\r') length--;
+                connection.game.handle(new String(bytes, start, length, StandardCharsets.UTF_8));
+                handled++;
+                start = i + 1;
+            }
+            lines += handled;
+            if (!connection.game.isOver() && start < end) {
+                if (end - start > MAX_LINE) throw new IOException("输入行太长");
+                connection.partial = Arrays.copyOfRange(bytes, start, end);
+            }
+            send(connection);
+        }
+        
+        /**
+         * 把会话的输出编码成 UTF-8 发出，发不完的部分存进连接自己的积压缓冲区
+         */
+        private void send(Connection connection) throws IOException {
+            if (out.length() > 0) {
+                CharBuffer chars = CharBuffer.wrap(out);
+                encoder.reset();
+                CoderResult result;
+                do {
+                    writeBuffer.clear();
+                    result = encoder.encode(chars, writeBuffer, true);
+                    if (!result.isOverflow()) encoder.flush(writeBuffer);
+                    writeBuffer.flip();
+                    if (connection.backlog == null) {
+                        connection.channel.write(writeBuffer);
+                    }
+                    if (writeBuffer.hasRemaining()) {
+                        connection.queue(writeBuffer);
+                    }
+                } while (result.isOverflow());
+                out.setLength(0);
+                // 一次很长的输出后不让共用的 StringBuilder 一直占着大数组
+                if (out.capacity() > 64 << 10) {
+                    out.setLength(4096);
+                    out.trimToSize();
+                    out.setLength(0);
+                }
+            }
+            if (connection.backlog != null) {
+                connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } else if (connection.game.isOver()) {
+                close(connection);
+            }
+        }
+        
+        private void write(Connection connection) throws IOException {
+            ByteBuffer backlog = connection.backlog;
+            backlog.flip();
+            connection.channel.write(backlog);
+            if (backlog.hasRemaining()) {
+                backlog.compact();
+                return;
+            }
+            connection.backlog = null;
+            if (connection.game.isOver()) {
+                close(connection);
+            } else {
+                connection.key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+        
+        private void close(Connection connection) {
+            if (connection == null || !connection.key.isValid()) return;
+            connection.key.cancel();
+            sessions--;
+            try {
+                connection.channel.close();
+            } catch (IOException e) {
+                // 忽略异常
+            }
+        }
+    }
+    
+    /**
+     * 一个客户端连接和它的会话
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        TextAdventureGame game;
+        // 没读完的半行，没有时为 null
+        byte[] partial;
+        // 没发出去的数据，没有时为 null
+        ByteBuffer backlog;
+        
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+        
+        void queue(ByteBuffer data) throws IOException {
+            if (backlog == null) {
+                backlog = ByteBuffer.allocate(Math.max(256, Integer.highestOneBit(data.remaining()) * 2));
+            } else if (backlog.remaining() < data.remaining()) {
+                int capacity = Integer.highestOneBit(backlog.position() + data.remaining()) * 2;
+                if (capacity > MAX_BACKLOG) throw new IOException("客户端接收太慢");
+                ByteBuffer bigger = ByteBuffer.allocate(capacity);
+                backlog.flip();
+                bigger.put(backlog);
+                backlog = bigger;
+            }
+            backlog.put(data);
+        }
+    }
+    
+    /**
+     * 压力测试：开 sessions 个连接，每个连接收到提示后按提示随机回应（探索为主，战斗时多半攻击），
+     * 会话结束（玩家被击败）后立即重新连接。单线程事件循环驱动，记录每行输入从发出到收到下一个提示的延迟。
+     * 服务器在本进程里时，开始前先让所有会话空闲，量出每个会话平均占用的堆内存。
+     */
+    static final class LoadTest {
+        private static final byte[][] COMMANDS = lines("explore", "explore", "explore", "explore",
+                "move", "status", "map", "inventory", "use", "help");
+        private static final byte[][] DIRECTIONS = lines("n", "s", "e", "w");
+        private static final byte[] ITEM = lines("治疗药水")[0];
+        private static final byte[] ATTACK = lines("a")[0];
+        private static final byte[] FLEE = lines("r")[0];
+        
+        // 各种提示的结尾
+        private static final byte[] COMMAND_PROMPT = "你要做什么？> ".getBytes(StandardCharsets.UTF_8);
+        private static final byte[] DIRECTION_PROMPT = "w-西): ".getBytes(StandardCharsets.UTF_8);
+        private static final byte[] ITEM_PROMPT = "使用哪个物品？> ".getBytes(StandardCharsets.UTF_8);
+        private static final byte[] COMBAT_PROMPT = "r-逃跑): ".getBytes(StandardCharsets.UTF_8);
+        // 每个连接记住最近收到的这么多字节，足够判断是哪种提示
+        private static final int TAIL = 32;
+        
+        private final String host;
+        private final int port;
+        private final Selector selector;
+        private final SocketChannel[] channels;
+        private final byte[][] tails;
+        private final int[] tailLength;
+        private final long[] sentAt;
+        private final ByteBuffer in = ByteBuffer.allocate(64 << 10);
+        private final ByteBuffer message = ByteBuffer.allocate(64);
+        private final SplittableRandom random = new SplittableRandom();
+        // 延迟直方图，单位微秒，最后一格是溢出；会话多时每行要排队等其他会话，范围放宽到 1 秒
+        private final long[] histogram = new long[1_000_000 + 1];
+        private long latencies;
+        private long finished;
+        // 空闲阶段：收到提示先不回应
+        private boolean idle = true;
+        private int prompted;
+        
+        LoadTest(String host, int port, int sessions) throws IOException {
+            if (sessions < 1) {
+                throw new IllegalArgumentException("会话数无效: " + sessions);
+            }
+            this.host = host;
+            this.port = port;
+            selector = Selector.open();
+            channels = new SocketChannel[sessions];
+            tails = new byte[sessions][TAIL];
+            tailLength = new int[sessions];
+            sentAt = new long[sessions];
+        }
+        
+        void run(long millis, boolean measure) throws IOException {
+            long before = measure ? usedMemory() : 0;
+            for (int c = 0; c < channels.length; c++) {
+                connect(c);
+            }
+            // 等所有会话都发来第一个提示
+            while (prompted < channels.length) {
+                poll();
+            }
+            if (measure) {
+                System.out.printf("%d 个空闲会话，每个约占 %d 字节堆内存（包括压力测试这一端的连接对象）%n",
+                        channels.length, (usedMemory() - before) / channels.length);
+            }
+            idle = false;
+            for (int c = 0; c < channels.length; c++) {
+                respond(c);
+            }
+            
+            long start = System.nanoTime();
+            long end = start + millis * 1_000_000L;
+            while (System.nanoTime() < end) {
+                poll();
+            }
+            long nanos = System.nanoTime() - start;
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+            selector.close();
+            System.out.printf("%d 个会话同时在线，%.1f 秒%n", channels.length, nanos / 1e9);
+            System.out.printf("处理 %d 行输入，每秒 %.0f 行；%d 个玩家被击败后重新连接%n",
+                    latencies, latencies * 1e9 / nanos, finished);
+            System.out.printf("回复延迟：p50 %d 微秒，p99 %d 微秒，p99.9 %d 微秒，最长 %d 微秒%n",
+                    percentile(0.5), percentile(0.99), percentile(0.999), percentile(1.0));
+        }
+        
+        private void connect(int c) throws IOException {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, c);
+            channels[c] = channel;
+            tailLength[c] = 0;
+            sentAt[c] = 0;
+        }
+        
+        private void poll() throws IOException {
+            selector.select(100);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                read((Integer) key.attachment());
+            }
+        }
+        
+        private void read(int c) throws IOException {
+            in.clear();
+            if (channels[c].read(in) < 0) {
+                // 玩家被击败，服务器结束了会话
+                channels[c].close();
+                finished++;
+                connect(c);
+                return;
+            }
+            in.flip();
+            // 把收到的数据接到最近的字节后面，只保留末尾 TAIL 个
+            byte[] tail = tails[c];
+            int n = in.remaining();
+            if (n >= TAIL) {
+                in.position(n - TAIL);
+                in.get(tail);
+                tailLength[c] = TAIL;
+            } else {
+                int keep = Math.min(tailLength[c], TAIL - n);
+                System.arraycopy(tail, tailLength[c] - keep, tail, 0, keep);
+                in.get(tail, keep, n);
+                tailLength[c] = keep + n;
+            }
+            if (endsWith(c, COMMAND_PROMPT) || endsWith(c, DIRECTION_PROMPT)
+                    || endsWith(c, ITEM_PROMPT) || endsWith(c, COMBAT_PROMPT)) {
+                if (idle) {
+                    prompted++;
+                } else {
+                    // 重新连接后的第一个提示不是对某行输入的回复
+                    if (sentAt[c] != 0) record(System.nanoTime() - sentAt[c]);
+                    respond(c);
+                }
+            }
+        }
+        
+        // 按最近收到的提示回应一行
+        private void respond(int c) throws IOException {
+            byte[] line;
+            if (endsWith(c, DIRECTION_PROMPT)) {
+                line = DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+            } else if (endsWith(c, ITEM_PROMPT)) {
+                line = ITEM;
+            } else if (endsWith(c, COMBAT_PROMPT)) {
+                line = random.nextInt(10) == 0 ? FLEE : ATTACK;
+            } else {
+                line = COMMANDS[random.nextInt(COMMANDS.length)];
+            }
+            tailLength[c] = 0;
+            message.clear();
+            message.put(line).flip();
+            sentAt[c] = System.nanoTime();
+            while (message.hasRemaining()) {
+                channels[c].write(message);
+            }
+        }
+        
+        private boolean endsWith(int c, byte[] suffix) {
+            int length = tailLength[c];
+            if (length < suffix.length) return false;
+            byte[] tail = tails[c];
+            for (int i = 0; i < suffix.length; i++) {
+                if (tail[length - suffix.length + i] != suffix[i]) return false;
+            }
+            return true;
+        }
+        
+        private void record(long nanos) {
+            histogram[(int) Math.min(nanos / 1000, histogram.length - 1)]++;
+            latencies++;
+        }
+        
+        private long percentile(double p) {
+            long rank = (long) Math.ceil(p * latencies);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank && seen > 0) return i;
+            }
+            return 0;
+        }
+        
+        private static long usedMemory() {
+            Runtime runtime = Runtime.getRuntime();
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+            }
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+        
+        private static byte[][] lines(String... commands) {
+            byte[][] result = new byte[commands.length][];
+            for (int i = 0; i < commands.length; i++) {
+                result[i] = (commands[i] + "\n").getBytes(StandardCharsets.UTF_8);
+            }
+            return result;
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int port = 7779;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String bind = null;
+        String worldFile = null;
+        int cacheChunks = 256;
+        String itemsFile = null;
+        String eventsFile = null;
+        String connect = null;
+        int benchSessions = 0;
+        long benchMillis = 10_000;
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--bind=")) {
+                bind = arg.substring("--bind=".length());
+            } else if (arg.startsWith("--world=")) {
+                worldFile = arg.substring("--world=".length());
+            } else if (arg.startsWith("--cache=")) {
+                cacheChunks = Integer.parseInt(arg.substring("--cache=".length()));
+            } else if (arg.startsWith("--items=")) {
+                itemsFile = arg.substring("--items=".length());
+            } else if (arg.startsWith("--events=")) {
+                eventsFile = arg.substring("--events=".length());
+            } else if (arg.startsWith("--connect=")) {
+                connect = arg.substring("--connect=".length());
+            } else if (arg.startsWith("--bench=")) {
+                benchSessions = Integer.parseInt(arg.substring("--bench=".length()));
+            } else if (arg.startsWith("--seconds=")) {
+                benchMillis = Long.parseLong(arg.substring("--seconds=".length())) * 1000;
+            } else {
+                throw new IllegalArgumentException("未知参数: " + arg);
+            }
+        }
+        // 默认只监听本机
+        InetAddress address = bind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind);
+        AdventureWorld world = worldFile == null ? TextAdventureGame.DEFAULT_WORLD : AdventureWorld.open(new File(worldFile));
+        AdventureItems items = itemsFile == null ? AdventureItems.DEFAULT : AdventureItems.load(new File(itemsFile));
+        AdventureEvents events = eventsFile == null ? AdventureEvents.DEFAULT : AdventureEvents.load(new File(eventsFile), items);
+        // 事件表改了不用重启，所有会话下一次抽样就用新表
+        events.watch(1000);
+        
+        if (benchSessions > 0) {
+            // 没有指定服务器时在本进程里启动一个
+            String host = "localhost";
+            TextAdventureServer local = null;
+            Thread thread = null;
+            if (connect == null) {
+                local = new TextAdventureServer(address, 0, threads, world, cacheChunks, items, events);
+                port = local.port();
+                TextAdventureServer serving = local;
+                thread = new Thread(() -> {
+                    try {
+                        serving.serve();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }, "adventure-server");
+                thread.start();
+            } else {
+                int colon = connect.lastIndexOf(':');
+                host = colon < 0 ? connect : connect.substring(0, colon);
+                port = colon < 0 ? port : Integer.parseInt(connect.substring(colon + 1));
+            }
+            new LoadTest(host, port, benchSessions).run(benchMillis, local != null);
+            if (local != null) {
+                local.stop();
+                thread.join();
+            }
+            return;
+        }
+        
+        TextAdventureServer server = new TextAdventureServer(address, port, threads, world, cacheChunks, items, events);
+        System.out.println("文字冒险服务器启动，端口 " + server.port() + "，" + threads + " 个事件循环线程");
+        server.serve();
+    }
+}
\ No newline at end of file
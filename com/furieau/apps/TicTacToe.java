@@ -1,57 +1,156 @@
 package com.furieau.apps;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Scanner;
 
 public class TicTacToe {
-    private static final int BOARD_SIZE = 3;
-    private static char[][] board = new char[BOARD_SIZE][BOARD_SIZE];
+    // 默认棋盘大小，运行时通过 --size=N --k=K 指定 N×N 棋盘上 K 子连线获胜
+    private static final int DEFAULT_SIZE = 3;
+    private static final char[] SYMBOLS = {'X', 'O'};
+    private static int boardSize = DEFAULT_SIZE;
+    private static int winLength = DEFAULT_SIZE;
+    static Board board = new Board(DEFAULT_SIZE, DEFAULT_SIZE);
     private static int cursorX = 0;
     private static int cursorY = 0;
     private static char currentPlayer = 'X';
-    private static boolean gameOver = false;
-    private static char winner = ' ';
-
-    public static void main(String[] args) {
+    static boolean gameOver = false;
+    static char winner = ' ';
+    
+    // 电脑棋手：--ai=X 或 --ai=O 指定电脑执哪一方，--think=毫秒 是每步的思考时间
+    private static final long DEFAULT_THINK_MILLIS = 1000;
+    private static TicTacToeAI ai;
+    private static int aiSide = Board.NONE;
+    private static long thinkMillis = DEFAULT_THINK_MILLIS;
+    private static String aiReport = "";
+    // 3×3、4×4 棋盘有残局库时电脑直接查表，--tablebase=文件 指定残局库，默认找当前目录下的同名文件
+    private static TicTacToeTablebase tablebase;
+    
+    // --ultimate：超级井字棋，9 个小棋盘组成 9×9，电脑使用 MCTS
+    private static boolean ultimate;
+    static UltimateBoard ultimateBoard = new UltimateBoard();
+    private static UltimateMCTS mcts;
+    
+    // 按键输入：终端切到原始模式，读到的字节交给 KeyDecoder，--input= 指定后端（同贪吃蛇）
+    private static final int INPUT_TIMEOUT_MILLIS = 100;
+    private static final int END_OF_INPUT = Integer.MIN_VALUE;
+    private static ConsoleInput input;
+    private static final KeyDecoder decoder = new KeyDecoder();
+    private static final byte[] inputBytes = new byte[64];
+    private static final int[] keys = new int[inputBytes.length + 1];
+    private static int keyIndex;
+    private static int keyCount;
+    
+    public static void main(String[] args) throws IOException {
+        int k = 0;
+        File tablebaseFile = null;
+        String inputBackend = ConsoleInput.AUTO;
+        for (String arg : args) {
+            if (arg.startsWith("--size=")) {
+                boardSize = Integer.parseInt(arg.substring("--size=".length()));
+            } else if (arg.startsWith("--k=")) {
+                k = Integer.parseInt(arg.substring("--k=".length()));
+            } else if (arg.startsWith("--ai=")) {
+                String side = arg.substring("--ai=".length()).toUpperCase();
+                if (side.equals("X")) {
+                    aiSide = Board.X;
+                } else if (side.equals("O")) {
+                    aiSide = Board.O;
+                } else {
+                    throw new IllegalArgumentException("--ai 只能是 X 或 O: " + side);
+                }
+            } else if (arg.startsWith("--think=")) {
+                thinkMillis = Long.parseLong(arg.substring("--think=".length()));
+            } else if (arg.startsWith("--tablebase=")) {
+                tablebaseFile = new File(arg.substring("--tablebase=".length()));
+            } else if (arg.equals("--ultimate")) {
+                ultimate = true;
+            } else if (arg.startsWith("--input=")) {
+                inputBackend = arg.substring("--input=".length());
+                ConsoleInput.checkBackend(inputBackend);
+            } else {
+                throw new IllegalArgumentException("未知参数: " + arg);
+            }
+        }
+        if (ultimate) {
+            boardSize = UltimateBoard.SIZE;
+            k = 3;
+        }
+        winLength = k > 0 ? k : defaultWinLength(boardSize);
         initializeBoard();
+        if (ultimate) {
+            if (aiSide != Board.NONE) mcts = new UltimateMCTS();
+        } else if (aiSide != Board.NONE) {
+            if (tablebaseFile == null && boardSize <= TicTacToeTablebase.MAX_SIZE) {
+                File file = TicTacToeTablebase.defaultFile(boardSize, winLength);
+                if (file.isFile()) tablebaseFile = file;
+            }
+            if (tablebaseFile != null) {
+                tablebase = TicTacToeTablebase.open(tablebaseFile);
+                if (tablebase.size() != boardSize || tablebase.k() != winLength) {
+                    throw new IllegalArgumentException("残局库是 " + tablebase.size() + "×" + tablebase.size() + "，" + tablebase.k() + " 子连线，与当前棋盘不一致");
+                }
+            } else {
+                ai = new TicTacToeAI(boardSize, winLength);
+            }
+        }
         printInstructions();
         
-        Scanner scanner = new Scanner(System.in);
-        
+        try {
+            input = ConsoleInput.open(inputBackend, INPUT_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            System.err.println("无法使用输入后端 " + inputBackend + ": " + e.getMessage() + "，改为按行读取");
+            input = ConsoleInput.open(ConsoleInput.LINE, INPUT_TIMEOUT_MILLIS);
+        }
+        try {
+            play();
+        } finally {
+            input.close();
+        }
+    }
+    
+    private static void play() {
         while (!gameOver) {
+            if (computerMove()) continue;
             printBoard();
             System.out.println("当前玩家: " + currentPlayer);
             System.out.println("使用方向键移动光标，空格键落子，Q退出");
             
             try {
-                int input = getInput();
-                
-                switch (input) {
-                    case 65: // 上箭头
-                        moveCursor(0, -1);
-                        break;
-                    case 66: // 下箭头
-                        moveCursor(0, 1);
-                        break;
-                    case 67: // 右箭头
-                        moveCursor(1, 0);
-                        break;
-                    case 68: // 左箭头
-                        moveCursor(-1, 0);
-                        break;
-                    case 32: // 空格
-                        makeMove();
-                        break;
-                    case 81: // Q
-                    case 113: // q
-                        System.out.println("游戏结束！");
-                        return;
-                    default:
-                        System.out.println("无效输入！使用方向键移动，空格落子");
-                }
-                
-                checkGameStatus();
-                
+                // 一次读到的多个按键依次处理，只在用完后才重画棋盘
+                do {
+                    int key = getInput();
+                    switch (key) {
+                        case KeyDecoder.UP:
+                            moveCursor(0, -1);
+                            break;
+                        case KeyDecoder.DOWN:
+                            moveCursor(0, 1);
+                            break;
+                        case KeyDecoder.RIGHT:
+                            moveCursor(1, 0);
+                            break;
+                        case KeyDecoder.LEFT:
+                            moveCursor(-1, 0);
+                            break;
+                        case ' ':
+                            makeMove();
+                            break;
+                        case 'Q':
+                        case 'q':
+                        case 3: // Ctrl+C，原始模式下不再产生信号
+                        case END_OF_INPUT:
+                            System.out.println("游戏结束！");
+                            return;
+                        case '\r':
+                        case '\n':
+                            // 按行读取时的回车
+                            break;
+                        default:
+                            System.out.println("无效输入！使用方向键移动，空格落子");
+                    }
+                } while (keyIndex < keyCount && !gameOver && !isComputerTurn());
             } catch (IOException e) {
                 System.out.println("输入错误，请重试");
             }
@@ -63,19 +162,94 @@ public class TicTacToe {
         } else {
             System.out.println("平局！");
         }
-        scanner.close();
     }
     
-    private static void initializeBoard() {
-        for (int i = 0; i < BOARD_SIZE; i++) {
-            for (int j = 0; j < BOARD_SIZE; j++) {
-                board[i][j] = ' ';
-            }
+    static void initializeBoard() {
+        if (board.size() != boardSize || board.k() != winLength) {
+            board = new Board(boardSize, winLength);
+        } else {
+            board.reset();
+        }
+        ultimateBoard.reset();
+        cursorX = 0;
+        cursorY = 0;
+        currentPlayer = SYMBOLS[board.toMove()];
+        gameOver = false;
+        winner = ' ';
+    }
+    
+    // 轮到电脑时搜索并落子，返回是否走了一步
+    private static boolean computerMove() {
+        if (!isComputerTurn()) return false;
+        int move;
+        if (ultimate) {
+            printBoard();
+            System.out.println("电脑 (" + SYMBOLS[aiSide] + ") 思考中...");
+            UltimateMCTS.Result result = mcts.search(ultimateBoard, thinkMillis);
+            ultimateBoard.apply(result.move);
+            cursorX = UltimateBoard.xOf(result.move);
+            cursorY = UltimateBoard.yOf(result.move);
+            aiReport = "电脑: " + result;
+            checkGameStatus();
+            switchPlayer();
+            return true;
+        } else if (tablebase != null) {
+            move = tablebase.bestMove(board);
+            aiReport = "电脑: 残局库 " + describe(tablebase.probe(board));
+        } else {
+            printBoard();
+            System.out.println("电脑 (" + SYMBOLS[aiSide] + ") 思考中...");
+            TicTacToeAI.Result result = ai.search(board, thinkMillis);
+            move = result.move;
+            aiReport = "电脑: " + result;
+        }
+        board.apply(move);
+        cursorX = move % boardSize;
+        cursorY = move / boardSize;
+        checkGameStatus();
+        switchPlayer();
+        return true;
+    }
+    
+    // 残局库表项的文字说明，站在电脑一方
+    private static String describe(int entry) {
+        int distance = TicTacToeTablebase.distance(entry);
+        switch (TicTacToeTablebase.value(entry)) {
+            case TicTacToeTablebase.WIN:
+                return "必胜，" + distance + " 步内获胜";
+            case TicTacToeTablebase.LOSS:
+                return "必败，最多再撑 " + distance + " 步";
+            default:
+                return "和棋";
         }
     }
     
+    // 3×3、4×4 下满一行才算赢，再大的棋盘默认五子连线
+    static int defaultWinLength(int size) {
+        return Math.min(size, size <= 4 ? size : 5);
+    }
+    
+    private static boolean isComputerTurn() {
+        return aiSide != Board.NONE && toMove() == aiSide;
+    }
+    
+    // 轮到哪一方
+    private static int toMove() {
+        return ultimate ? ultimateBoard.toMove() : board.toMove();
+    }
+    
+    private static char symbolAt(int x, int y) {
+        int stone = ultimate ? ultimateBoard.stone(UltimateBoard.cellOf(x, y)) : board.stone(board.cellOf(x, y));
+        return stone == Board.NONE ? ' ' : SYMBOLS[stone];
+    }
+    
     private static void printInstructions() {
-        System.out.println("=== 三子棋游戏 ===");
+        if (ultimate) {
+            System.out.println("=== 超级井字棋：赢下小棋盘占据大棋盘的一格，大棋盘连成一线获胜 ===");
+            System.out.println("上一步落在小棋盘的哪个位置，下一步就必须下在对应的小棋盘（· 标出可以落子的格子）");
+        } else {
+            System.out.println("=== " + boardSize + "×" + boardSize + " 棋盘，" + winLength + " 子连线获胜 ===");
+        }
         System.out.println("控制方式:");
         System.out.println("↑↓←→ 方向键 - 移动光标");
         System.out.println("空格键 - 落子");
@@ -85,27 +259,118 @@ public class TicTacToe {
     
     private static void printBoard() {
         clearConsole();
+        if (ultimate) {
+            StringBuilder out = new StringBuilder();
+            appendUltimateBoard(out);
+            if (!aiReport.isEmpty()) {
+                out.append(aiReport).append('\n');
+            }
+            System.out.print(out);
+            return;
+        }
         
-        System.out.println("\n   0   1   2");
-        System.out.println("  ┌───┬───┬───┐");
+        // 行号的宽度，棋盘超过 10 行时是两位数
+        int label = String.valueOf(boardSize - 1).length();
+        StringBuilder out = new StringBuilder();
+        out.append('\n').append(repeat(' ', label + 2));
+        for (int j = 0; j < boardSize; j++) {
+            String column = String.valueOf(j);
+            out.append(' ').append(column).append(repeat(' ', 3 - column.length()));
+        }
+        out.append('\n');
+        appendBorder(out, label, '┌', '┬', '┐');
         
-        for (int i = 0; i < BOARD_SIZE; i++) {
-            System.out.print(i + " │");
-            for (int j = 0; j < BOARD_SIZE; j++) {
+        for (int i = 0; i < boardSize; i++) {
+            String row = String.valueOf(i);
+            out.append(repeat(' ', label - row.length())).append(row).append(" │");
+            for (int j = 0; j < boardSize; j++) {
                 if (i == cursorY && j == cursorX) {
                     // 光标位置，用[]突出显示
-                    System.out.print("[" + board[i][j] + "]│");
+                    out.append('[').append(symbolAt(j, i)).append("]│");
                 } else {
-                    System.out.print(" " + board[i][j] + " │");
+                    out.append(' ').append(symbolAt(j, i)).append(" │");
                 }
             }
+            out.append('\n');
             
-            if (i < BOARD_SIZE - 1) {
-                System.out.println("\n  ├───┼───┼───┤");
+            if (i < boardSize - 1) {
+                appendBorder(out, label, '├', '┼', '┤');
             }
         }
         
-        System.out.println("\n  └───┴───┴───┘");
+        appendBorder(out, label, '└', '┴', '┘');
+        if (!aiReport.isEmpty()) {
+            out.append(aiReport).append('\n');
+        }
+        System.out.print(out);
+    }
+    
+    // 超级井字棋的 9×9 棋盘，粗线分隔小棋盘，下面列出各小棋盘的结果
+    private static void appendUltimateBoard(StringBuilder out) {
+        out.append("\n   ");
+        for (int j = 0; j < UltimateBoard.SIZE; j++) {
+            out.append(' ').append(j).append("  ");
+        }
+        out.append('\n');
+        appendUltimateBorder(out, '┏', '━', '┯', '┳', '┓');
+        for (int i = 0; i < UltimateBoard.SIZE; i++) {
+            out.append(i).append(" ┃");
+            for (int j = 0; j < UltimateBoard.SIZE; j++) {
+                int cell = UltimateBoard.cellOf(j, i);
+                char symbol = symbolAt(j, i);
+                if (symbol == ' ' && ultimateBoard.isLegal(cell)) {
+                    symbol = '·';
+                }
+                if (i == cursorY && j == cursorX) {
+                    out.append('[').append(symbol).append(']');
+                } else {
+                    out.append(' ').append(symbol).append(' ');
+                }
+                out.append(j % 3 == 2 ? '┃' : '│');
+            }
+            out.append('\n');
+            if (i == UltimateBoard.SIZE - 1) {
+                appendUltimateBorder(out, '┗', '━', '┷', '┻', '┛');
+            } else if (i % 3 == 2) {
+                appendUltimateBorder(out, '┣', '━', '┿', '╋', '┫');
+            } else {
+                appendUltimateBorder(out, '┠', '─', '┼', '╂', '┨');
+            }
+        }
+        
+        StringBuilder decided = new StringBuilder();
+        for (int block = 0; block < 9; block++) {
+            int status = ultimateBoard.status(block);
+            if (status == Board.NONE) continue;
+            decided.append(" 第").append(block / 3).append("行第").append(block % 3).append("块=")
+                    .append(status == UltimateBoard.DRAWN ? "平" : String.valueOf(SYMBOLS[status]));
+        }
+        if (decided.length() > 0) {
+            out.append("小棋盘:").append(decided).append('\n');
+        }
+    }
+    
+    private static void appendUltimateBorder(StringBuilder out, char left, char line, char middle, char block, char right) {
+        out.append("  ").append(left);
+        for (int j = 0; j < UltimateBoard.SIZE; j++) {
+            out.append(line).append(line).append(line);
+            out.append(j == UltimateBoard.SIZE - 1 ? right : j % 3 == 2 ? block : middle);
+        }
+        out.append('\n');
+    }
+    
+    private static void appendBorder(StringBuilder out, int label, char left, char middle, char right) {
+        out.append(repeat(' ', label + 1)).append(left);
+        for (int j = 0; j < boardSize; j++) {
+            out.append("───").append(j < boardSize - 1 ? middle : right);
+        }
+        out.append('\n');
+    }
+    
+    private static String repeat(char c, int count) {
+        char[] chars = new char[Math.max(0, count)];
+        Arrays.fill(chars, c);
+        return new String(chars);
     }
     
     private static void clearConsole() {
@@ -124,94 +389,85 @@ public class TicTacToe {
         }
     }
     
+    /**
+     * 取下一个按键事件（字符或 KeyDecoder 的按键常量），输入结束时返回 END_OF_INPUT
+     * 一次读到的字节全部解码排队，快速输入或粘贴的按键不会丢失；
+     * 读取超时说明没有后续字节，这时才把单独的 ESC 当作 Esc 键
+     */
     private static int getInput() throws IOException {
-        // 这个方法需要读取单个字符输入
-        // 注意：在有些终端中可能需要调整
-        try {
-            int input = System.in.read();
-            // 清除输入缓冲区
-            while (System.in.available() > 0) {
-                System.in.read();
+        while (keyIndex == keyCount) {
+            int n;
+            try {
+                n = input.read(inputBytes);
+            } catch (IOException e) {
+                throw new IOException("读取输入失败", e);
             }
-            return input;
-        } catch (IOException e) {
-            throw new IOException("读取输入失败");
+            if (n < 0) return END_OF_INPUT;
+            keyIndex = 0;
+            keyCount = n == 0 ? decoder.flush(keys) : decoder.decode(inputBytes, 0, n, keys);
         }
+        return keys[keyIndex++];
     }
     
     private static void moveCursor(int deltaX, int deltaY) {
         int newX = cursorX + deltaX;
         int newY = cursorY + deltaY;
         
-        if (newX >= 0 && newX < BOARD_SIZE && newY >= 0 && newY < BOARD_SIZE) {
+        if (newX >= 0 && newX < boardSize && newY >= 0 && newY < boardSize) {
             cursorX = newX;
             cursorY = newY;
         }
     }
     
     private static void makeMove() {
-        if (board[cursorY][cursorX] == ' ') {
-            board[cursorY][cursorX] = currentPlayer;
+        if (ultimate) {
+            int cell = UltimateBoard.cellOf(cursorX, cursorY);
+            if (ultimateBoard.isLegal(cell)) {
+                ultimateBoard.apply(cell);
+                checkGameStatus();
+                switchPlayer();
+            } else {
+                System.out.println("这里不能落子！只能下在标 · 的格子");
+                pause();
+            }
+            return;
+        }
+        int cell = board.cellOf(cursorX, cursorY);
+        if (board.isEmpty(cell)) {
+            // 只有落子才可能结束游戏，移动光标不需要判断胜负
+            board.apply(cell);
+            checkGameStatus();
             switchPlayer();
         } else {
             System.out.println("该位置已有棋子！");
-            try {
-                Thread.sleep(1000); // 暂停1秒显示消息
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+            pause();
+        }
+    }
+    
+    private static void pause() {
+        try {
+            Thread.sleep(1000); // 暂停1秒显示消息
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
     
     private static void switchPlayer() {
-        currentPlayer = (currentPlayer == 'X') ? 'O' : 'X';
+        currentPlayer = SYMBOLS[toMove()];
     }
     
-    private static void checkGameStatus() {
-        // 检查行
-        for (int i = 0; i < BOARD_SIZE; i++) {
-            if (board[i][0] != ' ' && board[i][0] == board[i][1] && board[i][1] == board[i][2]) {
+    // 胜负在落子时已经只沿最后一步所在的线判断过，这里只读取结果
+    static void checkGameStatus() {
+        if (ultimate) {
+            if (ultimateBoard.isOver()) {
                 gameOver = true;
-                winner = board[i][0];
-                return;
+                winner = ultimateBoard.winner() == Board.NONE ? ' ' : SYMBOLS[ultimateBoard.winner()];
             }
-        }
-        
-        // 检查列
-        for (int j = 0; j < BOARD_SIZE; j++) {
-            if (board[0][j] != ' ' && board[0][j] == board[1][j] && board[1][j] == board[2][j]) {
-                gameOver = true;
-                winner = board[0][j];
-                return;
-            }
-        }
-        
-        // 检查对角线
-        if (board[0][0] != ' ' && board[0][0] == board[1][1] && board[1][1] == board[2][2]) {
-            gameOver = true;
-            winner = board[0][0];
             return;
         }
-        
-        if (board[0][2] != ' ' && board[0][2] == board[1][1] && board[1][1] == board[2][0]) {
-            gameOver = true;
-            winner = board[0][2];
-            return;
-        }
-        
-        // 检查平局
-        boolean isFull = true;
-        for (int i = 0; i < BOARD_SIZE; i++) {
-            for (int j = 0; j < BOARD_SIZE; j++) {
-                if (board[i][j] == ' ') {
-                    isFull = false;
-                    break;
-                }
-            }
-        }
-        
-        if (isFull) {
+        if (board.isOver()) {
             gameOver = true;
+            winner = board.winner() == Board.NONE ? ' ' : SYMBOLS[board.winner()];
         }
     }
     
@@ -224,6 +480,7 @@ public class TicTacToe {
         System.out.println("使用 WASD 移动，空格落子");
         
         while (!gameOver) {
+            if (computerMove()) continue;
             printBoard();
             System.out.println("当前玩家: " + currentPlayer);
             System.out.print("输入命令 (WASD移动, 空格落子, Q退出): ");
@@ -251,8 +508,6 @@ public class TicTacToe {
                 default:
                     System.out.println("无效输入！使用WASD移动，空格落子");
             }
-            
-            checkGameStatus();
         }
         
         printBoard();
@@ -263,4 +518,438 @@ public class TicTacToe {
         }
         scanner.close();
     }
+    
+    /**
+     * N×N 棋盘上 K 子连线的对局核心（m,n,k 游戏）
+     * 双方的棋子各用一组 long 位图保存，第 y 行第 x 列对应第 y*N+x 位。
+     * apply() 只沿最后一步所在的四条线判断胜负，平局由落子计数判断；
+     * apply()/undo() 不分配对象，供搜索代码每秒调用上百万次。
+     */
+    public static final class Board {
+        public static final int X = 0;
+        public static final int O = 1;
+        public static final int NONE = -1;
+        
+        // 支持到 32×32，五子棋常用的 15×15、19×19 都在范围内
+        public static final int MAX_SIZE = 32;
+        
+        // 四个方向：横、竖、主对角线、副对角线
+        private static final int[] DX = {1, 0, 1, 1};
+        private static final int[] DY = {0, 1, 1, -1};
+        
+        private final int size;
+        private final int k;
+        private final int cells;
+        private final long[][] stones;
+        private final int[] history;
+        private int count;
+        private int winner = NONE;
+        
+        public Board(int size, int k) {
+            if (size < 1 || size > MAX_SIZE || k < 1 || k > size) {
+                throw new IllegalArgumentException("棋盘大小无效: " + size + "×" + size + "，" + k + " 子连线");
+            }
+            this.size = size;
+            this.k = k;
+            this.cells = size * size;
+            int words = (cells + 63) >>> 6;
+            this.stones = new long[][] {new long[words], new long[words]};
+            this.history = new int[cells];
+        }
+        
+        // 清空棋盘重新开始
+        public void reset() {
+            Arrays.fill(stones[X], 0L);
+            Arrays.fill(stones[O], 0L);
+            count = 0;
+            winner = NONE;
+        }
+        
+        // 复制另一个同样大小的棋盘的全部状态
+        public void copyFrom(Board other) {
+            if (other.size != size || other.k != k) {
+                throw new IllegalArgumentException("棋盘大小不同");
+            }
+            System.arraycopy(other.stones[X], 0, stones[X], 0, stones[X].length);
+            System.arraycopy(other.stones[O], 0, stones[O], 0, stones[O].length);
+            System.arraycopy(other.history, 0, history, 0, other.count);
+            count = other.count;
+            winner = other.winner;
+        }
+        
+        /**
+         * 当前一方在 cell 落子
+         * @return 这一步是否连成 K 子获胜
+         */
+        public boolean apply(int cell) {
+            if (winner != NONE || count == cells) {
+                throw new IllegalStateException("对局已经结束");
+            }
+            if (!isEmpty(cell)) {
+                throw new IllegalArgumentException("该位置已有棋子: " + cell);
+            }
+            long[] own = stones[count & 1];
+            own[cell >>> 6] |= 1L << cell;
+            history[count++] = cell;
+            if (count >= 2 * k - 1 && connects(own, cell)) {
+                winner = (count - 1) & 1;
+                return true;
+            }
+            return false;
+        }
+        
+        // 撤销最后一步
+        public void undo() {
+            if (count == 0) {
+                throw new IllegalStateException("没有可以撤销的落子");
+            }
+            int cell = history[--count];
+            stones[count & 1][cell >>> 6] &= ~(1L << cell);
+            winner = NONE;
+        }
+        
+        // 从 cell 出发沿四个方向数连续的己方棋子，凑够 K 个就停
+        private boolean connects(long[] own, int cell) {
+            int x = cell % size;
+            int y = cell / size;
+            for (int d = 0; d < 4; d++) {
+                int dx = DX[d];
+                int dy = DY[d];
+                int run = 1;
+                for (int i = x + dx, j = y + dy; run < k && i >= 0 && i < size && j >= 0 && j < size; i += dx, j += dy) {
+                    if (!has(own, j * size + i)) break;
+                    run++;
+                }
+                for (int i = x - dx, j = y - dy; run < k && i >= 0 && i < size && j >= 0 && j < size; i -= dx, j -= dy) {
+                    if (!has(own, j * size + i)) break;
+                    run++;
+                }
+                if (run >= k) return true;
+            }
+            return false;
+        }
+        
+        private static boolean has(long[] bits, int cell) {
+            return (bits[cell >>> 6] & (1L << cell)) != 0;
+        }
+        
+        /**
+         * 把所有空位写入 moves，按格子编号从小到大
+         * @return 空位个数，对局结束时返回 0
+         */
+        public int legalMoves(int[] moves) {
+            if (isOver()) return 0;
+            long[] x = stones[X];
+            long[] o = stones[O];
+            int n = 0;
+            for (int w = 0; w < x.length; w++) {
+                long empty = ~(x[w] | o[w]);
+                if (w == x.length - 1 && (cells & 63) != 0) {
+                    empty &= (1L << cells) - 1;
+                }
+                while (empty != 0) {
+                    moves[n++] = (w << 6) + Long.numberOfTrailingZeros(empty);
+                    empty &= empty - 1;
+                }
+            }
+            return n;
+        }
+        
+        public int cellOf(int x, int y) {
+            return y * size + x;
+        }
+        
+        public boolean isEmpty(int cell) {
+            return !has(stones[X], cell) && !has(stones[O], cell);
+        }
+        
+        // 格子上的棋子：X、O 或 NONE
+        public int stone(int cell) {
+            if (has(stones[X], cell)) return X;
+            if (has(stones[O], cell)) return O;
+            return NONE;
+        }
+        
+        // 一方棋子位图的第 word 个 long
+        public long bits(int player, int word) {
+            return stones[player][word];
+        }
+        
+        public int words() {
+            return stones[X].length;
+        }
+        
+        public int size() {
+            return size;
+        }
+        
+        public int k() {
+            return k;
+        }
+        
+        public int cells() {
+            return cells;
+        }
+        
+        // 已经落下的棋子数
+        public int moveCount() {
+            return count;
+        }
+        
+        // 第 i 步落在哪一格
+        public int moveAt(int i) {
+            return history[i];
+        }
+        
+        // 轮到谁落子，X 先手
+        public int toMove() {
+            return count & 1;
+        }
+        
+        public int winner() {
+            return winner;
+        }
+        
+        public boolean isOver() {
+            return winner != NONE || count == cells;
+        }
+        
+        public boolean isDraw() {
+            return winner == NONE && count == cells;
+        }
+    }
+    
+    /**
+     * 超级井字棋（Ultimate TicTacToe）的对局核心
+     * 9 个小棋盘排成 3×3，格子编号为 小棋盘*9 + 小棋盘内的位置，每个小棋盘用一个 9 位掩码保存双方棋子。
+     * 上一步下在小棋盘内的哪个位置，下一步就必须下在对应的小棋盘；那块已经分出结果时可以任选。
+     * 赢下小棋盘的一方在大棋盘上占据那一格，大棋盘连成一线获胜；所有小棋盘都分出结果仍无人连线为平局。
+     * 和 Board 一样，apply()/undo()/randomMove() 不分配对象，供 MCTS 的模拟使用。
+     */
+    public static final class UltimateBoard {
+        public static final int SIZE = 9;
+        public static final int CELLS = 81;
+        // 小棋盘的状态：X、O 赢下，或者下满平局
+        public static final int DRAWN = 2;
+        
+        private static final int FULL = 0x1FF;
+        // 9 位掩码里是否有一条连线
+        private static final boolean[] LINE = new boolean[FULL + 1];
+        
+        static {
+            int[] lines = {0x007, 0x038, 0x1C0, 0x049, 0x092, 0x124, 0x111, 0x054};
+            for (int mask = 0; mask <= FULL; mask++) {
+                for (int line : lines) {
+                    if ((mask & line) == line) {
+                        LINE[mask] = true;
+                        break;
+                    }
+                }
+            }
+        }
+        
+        private final int[][] stones = new int[2][9];
+        private final int[] status = new int[9];
+        // 双方赢下的小棋盘，以及所有已经分出结果的小棋盘
+        private final int[] macro = new int[2];
+        private int closed;
+        // 必须落子的小棋盘，-1 表示任选
+        private int forced = -1;
+        private final int[] history = new int[CELLS];
+        private final int[] forcedHistory = new int[CELLS];
+        private int count;
+        private int winner = Board.NONE;
+        
+        public UltimateBoard() {
+            Arrays.fill(status, Board.NONE);
+        }
+        
+        /**
+         * 一方在一块 3×3 棋盘上的棋子（9 位掩码，第 i 位是第 i 格）是否已经连成一线
+         */
+        static boolean hasLine(int stones) {
+            return LINE[stones & FULL];
+        }
+        
+        public void reset() {
+            Arrays.fill(stones[Board.X], 0);
+            Arrays.fill(stones[Board.O], 0);
+            Arrays.fill(status, Board.NONE);
+            macro[Board.X] = 0;
+            macro[Board.O] = 0;
+            closed = 0;
+            forced = -1;
+            count = 0;
+            winner = Board.NONE;
+        }
+        
+        public void copyFrom(UltimateBoard other) {
+            System.arraycopy(other.stones[Board.X], 0, stones[Board.X], 0, 9);
+            System.arraycopy(other.stones[Board.O], 0, stones[Board.O], 0, 9);
+            System.arraycopy(other.status, 0, status, 0, 9);
+            System.arraycopy(other.history, 0, history, 0, other.count);
+            System.arraycopy(other.forcedHistory, 0, forcedHistory, 0, other.count);
+            macro[Board.X] = other.macro[Board.X];
+            macro[Board.O] = other.macro[Board.O];
+            closed = other.closed;
+            forced = other.forced;
+            count = other.count;
+            winner = other.winner;
+        }
+        
+        /**
+         * 当前一方在 cell 落子
+         * @return 这一步是否赢得整局
+         */
+        public boolean apply(int cell) {
+            if (!isLegal(cell)) {
+                throw new IllegalArgumentException("这里不能落子: " + cell);
+            }
+            int player = count & 1;
+            int block = cell / 9;
+            int own = stones[player][block] |= 1 << (cell % 9);
+            if (LINE[own]) {
+                status[block] = player;
+                macro[player] |= 1 << block;
+                closed |= 1 << block;
+                if (LINE[macro[player]]) {
+                    winner = player;
+                }
+            } else if ((own | stones[player ^ 1][block]) == FULL) {
+                status[block] = DRAWN;
+                closed |= 1 << block;
+            }
+            forcedHistory[count] = forced;
+            history[count++] = cell;
+            int next = cell % 9;
+            forced = (closed & (1 << next)) != 0 ? -1 : next;
+            return winner != Board.NONE;
+        }
+        
+        // 撤销最后一步，被撤销的棋子所在的小棋盘在落子前一定还没分出结果
+        public void undo() {
+            if (count == 0) {
+                throw new IllegalStateException("没有可以撤销的落子");
+            }
+            int cell = history[--count];
+            int block = cell / 9;
+            stones[count & 1][block] &= ~(1 << (cell % 9));
+            status[block] = Board.NONE;
+            macro[Board.X] &= ~(1 << block);
+            macro[Board.O] &= ~(1 << block);
+            closed &= ~(1 << block);
+            forced = forcedHistory[count];
+            winner = Board.NONE;
+        }
+        
+        public boolean isLegal(int cell) {
+            if (cell < 0 || cell >= CELLS || isOver()) return false;
+            int block = cell / 9;
+            return status[block] == Board.NONE && (forced < 0 || forced == block) && stone(cell) == Board.NONE;
+        }
+        
+        /**
+         * 把所有合法落子写入 moves
+         * @return 合法落子个数，对局结束时返回 0
+         */
+        public int legalMoves(int[] moves) {
+            if (isOver()) return 0;
+            int n = 0;
+            for (int block = 0; block < 9; block++) {
+                if ((forced >= 0 && block != forced) || (closed & (1 << block)) != 0) continue;
+                int empty = ~(stones[Board.X][block] | stones[Board.O][block]) & FULL;
+                while (empty != 0) {
+                    moves[n++] = block * 9 + Integer.numberOfTrailingZeros(empty);
+                    empty &= empty - 1;
+                }
+            }
+            return n;
+        }
+        
+        /**
+         * 按 random 均匀地选一个合法落子，不生成着法列表，供随机模拟使用
+         * @param random 任意 int，用它的 32 位按比例选择
+         */
+        public int randomMove(int random) {
+            int total = 0;
+            for (int block = 0; block < 9; block++) {
+                if (playable(block)) {
+                    total += Integer.bitCount(~(stones[Board.X][block] | stones[Board.O][block]) & FULL);
+                }
+            }
+            int pick = (int) (((random & 0xFFFFFFFFL) * total) >>> 32);
+            for (int block = 0; block < 9; block++) {
+                if (!playable(block)) continue;
+                int empty = ~(stones[Board.X][block] | stones[Board.O][block]) & FULL;
+                int n = Integer.bitCount(empty);
+                if (pick < n) {
+                    for (; pick > 0; pick--) {
+                        empty &= empty - 1;
+                    }
+                    return block * 9 + Integer.numberOfTrailingZeros(empty);
+                }
+                pick -= n;
+            }
+            throw new IllegalStateException("对局已经结束");
+        }
+        
+        private boolean playable(int block) {
+            return (forced < 0 || block == forced) && (closed & (1 << block)) == 0;
+        }
+        
+        // 屏幕坐标（0~8）和格子编号互相转换
+        public static int cellOf(int x, int y) {
+            return (y / 3 * 3 + x / 3) * 9 + y % 3 * 3 + x % 3;
+        }
+        
+        public static int xOf(int cell) {
+            return cell / 9 % 3 * 3 + cell % 3;
+        }
+        
+        public static int yOf(int cell) {
+            return cell / 27 * 3 + cell % 9 / 3;
+        }
+        
+        // 格子上的棋子：X、O 或 NONE
+        public int stone(int cell) {
+            int bit = 1 << (cell % 9);
+            if ((stones[Board.X][cell / 9] & bit) != 0) return Board.X;
+            if ((stones[Board.O][cell / 9] & bit) != 0) return Board.O;
+            return Board.NONE;
+        }
+        
+        // 小棋盘的结果：X、O、DRAWN，或者 NONE 表示还在进行
+        public int status(int block) {
+            return status[block];
+        }
+        
+        // 下一步必须落子的小棋盘，-1 表示任选
+        public int forced() {
+            return isOver() ? -1 : forced;
+        }
+        
+        public int moveCount() {
+            return count;
+        }
+        
+        public int moveAt(int i) {
+            return history[i];
+        }
+        
+        public int toMove() {
+            return count & 1;
+        }
+        
+        public int winner() {
+            return winner;
+        }
+        
+        public boolean isOver() {
+            return winner != Board.NONE || closed == FULL;
+        }
+        
+        public boolean isDraw() {
+            return winner == Board.NONE && closed == FULL;
+        }
+    }
 }
\ No newline at end of file
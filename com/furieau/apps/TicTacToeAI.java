@@ -0,0 +1,636 @@
+package com.furieau.apps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TicTacToe 的电脑棋手：迭代加深的 alpha-beta 搜索
+ * - 置换表：Zobrist 哈希，固定大小，每个桶两格（一格按深度保留，一格总是覆盖），无锁读写
+ * - 对称归一：同时维护 8 种旋转翻转下的哈希，取最小的作为键，对称的局面共用表项
+ * - 着法排序：置换表着法、杀手着法、历史启发
+ * - 根节点并行：第一个着法先搜得到下界，其余着法分给 ForkJoinPool，共享同一个置换表
+ * 3×3 在第一次调用时就搜到终局，大棋盘在给定的时间内尽量加深，只考虑已有棋子附近的空位。
+ */
+public final class TicTacToeAI {
+    static final int INFINITY = 1 << 30;
+    // 获胜分数减去步数，越快获胜分越高
+    static final int WIN = 1 << 24;
+    private static final int MATE_BOUND = WIN - TicTacToe.Board.MAX_SIZE * TicTacToe.Board.MAX_SIZE;
+    
+    // 置换表项的边界类型
+    private static final int EXACT = 0;
+    private static final int LOWER = 1;
+    private static final int UPPER = 2;
+    private static final int NO_MOVE = 0x7FF;
+    
+    // 大棋盘只搜索距离已有棋子不超过 NEAR 格的空位
+    private static final int NEAR = 2;
+    private static final int ALL_MOVES_CELLS = 25;
+    
+    private final int size;
+    private final int k;
+    private final int cells;
+    private final long[][] zobrist;
+    private final int[][] symmetry;
+    private final int[][] inverse;
+    private final int[][] cellWindows;
+    private final int windows;
+    private final int[] weight;
+    private final long[] keys;
+    private final long[] data;
+    private final int bucketMask;
+    private final ForkJoinPool pool;
+    private final ThreadLocal<Worker> local = ThreadLocal.withInitial(this::newWorker);
+    private final List<Worker> workers = new ArrayList<>();
+    // 生成根节点着法用的搜索状态，第一次搜索时创建，之后每步棋 load() 复用
+    private Worker root;
+    private int age;
+    private volatile boolean stop;
+    private volatile long deadline;
+    
+    /**
+     * @param tableBits 置换表共 2^tableBits 项，每项 16 字节
+     * @param threads 根节点并行的线程数
+     */
+    public TicTacToeAI(int size, int k, int tableBits, int threads) {
+        // 借用 Board 的构造函数检查棋盘参数
+        new TicTacToe.Board(size, k);
+        if (tableBits < 1 || tableBits > 30) {
+            throw new IllegalArgumentException("置换表大小无效: 2^" + tableBits);
+        }
+        this.size = size;
+        this.k = k;
+        this.cells = size * size;
+        
+        SplittableRandom random = new SplittableRandom(0x5DEECE66DL);
+        zobrist = new long[2][cells];
+        for (int p = 0; p < 2; p++) {
+            for (int c = 0; c < cells; c++) {
+                zobrist[p][c] = random.nextLong();
+            }
+        }
+        
+        // 正方形的 8 种对称：恒等、三种旋转、两种翻转、两条对角线
+        symmetry = new int[8][cells];
+        inverse = new int[8][cells];
+        for (int c = 0; c < cells; c++) {
+            int x = c % size;
+            int y = c / size;
+            int m = size - 1;
+            int[] mapped = {
+                c, (m - y) + x * size, (m - x) + (m - y) * size, y + (m - x) * size,
+                (m - x) + y * size, x + (m - y) * size, y + x * size, (m - y) + (m - x) * size
+            };
+            for (int s = 0; s < 8; s++) {
+                symmetry[s][c] = mapped[s];
+                inverse[s][mapped[s]] = c;
+            }
+        }
+        
+        // 所有长度为 K 的连线窗口，以及每个格子属于哪些窗口
+        int[] dx = {1, 0, 1, 1};
+        int[] dy = {0, 1, 1, -1};
+        List<int[]> lines = new ArrayList<>();
+        for (int d = 0; d < 4; d++) {
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    int ex = x + dx[d] * (k - 1);
+                    int ey = y + dy[d] * (k - 1);
+                    if (ex < 0 || ex >= size || ey < 0 || ey >= size) continue;
+                    int[] line = new int[k];
+                    for (int i = 0; i < k; i++) {
+                        line[i] = (y + dy[d] * i) * size + x + dx[d] * i;
+                    }
+                    lines.add(line);
+                }
+            }
+        }
+        windows = lines.size();
+        int[] perCell = new int[cells];
+        for (int[] line : lines) {
+            for (int c : line) perCell[c]++;
+        }
+        cellWindows = new int[cells][];
+        for (int c = 0; c < cells; c++) {
+            cellWindows[c] = new int[perCell[c]];
+            perCell[c] = 0;
+        }
+        for (int w = 0; w < windows; w++) {
+            for (int c : lines.get(w)) {
+                cellWindows[c][perCell[c]++] = w;
+            }
+        }
+        
+        // 窗口里只有一方的 n 颗棋子时价值 4^n，封顶避免大 K 溢出
+        weight = new int[k + 1];
+        for (int n = 1; n <= k; n++) {
+            weight[n] = (int) Math.min(1L << (2 * n), 1 << 20);
+        }
+        
+        keys = new long[1 << tableBits];
+        data = new long[1 << tableBits];
+        bucketMask = (1 << (tableBits - 1)) - 1;
+        pool = new ForkJoinPool(Math.max(1, threads));
+    }
+    
+    public TicTacToeAI(int size, int k) {
+        this(size, k, 20, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * 搜索的结果和统计
+     */
+    public static final class Result {
+        public final int move;
+        public final int score;
+        public final int depth;
+        public final boolean solved;
+        public final long nodes;
+        public final long nanos;
+        public final long probes;
+        public final long hits;
+        
+        Result(int move, int score, int depth, boolean solved, long nodes, long nanos, long probes, long hits) {
+            this.move = move;
+            this.score = score;
+            this.depth = depth;
+            this.solved = solved;
+            this.nodes = nodes;
+            this.nanos = nanos;
+            this.probes = probes;
+            this.hits = hits;
+        }
+        
+        public double nodesPerSecond() {
+            return nanos == 0 ? 0 : nodes * 1e9 / nanos;
+        }
+        
+        public double hitRate() {
+            return probes == 0 ? 0 : (double) hits / probes;
+        }
+        
+        @Override
+        public String toString() {
+            String value;
+            if (score >= MATE_BOUND) {
+                value = (WIN - score) + " 步内必胜";
+            } else if (score <= -MATE_BOUND) {
+                value = (WIN + score) + " 步内必败";
+            } else {
+                value = solved ? "和棋" : "评分 " + score;
+            }
+            return String.format("深度 %d，%s，%d 节点，%.0f 节点/秒，置换表命中率 %.1f%%",
+                    depth, value, nodes, nodesPerSecond(), hitRate() * 100);
+        }
+    }
+    
+    /**
+     * 为当前轮到的一方找一步棋，最多用 millis 毫秒
+     * 至少完成深度 1 的搜索，所以总能给出一步合法的棋
+     */
+    public Result search(TicTacToe.Board board, long millis) {
+        if (board.size() != size || board.k() != k) {
+            throw new IllegalArgumentException("棋盘大小与 AI 不一致");
+        }
+        if (board.isOver()) {
+            throw new IllegalStateException("对局已经结束");
+        }
+        long start = System.nanoTime();
+        deadline = start + millis * 1_000_000L;
+        stop = false;
+        age = (age + 1) & 0xFF;
+        long nodes0 = 0;
+        long probes0 = 0;
+        long hits0 = 0;
+        synchronized (workers) {
+            for (Worker w : workers) {
+                nodes0 += w.nodes;
+                probes0 += w.probes;
+                hits0 += w.hits;
+            }
+        }
+        
+        // 根节点着法：对称的着法只保留一个
+        if (root == null) {
+            root = new Worker();
+        }
+        root.load(board);
+        int[] moves = root.rootMoves();
+        int count = moves.length;
+        int[] scores = new int[count];
+        int bestMove = moves[0];
+        int bestScore = -INFINITY;
+        int depth = 0;
+        boolean solved = false;
+        int empties = cells - board.moveCount();
+        
+        for (int d = 1; d <= empties; d++) {
+            RootSearch task = new RootSearch(board, moves, scores, d);
+            pool.invoke(task);
+            if (task.completed == 0) break;
+            // 没搜完的迭代也可以用已经搜完的着法里最好的一个
+            bestMove = task.bestMove;
+            bestScore = task.alpha.get();
+            depth = d;
+            if (task.completed < count) break;
+            // 按本轮分数排序，下一轮先搜最好的着法
+            sortByScore(moves, scores);
+            if (d == empties || Math.abs(bestScore) >= MATE_BOUND) {
+                solved = true;
+                break;
+            }
+            // 剩余时间不够再搜一轮时提前结束
+            if ((System.nanoTime() - start) * 3 > millis * 1_000_000L) break;
+        }
+        
+        long nodes = -nodes0;
+        long probes = -probes0;
+        long hits = -hits0;
+        synchronized (workers) {
+            for (Worker w : workers) {
+                nodes += w.nodes;
+                probes += w.probes;
+                hits += w.hits;
+            }
+        }
+        return new Result(bestMove, bestScore, depth, solved, nodes, System.nanoTime() - start, probes, hits);
+    }
+    
+    // 清空置换表和历史启发
+    public void clear() {
+        Arrays.fill(keys, 0L);
+        Arrays.fill(data, 0L);
+        synchronized (workers) {
+            for (Worker w : workers) {
+                Arrays.fill(w.history, 0);
+            }
+        }
+    }
+    
+    private static void sortByScore(int[] moves, int[] scores) {
+        // 着法不多，插入排序即可，分数从高到低
+        for (int i = 1; i < moves.length; i++) {
+            int m = moves[i];
+            int s = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < s) {
+                moves[j + 1] = moves[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            moves[j + 1] = m;
+            scores[j + 1] = s;
+        }
+    }
+    
+    private Worker newWorker() {
+        Worker worker = new Worker();
+        synchronized (workers) {
+            workers.add(worker);
+        }
+        return worker;
+    }
+    
+    /**
+     * 一轮迭代的根节点：第一个着法在当前线程搜索，得到的下界再交给其余着法并行使用
+     */
+    private final class RootSearch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        final TicTacToe.Board board;
+        final int[] moves;
+        final int[] scores;
+        final int depth;
+        final AtomicInteger alpha = new AtomicInteger(-INFINITY);
+        volatile int bestMove = -1;
+        volatile int completed;
+        
+        RootSearch(TicTacToe.Board board, int[] moves, int[] scores, int depth) {
+            this.board = board;
+            this.moves = moves;
+            this.scores = scores;
+            this.depth = depth;
+            Arrays.fill(scores, -INFINITY);
+        }
+        
+        @Override
+        protected void compute() {
+            searchMove(0);
+            if (stop) return;
+            List<ForkJoinTask<?>> rest = new ArrayList<>(moves.length - 1);
+            for (int i = 1; i < moves.length; i++) {
+                int index = i;
+                rest.add(ForkJoinTask.adapt(() -> searchMove(index)));
+            }
+            ForkJoinTask.invokeAll(rest);
+        }
+        
+        private void searchMove(int index) {
+            Worker worker = local.get();
+            worker.load(board);
+            int move = moves[index];
+            int score;
+            if (worker.apply(move)) {
+                score = WIN - 1;
+            } else if (worker.board.isOver()) {
+                score = 0;
+            } else {
+                // 根节点的上界是无穷大，所以比 alpha 好的分数都是准确值
+                score = -worker.search(depth - 1, -INFINITY, -alpha.get(), 1);
+            }
+            worker.undo();
+            if (stop) return;
+            scores[index] = score;
+            synchronized (this) {
+                completed++;
+                if (score > alpha.get() || bestMove < 0) {
+                    alpha.set(Math.max(score, alpha.get()));
+                    bestMove = move;
+                }
+            }
+        }
+    }
+    
+    /**
+     * 每个线程自己的搜索状态：棋盘副本、8 个对称哈希、窗口计数和静态评分
+     */
+    private final class Worker {
+        final TicTacToe.Board board = new TicTacToe.Board(size, k);
+        final long[] hash = new long[8];
+        final byte[][] counts = new byte[2][windows];
+        final int[] near = new int[cells];
+        final int[] history = new int[cells];
+        final int[][] killers = new int[cells + 1][2];
+        final int[][] moveLists = new int[cells + 1][cells];
+        final int[][] moveScores = new int[cells + 1][cells];
+        int score;
+        long nodes;
+        long probes;
+        long hits;
+        
+        // 从根局面重建所有增量状态
+        void load(TicTacToe.Board root) {
+            board.reset();
+            Arrays.fill(hash, 0L);
+            Arrays.fill(counts[0], (byte) 0);
+            Arrays.fill(counts[1], (byte) 0);
+            Arrays.fill(near, 0);
+            score = 0;
+            for (int i = 0; i < root.moveCount(); i++) {
+                apply(root.moveAt(i));
+            }
+        }
+        
+        // 落子并更新哈希、评分和邻近计数，返回是否获胜
+        boolean apply(int cell) {
+            int side = board.toMove();
+            boolean won = board.apply(cell);
+            long[] z = zobrist[side];
+            for (int s = 0; s < 8; s++) {
+                hash[s] ^= z[symmetry[s][cell]];
+            }
+            byte[] own = counts[side];
+            byte[] other = counts[side ^ 1];
+            int sign = side == TicTacToe.Board.X ? 1 : -1;
+            for (int w : cellWindows[cell]) {
+                int o = other[w];
+                int n = own[w]++;
+                if (o == 0) {
+                    // 这个窗口只有己方的棋子，价值上升
+                    score += sign * (weight[n + 1] - weight[n]);
+                } else if (n == 0) {
+                    // 对方的窗口被堵死
+                    score += sign * weight[o];
+                }
+            }
+            touchNear(cell, 1);
+            return won;
+        }
+        
+        void undo() {
+            int cell = board.moveAt(board.moveCount() - 1);
+            board.undo();
+            int side = board.toMove();
+            long[] z = zobrist[side];
+            for (int s = 0; s < 8; s++) {
+                hash[s] ^= z[symmetry[s][cell]];
+            }
+            byte[] own = counts[side];
+            byte[] other = counts[side ^ 1];
+            int sign = side == TicTacToe.Board.X ? 1 : -1;
+            for (int w : cellWindows[cell]) {
+                int o = other[w];
+                int n = --own[w];
+                if (o == 0) {
+                    score -= sign * (weight[n + 1] - weight[n]);
+                } else if (n == 0) {
+                    score -= sign * weight[o];
+                }
+            }
+            touchNear(cell, -1);
+        }
+        
+        private void touchNear(int cell, int delta) {
+            int x = cell % size;
+            int y = cell / size;
+            for (int j = Math.max(0, y - NEAR); j <= Math.min(size - 1, y + NEAR); j++) {
+                for (int i = Math.max(0, x - NEAR); i <= Math.min(size - 1, x + NEAR); i++) {
+                    near[j * size + i] += delta;
+                }
+            }
+        }
+        
+        // 站在轮到的一方看的静态评分
+        int evaluate() {
+            return board.toMove() == TicTacToe.Board.X ? score : -score;
+        }
+        
+        // 候选着法：小棋盘是全部空位，大棋盘只取已有棋子附近的空位，空棋盘下天元
+        int generate(int[] out) {
+            if (board.moveCount() == 0 && cells > ALL_MOVES_CELLS) {
+                out[0] = (size / 2) * size + size / 2;
+                return 1;
+            }
+            int n = board.legalMoves(out);
+            if (cells <= ALL_MOVES_CELLS) return n;
+            int m = 0;
+            for (int i = 0; i < n; i++) {
+                if (near[out[i]] > 0) out[m++] = out[i];
+            }
+            return m;
+        }
+        
+        // 根节点的着法，去掉落子后与前面某个着法对称的重复局面
+        int[] rootMoves() {
+            int[] moves = new int[cells];
+            int n = generate(moves);
+            long[] seen = new long[n];
+            int unique = 0;
+            for (int i = 0; i < n; i++) {
+                apply(moves[i]);
+                long key = canonical();
+                undo();
+                boolean duplicate = false;
+                for (int j = 0; j < unique; j++) {
+                    if (seen[j] == key) {
+                        duplicate = true;
+                        break;
+                    }
+                }
+                if (!duplicate) {
+                    seen[unique] = key;
+                    moves[unique++] = moves[i];
+                }
+            }
+            return Arrays.copyOf(moves, unique);
+        }
+        
+        // 8 个对称哈希中最小的一个所用的对称
+        int canonicalSymmetry() {
+            int best = 0;
+            for (int s = 1; s < 8; s++) {
+                if (hash[s] < hash[best]) best = s;
+            }
+            return best;
+        }
+        
+        long canonical() {
+            return hash[canonicalSymmetry()];
+        }
+        
+        int search(int depth, int alpha, int beta, int ply) {
+            if ((++nodes & 1023) == 0 && System.nanoTime() > deadline) {
+                stop = true;
+            }
+            if (stop) return 0;
+            if (depth == 0) return evaluate();
+            
+            // 查置换表
+            int sym = canonicalSymmetry();
+            long key = hash[sym];
+            int bucket = ((int) key & bucketMask) << 1;
+            int ttMove = -1;
+            probes++;
+            for (int slot = bucket; slot < bucket + 2; slot++) {
+                long entry = data[slot];
+                if ((keys[slot] ^ entry) != key) continue;
+                hits++;
+                int stored = (int) (entry & NO_MOVE);
+                if (stored != NO_MOVE) ttMove = inverse[sym][stored];
+                int entryDepth = (int) (entry >>> 11) & 0xFF;
+                if (entryDepth >= depth) {
+                    int flag = (int) (entry >>> 19) & 3;
+                    int value = fromTable((int) (entry >>> 32), ply);
+                    if (flag == EXACT
+                            || (flag == LOWER && value >= beta)
+                            || (flag == UPPER && value <= alpha)) {
+                        return value;
+                    }
+                }
+                break;
+            }
+            
+            int[] moves = moveLists[ply];
+            int n = generate(moves);
+            order(moves, n, ply, ttMove);
+            
+            int originalAlpha = alpha;
+            int best = -INFINITY;
+            int bestMove = moves[0];
+            for (int i = 0; i < n; i++) {
+                int move = moves[i];
+                int value;
+                if (apply(move)) {
+                    value = WIN - ply - 1;
+                } else if (board.isOver()) {
+                    value = 0;
+                } else {
+                    value = -search(depth - 1, -beta, -alpha, ply + 1);
+                }
+                undo();
+                if (stop) return 0;
+                if (value > best) {
+                    best = value;
+                    bestMove = move;
+                }
+                if (value > alpha) alpha = value;
+                if (alpha >= beta) {
+                    // 剪枝：记为杀手着法，加到历史启发
+                    int[] killer = killers[ply];
+                    if (killer[0] != move) {
+                        killer[1] = killer[0];
+                        killer[0] = move;
+                    }
+                    history[move] += depth * depth;
+                    break;
+                }
+            }
+            
+            int flag = best <= originalAlpha ? UPPER : best >= beta ? LOWER : EXACT;
+            store(bucket, key, symmetry[sym][bestMove], depth, flag, toTable(best, ply));
+            return best;
+        }
+        
+        // 置换表着法最先，然后是杀手着法，其余按历史启发从高到低
+        private void order(int[] moves, int n, int ply, int ttMove) {
+            int[] killer = killers[ply];
+            int[] keysOf = moveScores[ply];
+            for (int i = 0; i < n; i++) {
+                int m = moves[i];
+                int value = history[m];
+                if (m == ttMove) {
+                    value = Integer.MAX_VALUE;
+                } else if (m == killer[0]) {
+                    value = Integer.MAX_VALUE - 2;
+                } else if (m == killer[1]) {
+                    value = Integer.MAX_VALUE - 3;
+                }
+                keysOf[i] = value;
+            }
+            for (int i = 1; i < n; i++) {
+                int m = moves[i];
+                int v = keysOf[i];
+                int j = i - 1;
+                while (j >= 0 && keysOf[j] < v) {
+                    moves[j + 1] = moves[j];
+                    keysOf[j + 1] = keysOf[j];
+                    j--;
+                }
+                moves[j + 1] = m;
+                keysOf[j + 1] = v;
+            }
+        }
+    }
+    
+    // 第一格只在新结果更深或者是旧一轮搜索留下的时候覆盖，否则写到第二格
+    private void store(int bucket, long key, int move, int depth, int flag, int value) {
+        long entry = ((long) value << 32) | ((long) age << 21) | ((long) flag << 19)
+                | ((long) Math.min(depth, 0xFF) << 11) | move;
+        long old = data[bucket];
+        int oldDepth = (int) (old >>> 11) & 0xFF;
+        int oldAge = (int) (old >>> 21) & 0xFF;
+        int slot = (old == 0 || depth >= oldDepth || oldAge != age || (keys[bucket] ^ old) == key) ? bucket : bucket + 1;
+        // 先写数据再写键，读者用异或校验，撕裂的表项会被当作未命中
+        data[slot] = entry;
+        keys[slot] = key ^ entry;
+    }
+    
+    // 获胜分数相对于当前节点保存，取出时再换算回到根的距离
+    private static int toTable(int value, int ply) {
+        if (value >= MATE_BOUND) return value + ply;
+        if (value <= -MATE_BOUND) return value - ply;
+        return value;
+    }
+    
+    private static int fromTable(int value, int ply) {
+        if (value >= MATE_BOUND) return value - ply;
+        if (value <= -MATE_BOUND) return value + ply;
+        return value;
+    }
+}
\ No newline at end of file
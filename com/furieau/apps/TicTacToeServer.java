@@ -0,0 +1,789 @@
+package com.furieau.apps;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * 井字棋对战服务器
+ * 一个 Selector 事件循环处理所有连接；所有对局的状态放在几个数组里，每局一个 int 加一个 long：
+ *   int  - 低 9 位 X 的棋子，接着 9 位 O 的棋子，再 2 位结果（进行中、X 胜、O 胜、平局）
+ *   long - 高 32 位 X 的玩家编号，低 32 位 O 的玩家编号
+ * 轮到谁由棋子总数的奇偶判断，落子的校验和胜负判断只有几次位运算，不分配对象。
+ * 一个连接上可以有多个座位（玩家），每个座位各自排队匹配，压力测试靠这一点在少量连接上跑上万局。
+ *
+ * 消息都是 4 字节：类型、座位号（2 字节）、参数
+ *   客户端 → 服务器：JOIN 排队，MOVE 落子（参数是格子 0~8）
+ *   服务器 → 客户端：START 开局（参数是执子 0=X 1=O），MOVED 有人落子（发给双方，也是给落子方的确认），
+ *                    INVALID 落子无效，END 对局结束（参数是结果）
+ * 默认只监听本机，用 --bind=地址 监听其他网卡。
+ * 用 --connect=主机:端口 启动时作为客户端，用 --bench=局数 启动时做压力测试。
+ */
+public class TicTacToeServer {
+    static final int MESSAGE_BYTES = 4;
+    static final byte JOIN = 1;
+    static final byte MOVE = 2;
+    static final byte START = 3;
+    static final byte MOVED = 4;
+    static final byte INVALID = 5;
+    static final byte END = 6;
+    
+    // 对局结果，也是 END 消息的参数
+    static final int ONGOING = 0;
+    static final int X_WON = 1;
+    static final int O_WON = 2;
+    static final int DRAW = 3;
+    static final int ABANDONED = 4;
+    
+    // 一个连接最多的座位数
+    static final int MAX_SEATS = 1 << 16;
+    
+    private static final int BOARD_MASK = 0x3FFFF;
+    private static final int RESULT_SHIFT = 18;
+    private static final int FULL = 0x1FF;
+    
+    // 客户端积压的待发送数据超过这个大小就断开
+    private static final int MAX_BACKLOG = 4 << 20;
+    
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 << 10);
+    private volatile boolean running = true;
+    
+    // 连接
+    private Connection[] connections = new Connection[64];
+    private final IntStack freeConnections = new IntStack();
+    private int connectionCount;
+    private int[] dirty = new int[64];
+    private int dirtyCount;
+    
+    // 玩家：所属连接、座位号、所在对局（-1 表示没有）、是否在排队
+    private final int maxPlayers;
+    private final int[] playerConnection;
+    private final int[] playerSeat;
+    private final int[] playerGame;
+    private final boolean[] waiting;
+    private final IntStack freePlayers = new IntStack();
+    private int playerCount;
+    
+    // 对局
+    private final int[] gameState;
+    private final long[] gamePlayers;
+    private final IntStack freeGames = new IntStack();
+    private int gameCount;
+    private int activeGames;
+    
+    // 排队的玩家，环形缓冲区；离开的玩家不立即删除，出队时跳过
+    private final int[] queue;
+    private int queueHead;
+    private int queueSize;
+    
+    // 统计
+    private long moves;
+    private long finished;
+    
+    public TicTacToeServer(InetAddress address, int port, int maxPlayers) throws IOException {
+        if (maxPlayers < 2) {
+            throw new IllegalArgumentException("玩家上限太小: " + maxPlayers);
+        }
+        this.maxPlayers = maxPlayers;
+        playerConnection = new int[maxPlayers];
+        playerSeat = new int[maxPlayers];
+        playerGame = new int[maxPlayers];
+        waiting = new boolean[maxPlayers];
+        gameState = new int[maxPlayers / 2];
+        gamePlayers = new long[maxPlayers / 2];
+        queue = new int[maxPlayers * 2];
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(address, port), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+    
+    // 实际监听的端口，端口参数为 0 时由系统分配
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+    
+    /**
+     * 事件循环：读完本轮所有消息后统一配对，最后一次性发出各连接积攒的数据
+     */
+    public void serve() throws IOException {
+        long reportAt = System.nanoTime() + 5_000_000_000L;
+        long lastMoves = 0;
+        long lastFinished = 0;
+        try {
+            while (running) {
+                selector.select(1000);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) accept();
+                        if (key.isValid() && key.isReadable()) read((Connection) key.attachment());
+                        if (key.isValid() && key.isWritable()) write((Connection) key.attachment());
+                    } catch (IOException e) {
+                        disconnect((Connection) key.attachment());
+                    }
+                }
+                match();
+                flush();
+                
+                // 每 5 秒输出一次统计
+                long now = System.nanoTime();
+                if (now - reportAt >= 0) {
+                    System.out.printf("连接 %d 个，玩家 %d 个，进行中 %d 局，每秒落子 %d 步、结束 %d 局%n",
+                            connectionCount, playerCount, activeGames, (moves - lastMoves) / 5, (finished - lastFinished) / 5);
+                    lastMoves = moves;
+                    lastFinished = finished;
+                    reportAt = now + 5_000_000_000L;
+                }
+            }
+        } finally {
+            for (Connection connection : connections) {
+                if (connection != null) connection.channel.close();
+            }
+            server.close();
+            selector.close();
+        }
+    }
+    
+    // 让 serve() 在下一轮循环退出
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+    
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            int id = freeConnections.isEmpty() ? connectionCount : freeConnections.pop();
+            if (id == connections.length) {
+                connections = Arrays.copyOf(connections, id * 2);
+            }
+            Connection connection = new Connection(channel, id);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections[id] = connection;
+            connectionCount++;
+        }
+    }
+    
+    private void read(Connection connection) throws IOException {
+        ByteBuffer in = readBuffer;
+        in.clear();
+        // 上次没凑够一条消息的字节放在前面
+        for (int i = 0; i < connection.partialLength; i++) {
+            in.put(connection.partial[i]);
+        }
+        int n = connection.channel.read(in);
+        if (n < 0) {
+            disconnect(connection);
+            return;
+        }
+        in.flip();
+        while (in.remaining() >= MESSAGE_BYTES) {
+            byte type = in.get();
+            int seat = in.getShort() & 0xFFFF;
+            int arg = in.get();
+            if (type == JOIN) {
+                join(connection, seat);
+            } else if (type == MOVE) {
+                move(connection, seat, arg);
+            } else {
+                disconnect(connection);
+                return;
+            }
+        }
+        connection.partialLength = in.remaining();
+        in.get(connection.partial, 0, connection.partialLength);
+    }
+    
+    // 座位进入排队；已经在排队或对局中时忽略
+    private void join(Connection connection, int seat) {
+        int player = connection.player(seat);
+        if (player < 0) {
+            if (playerCount == maxPlayers) return;
+            player = freePlayers.isEmpty() ? playerCount : freePlayers.pop();
+            playerCount++;
+            playerConnection[player] = connection.id;
+            playerSeat[player] = seat;
+            playerGame[player] = -1;
+            connection.setPlayer(seat, player);
+        }
+        if (waiting[player] || playerGame[player] >= 0) return;
+        waiting[player] = true;
+        queue[(queueHead + queueSize++) % queue.length] = player;
+    }
+    
+    // 两两配对排队的玩家，先到的执 X
+    private void match() {
+        while (true) {
+            int x = dequeue();
+            if (x < 0) return;
+            int o = dequeue();
+            if (o < 0) {
+                // 只剩一个，放回队首
+                queueHead = (queueHead - 1 + queue.length) % queue.length;
+                queue[queueHead] = x;
+                queueSize++;
+                waiting[x] = true;
+                return;
+            }
+            int game = freeGames.isEmpty() ? gameCount++ : freeGames.pop();
+            gameState[game] = 0;
+            gamePlayers[game] = (long) x << 32 | o;
+            playerGame[x] = game;
+            playerGame[o] = game;
+            activeGames++;
+            send(x, START, 0);
+            send(o, START, 1);
+        }
+    }
+    
+    // 取出下一个仍在排队的玩家，没有时返回 -1
+    private int dequeue() {
+        while (queueSize > 0) {
+            int player = queue[queueHead];
+            queueHead = (queueHead + 1) % queue.length;
+            queueSize--;
+            if (waiting[player]) {
+                waiting[player] = false;
+                return player;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * 校验并执行一步棋
+     */
+    private void move(Connection connection, int seat, int cell) {
+        int player = connection.player(seat);
+        int game = player < 0 ? -1 : playerGame[player];
+        if (game < 0 || cell < 0 || cell > 8) {
+            if (player >= 0) send(player, INVALID, cell);
+            return;
+        }
+        int state = gameState[game];
+        long players = gamePlayers[game];
+        int side = (int) (players >>> 32) == player ? 0 : 1;
+        int stones = state & BOARD_MASK;
+        int occupied = (stones | stones >>> 9) & FULL;
+        if ((Integer.bitCount(stones) & 1) != side || (occupied & (1 << cell)) != 0) {
+            send(player, INVALID, cell);
+            return;
+        }
+        state |= 1 << (cell + 9 * side);
+        int own = (state >>> (9 * side)) & FULL;
+        int result = ONGOING;
+        if (TicTacToe.UltimateBoard.hasLine(own)) {
+            result = side == 0 ? X_WON : O_WON;
+        } else if ((occupied | 1 << cell) == FULL) {
+            result = DRAW;
+        }
+        gameState[game] = state | result << RESULT_SHIFT;
+        moves++;
+        int x = (int) (players >>> 32);
+        int o = (int) players;
+        send(x, MOVED, cell);
+        send(o, MOVED, cell);
+        if (result != ONGOING) {
+            send(x, END, result);
+            send(o, END, result);
+            endGame(game);
+        }
+    }
+    
+    private void endGame(int game) {
+        long players = gamePlayers[game];
+        playerGame[(int) (players >>> 32)] = -1;
+        playerGame[(int) players] = -1;
+        freeGames.push(game);
+        activeGames--;
+        finished++;
+    }
+    
+    // 写入玩家所在连接的发送缓冲区，本轮循环结束时统一发出
+    private void send(int player, byte type, int arg) {
+        Connection connection = connections[playerConnection[player]];
+        if (connection == null) return;
+        if (connection.out.remaining() < MESSAGE_BYTES) {
+            int capacity = connection.out.capacity() * 2;
+            if (capacity > MAX_BACKLOG) {
+                // 只能等本轮结束再断开，这里断开会改动正在处理的对局
+                connection.overflow = true;
+                return;
+            }
+            ByteBuffer bigger = ByteBuffer.allocate(capacity);
+            connection.out.flip();
+            bigger.put(connection.out);
+            connection.out = bigger;
+        }
+        connection.out.put(type).putShort((short) playerSeat[player]).put((byte) arg);
+        if (!connection.dirty) {
+            connection.dirty = true;
+            if (dirtyCount == dirty.length) dirty = Arrays.copyOf(dirty, dirtyCount * 2);
+            dirty[dirtyCount++] = connection.id;
+        }
+    }
+    
+    private void flush() {
+        for (int i = 0; i < dirtyCount; i++) {
+            Connection connection = connections[dirty[i]];
+            if (connection == null) continue;
+            connection.dirty = false;
+            try {
+                if (connection.overflow) throw new IOException("客户端接收太慢");
+                write(connection);
+            } catch (IOException e) {
+                disconnect(connection);
+            }
+        }
+        dirtyCount = 0;
+    }
+    
+    private void write(Connection connection) throws IOException {
+        connection.out.flip();
+        connection.channel.write(connection.out);
+        connection.out.compact();
+        connection.key.interestOps(connection.out.position() == 0
+                ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+    
+    // 断开连接：释放它的所有座位，对局中的对手直接获胜
+    private void disconnect(Connection connection) {
+        if (connection == null || connections[connection.id] != connection) return;
+        connections[connection.id] = null;
+        freeConnections.push(connection.id);
+        connectionCount--;
+        for (int seat = 0; seat < connection.seats.length; seat++) {
+            int player = connection.seats[seat];
+            if (player < 0) continue;
+            int game = playerGame[player];
+            if (game >= 0) {
+                long players = gamePlayers[game];
+                int opponent = (int) (players >>> 32) == player ? (int) players : (int) (players >>> 32);
+                send(opponent, END, ABANDONED);
+                endGame(game);
+            }
+            waiting[player] = false;
+            freePlayers.push(player);
+            playerCount--;
+        }
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // 忽略异常
+        }
+    }
+    
+    /**
+     * 一个客户端连接
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        final int id;
+        SelectionKey key;
+        ByteBuffer out = ByteBuffer.allocate(256);
+        boolean dirty;
+        boolean overflow;
+        // 没凑够一条消息的字节
+        final byte[] partial = new byte[MESSAGE_BYTES];
+        int partialLength;
+        // 座位号到玩家编号，按用到的最大座位号扩容
+        int[] seats = {-1};
+        
+        Connection(SocketChannel channel, int id) {
+            this.channel = channel;
+            this.id = id;
+        }
+        
+        int player(int seat) {
+            return seat < seats.length ? seats[seat] : -1;
+        }
+        
+        void setPlayer(int seat, int player) {
+            if (seat >= seats.length) {
+                int length = seats.length;
+                seats = Arrays.copyOf(seats, Integer.highestOneBit(seat) * 2);
+                Arrays.fill(seats, length, seats.length, -1);
+            }
+            seats[seat] = player;
+        }
+    }
+    
+    /**
+     * 不装箱的 int 栈，用作空闲编号表
+     */
+    private static final class IntStack {
+        private int[] items = new int[64];
+        private int size;
+        
+        boolean isEmpty() {
+            return size == 0;
+        }
+        
+        void push(int value) {
+            if (size == items.length) items = Arrays.copyOf(items, size * 2);
+            items[size++] = value;
+        }
+        
+        int pop() {
+            return items[--size];
+        }
+    }
+    
+    /**
+     * 命令行客户端：一个座位，输入 1~9 落子，对局结束后回车再来一局，Q 退出
+     */
+    static final class Client {
+        private final SocketChannel channel;
+        private final DataInputStream in;
+        private final char[] cells = new char[9];
+        private int side = -1;
+        
+        Client(String host, int port) throws IOException {
+            channel = SocketChannel.open(new InetSocketAddress(host, port));
+            channel.socket().setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        }
+        
+        void run() throws IOException {
+            Thread reader = new Thread(this::readKeyboard, "tictactoe-input");
+            reader.setDaemon(true);
+            reader.start();
+            send(JOIN, 0);
+            System.out.println("等待对手...");
+            try {
+                while (true) {
+                    byte type = in.readByte();
+                    in.readShort();
+                    int arg = in.readByte();
+                    switch (type) {
+                        case START:
+                            side = arg;
+                            Arrays.fill(cells, ' ');
+                            System.out.println("对局开始，你执 " + (side == 0 ? 'X' : 'O'));
+                            print(0);
+                            break;
+                        case MOVED: {
+                            int count = 0;
+                            for (char c : cells) if (c != ' ') count++;
+                            cells[arg] = count % 2 == 0 ? 'X' : 'O';
+                            print(count + 1);
+                            break;
+                        }
+                        case INVALID:
+                            System.out.println("这一步无效");
+                            break;
+                        case END:
+                            System.out.println(arg == ABANDONED ? "对手离开了，你获胜！"
+                                    : arg == DRAW ? "平局！" : arg - 1 == side ? "你赢了！" : "你输了！");
+                            System.out.println("回车再来一局，Q 退出");
+                            side = -1;
+                            break;
+                        default:
+                            throw new IOException("未知消息: " + type);
+                    }
+                }
+            } catch (EOFException | ClosedChannelException e) {
+                // 服务器关闭了连接，或者按 Q 退出时关闭了连接
+            } finally {
+                channel.close();
+            }
+        }
+        
+        private void print(int count) {
+            StringBuilder board = new StringBuilder();
+            for (int row = 0; row < 3; row++) {
+                board.append(' ').append(cells[row * 3]).append(" │ ").append(cells[row * 3 + 1])
+                        .append(" │ ").append(cells[row * 3 + 2]).append('\n');
+                if (row < 2) board.append("───┼───┼───\n");
+            }
+            System.out.print(board);
+            if (side >= 0 && count < 9) {
+                System.out.println((count & 1) == side ? "轮到你，输入 1~9 落子（从左上角开始）" : "等待对手落子...");
+            }
+        }
+        
+        private void readKeyboard() {
+            BufferedReader keyboard = new BufferedReader(new InputStreamReader(System.in));
+            try {
+                String line;
+                while ((line = keyboard.readLine()) != null) {
+                    line = line.trim();
+                    if (line.equalsIgnoreCase("q")) break;
+                    if (side < 0) {
+                        send(JOIN, 0);
+                        System.out.println("等待对手...");
+                    } else if (line.length() == 1 && line.charAt(0) >= '1' && line.charAt(0) <= '9') {
+                        send(MOVE, line.charAt(0) - '1');
+                    }
+                }
+                channel.close();
+            } catch (IOException e) {
+                // 忽略输入异常
+            }
+        }
+        
+        // 直接写通道：通道的输入流阻塞读取时持有通道的锁，输出流会被卡住
+        private synchronized void send(byte type, int arg) throws IOException {
+            ByteBuffer message = ByteBuffer.allocate(MESSAGE_BYTES);
+            message.put(type).putShort((short) 0).put((byte) arg).flip();
+            while (message.hasRemaining()) {
+                channel.write(message);
+            }
+        }
+    }
+    
+    /**
+     * 压力测试：用 connections 个连接开 games*2 个座位，所有座位随机落子、下完立即重新排队，
+     * 始终保持约 games 局同时进行。单线程事件循环驱动，记录每一步从发出到收到确认的延迟。
+     */
+    static final class LoadTest {
+        private final Selector selector;
+        private final SocketChannel[] channels;
+        private final ByteBuffer[] outs;
+        private final ByteBuffer in = ByteBuffer.allocateDirect(64 << 10);
+        private final int seatsPerConnection;
+        // 每个座位：本局的棋子（同服务器的低 18 位）、执子、发出落子的时间
+        private final int[] boards;
+        private final int[] sides;
+        private final long[] sentAt;
+        private final int[] partialLength;
+        private final byte[][] partial;
+        // 延迟直方图，单位微秒，最后一格是溢出
+        private final long[] histogram = new long[100_000 + 1];
+        private long latencies;
+        private long games;
+        private long random = 0x9E3779B97F4A7C15L;
+        
+        LoadTest(String host, int port, int games, int connections) throws IOException {
+            if (games < 1 || connections < 1 || games * 2L > (long) connections * MAX_SEATS) {
+                throw new IllegalArgumentException("压力测试参数无效: " + games + " 局，" + connections + " 个连接");
+            }
+            selector = Selector.open();
+            channels = new SocketChannel[connections];
+            outs = new ByteBuffer[connections];
+            seatsPerConnection = (games * 2 + connections - 1) / connections;
+            int seats = seatsPerConnection * connections;
+            boards = new int[seats];
+            sides = new int[seats];
+            sentAt = new long[seats];
+            partialLength = new int[connections];
+            partial = new byte[connections][MESSAGE_BYTES];
+            for (int c = 0; c < connections; c++) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+                channel.socket().setTcpNoDelay(true);
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, c);
+                channels[c] = channel;
+                outs[c] = ByteBuffer.allocateDirect(seatsPerConnection * MESSAGE_BYTES * 4);
+            }
+        }
+        
+        void run(long millis) throws IOException {
+            for (int c = 0; c < channels.length; c++) {
+                for (int s = 0; s < seatsPerConnection; s++) {
+                    outs[c].put(JOIN).putShort((short) s).put((byte) 0);
+                }
+                flush(c);
+            }
+            long start = System.nanoTime();
+            long end = start + millis * 1_000_000L;
+            while (System.nanoTime() < end) {
+                selector.select(100);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    int c = (Integer) key.attachment();
+                    read(c);
+                    flush(c);
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+            selector.close();
+            System.out.printf("%d 个座位（约 %d 局同时进行），%d 个连接，%.1f 秒%n",
+                    boards.length, boards.length / 2, channels.length, nanos / 1e9);
+            System.out.printf("完成 %d 局，每秒 %.0f 局；落子 %d 步，每秒 %.0f 步%n",
+                    games, games * 1e9 / nanos, latencies, latencies * 1e9 / nanos);
+            System.out.printf("落子延迟：p50 %d 微秒，p99 %d 微秒，p99.9 %d 微秒，最长 %d 微秒%n",
+                    percentile(0.5), percentile(0.99), percentile(0.999), percentile(1.0));
+        }
+        
+        private void read(int c) throws IOException {
+            in.clear();
+            in.put(partial[c], 0, partialLength[c]);
+            if (channels[c].read(in) < 0) {
+                throw new EOFException("服务器关闭了连接");
+            }
+            in.flip();
+            long now = System.nanoTime();
+            while (in.remaining() >= MESSAGE_BYTES) {
+                byte type = in.get();
+                int seat = in.getShort() & 0xFFFF;
+                int arg = in.get();
+                int s = c * seatsPerConnection + seat;
+                switch (type) {
+                    case START:
+                        boards[s] = 0;
+                        sides[s] = arg;
+                        if (arg == 0) play(c, seat, s);
+                        break;
+                    case MOVED: {
+                        int stones = boards[s];
+                        int mover = Integer.bitCount(stones) & 1;
+                        boards[s] = stones | 1 << (arg + 9 * mover);
+                        if (mover == sides[s]) {
+                            record(now - sentAt[s]);
+                        } else if (Integer.bitCount(boards[s]) < 9 && !TicTacToe.UltimateBoard.hasLine(boards[s] >>> (9 * mover))) {
+                            // 对手刚落子且对局没有结束，轮到自己
+                            play(c, seat, s);
+                        }
+                        break;
+                    }
+                    case INVALID:
+                        break;
+                    case END:
+                        if (sides[s] == 0 || arg == ABANDONED) games++;
+                        sides[s] = -1;
+                        outs[c].put(JOIN).putShort((short) seat).put((byte) 0);
+                        break;
+                    default:
+                        throw new IOException("未知消息: " + type);
+                }
+            }
+            partialLength[c] = in.remaining();
+            in.get(partial[c], 0, partialLength[c]);
+        }
+        
+        // 随机选一个空位落子
+        private void play(int c, int seat, int s) {
+            int stones = boards[s];
+            int empty = ~(stones | stones >>> 9) & FULL;
+            int pick = nextInt(Integer.bitCount(empty));
+            for (; pick > 0; pick--) {
+                empty &= empty - 1;
+            }
+            sentAt[s] = System.nanoTime();
+            outs[c].put(MOVE).putShort((short) seat).put((byte) Integer.numberOfTrailingZeros(empty));
+        }
+        
+        private void flush(int c) throws IOException {
+            ByteBuffer out = outs[c];
+            out.flip();
+            while (out.hasRemaining()) {
+                channels[c].write(out);
+            }
+            out.clear();
+        }
+        
+        private void record(long nanos) {
+            histogram[(int) Math.min(nanos / 1000, histogram.length - 1)]++;
+            latencies++;
+        }
+        
+        private long percentile(double p) {
+            long rank = (long) Math.ceil(p * latencies);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank && seen > 0) return i;
+            }
+            return 0;
+        }
+        
+        // SplitMix64，与竞技场相同
+        private int nextInt(int bound) {
+            long z = (random += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z ^= z >>> 31;
+            return (int) (((z >>> 32) * bound) >>> 32);
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int port = 7778;
+        int maxPlayers = 1 << 16;
+        String bind = null;
+        String connect = null;
+        int benchGames = 0;
+        int benchConnections = 100;
+        long benchMillis = 10_000;
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--players=")) {
+                maxPlayers = Integer.parseInt(arg.substring("--players=".length()));
+            } else if (arg.startsWith("--bind=")) {
+                bind = arg.substring("--bind=".length());
+            } else if (arg.startsWith("--connect=")) {
+                connect = arg.substring("--connect=".length());
+            } else if (arg.startsWith("--bench=")) {
+                benchGames = Integer.parseInt(arg.substring("--bench=".length()));
+            } else if (arg.startsWith("--connections=")) {
+                benchConnections = Integer.parseInt(arg.substring("--connections=".length()));
+            } else if (arg.startsWith("--seconds=")) {
+                benchMillis = Long.parseLong(arg.substring("--seconds=".length())) * 1000;
+            } else {
+                throw new IllegalArgumentException("未知参数: " + arg);
+            }
+        }
+        
+        // 默认只监听本机
+        InetAddress address = bind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind);
+        String host = address.getHostAddress();
+        if (connect != null) {
+            int colon = connect.lastIndexOf(':');
+            host = colon < 0 ? connect : connect.substring(0, colon);
+            port = colon < 0 ? port : Integer.parseInt(connect.substring(colon + 1));
+        }
+        
+        if (benchGames > 0) {
+            // 没有指定服务器时在本进程里启动一个
+            TicTacToeServer local = null;
+            Thread thread = null;
+            if (connect == null) {
+                local = new TicTacToeServer(address, 0, Math.max(maxPlayers, benchGames * 2));
+                port = local.port();
+                TicTacToeServer serving = local;
+                thread = new Thread(() -> {
+                    try {
+                        serving.serve();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }, "tictactoe-server");
+                thread.start();
+            }
+            new LoadTest(host, port, benchGames, benchConnections).run(benchMillis);
+            if (local != null) {
+                local.stop();
+                thread.join();
+            }
+            return;
+        }
+        
+        if (connect != null) {
+            new Client(host, port).run();
+            return;
+        }
+        
+        System.out.println("井字棋对战服务器启动，" + host + " 端口 " + port);
+        new TicTacToeServer(address, port, maxPlayers).serve();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,416 @@
+package com.furieau.apps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * 3×3、4×4 TicTacToe 的完美残局库
+ * 局面按格子编号写成三进制数（0 空、1 X、2 O，第 c 格是第 c 位），这个数就是表中的下标，
+ * 每个局面一个字节：高 2 位是轮到的一方的胜负，低 6 位是最优对局下还剩几步结束，0 表示不可达。
+ * 生成时按棋子数分层：先从空棋盘向前标出所有可达局面，再从满棋盘一层层倒推回空棋盘，
+ * 每一层内的局面互不依赖，并行计算。
+ * 运行时把文件映射到内存，查一个局面只读一个字节，不需要预热也不占用堆。
+ * 打开时只检查文件头和长度；整张表的校验和要读遍整个文件，放在 verify() 里，生成之后和 --verify 时才做。
+ *
+ * 文件格式（大端）：
+ *   "TTTB"，版本号 int，棋盘边长 int，连线长度 int，局面数 long，可达局面数 long，
+ *   之后所有表项的 CRC32 int，保留 int，然后是每个局面一个字节
+ */
+public final class TicTacToeTablebase {
+    private static final int MAGIC = 0x54545442;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 40;
+    
+    // 最大 4×4，3^16 个局面约 43MB
+    public static final int MAX_SIZE = 4;
+    
+    // 表项的高 2 位
+    public static final int WIN = 1 << 6;
+    public static final int LOSS = 2 << 6;
+    public static final int DRAW = 3 << 6;
+    private static final int VALUE_MASK = 3 << 6;
+    private static final int DISTANCE_MASK = 0x3F;
+    // 生成过程中标记“可达但还没算出结果”
+    private static final byte REACHED = 1;
+    
+    private final int size;
+    private final int k;
+    private final int cells;
+    private final long reachable;
+    // 文件头里记录的表项校验和
+    private final int crc;
+    private final MappedByteBuffer table;
+    private final int[] pow3;
+    
+    private TicTacToeTablebase(int size, int k, long reachable, int crc, MappedByteBuffer table) {
+        this.size = size;
+        this.k = k;
+        this.cells = size * size;
+        this.reachable = reachable;
+        this.crc = crc;
+        this.table = table;
+        this.pow3 = powersOfThree(cells);
+    }
+    
+    /**
+     * 映射残局库文件，检查文件头和长度，不读表项
+     */
+    public static TicTacToeTablebase open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                // 读满文件头
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IOException("不是残局库文件: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("不支持的残局库版本: " + version);
+            }
+            int size = header.getInt();
+            int k = header.getInt();
+            long entries = header.getLong();
+            long reachable = header.getLong();
+            int crc = header.getInt();
+            if (size < 1 || size > MAX_SIZE || k < 1 || k > size || entries != powersOfThree(size * size)[size * size]) {
+                throw new IOException("残局库文件头无效: " + file);
+            }
+            if (channel.size() != HEADER_BYTES + entries) {
+                throw new IOException("残局库文件长度不对，可能没有写完: " + file);
+            }
+            MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, entries);
+            return new TicTacToeTablebase(size, k, reachable, crc, table);
+        }
+    }
+    
+    /**
+     * 计算整张表的 CRC32 并和文件头比较，会读遍整个文件
+     */
+    public void verify() throws IOException {
+        CRC32 check = new CRC32();
+        check.update(table.duplicate());
+        if ((int) check.getValue() != crc) {
+            throw new IOException("残局库校验和不符");
+        }
+    }
+    
+    // 默认的文件名，例如 tictactoe-3x3-k3.tb
+    public static File defaultFile(int size, int k) {
+        return new File("tictactoe-" + size + "x" + size + "-k" + k + ".tb");
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public int k() {
+        return k;
+    }
+    
+    public long reachable() {
+        return reachable;
+    }
+    
+    // 局面在表中的下标
+    public int index(TicTacToe.Board board) {
+        int index = 0;
+        for (int c = 0; c < cells; c++) {
+            int stone = board.stone(c);
+            if (stone != TicTacToe.Board.NONE) {
+                index += (stone + 1) * pow3[c];
+            }
+        }
+        return index;
+    }
+    
+    /**
+     * 查当前局面，返回表项（WIN/LOSS/DRAW 加剩余步数），不可达的局面返回 0
+     */
+    public int probe(TicTacToe.Board board) {
+        check(board);
+        return table.get(index(board)) & 0xFF;
+    }
+    
+    public static int value(int entry) {
+        return entry & VALUE_MASK;
+    }
+    
+    public static int distance(int entry) {
+        return entry & DISTANCE_MASK;
+    }
+    
+    /**
+     * 完美的一步：能赢时选最快赢的，不能赢时选和棋，必败时选拖得最久的
+     */
+    public int bestMove(TicTacToe.Board board) {
+        check(board);
+        if (board.isOver()) {
+            throw new IllegalStateException("对局已经结束");
+        }
+        int index = index(board);
+        int step = board.toMove() + 1;
+        int best = -1;
+        int bestRank = Integer.MIN_VALUE;
+        for (int c = 0; c < cells; c++) {
+            if (!board.isEmpty(c)) continue;
+            int child = table.get(index + step * pow3[c]) & 0xFF;
+            int rank = rank(child);
+            if (rank > bestRank) {
+                bestRank = rank;
+                best = c;
+            }
+        }
+        return best;
+    }
+    
+    // 站在落子一方看子局面的好坏：对方必败最好，越快越好；和棋其次；对方必胜最差，越慢越好
+    private static int rank(int child) {
+        switch (value(child)) {
+            case LOSS:
+                return 2000 - distance(child);
+            case DRAW:
+                return 1000;
+            case WIN:
+                return distance(child);
+            default:
+                return Integer.MIN_VALUE;
+        }
+    }
+    
+    private void check(TicTacToe.Board board) {
+        if (board.size() != size || board.k() != k) {
+            throw new IllegalArgumentException("棋盘大小与残局库不一致");
+        }
+    }
+    
+    private static int[] powersOfThree(int cells) {
+        int[] pow3 = new int[cells + 1];
+        pow3[0] = 1;
+        for (int i = 1; i <= cells; i++) {
+            pow3[i] = pow3[i - 1] * 3;
+        }
+        return pow3;
+    }
+    
+    /**
+     * 生成残局库并写入文件，返回可达局面数
+     */
+    public static long generate(int size, int k, File out) throws IOException {
+        if (size < 1 || size > MAX_SIZE || k < 1 || k > size) {
+            throw new IllegalArgumentException("残局库只支持 4×4 以内的棋盘: " + size + "×" + size + "，" + k + " 子连线");
+        }
+        int cells = size * size;
+        int[] pow3 = powersOfThree(cells);
+        int total = pow3[cells];
+        long[] lines = lineMasks(size, k);
+        
+        // 每个下标的棋子数：去掉最低一位后的棋子数加上最低一位
+        byte[] layer = new byte[total];
+        for (int i = 1; i < total; i++) {
+            layer[i] = (byte) (layer[i / 3] + (i % 3 != 0 ? 1 : 0));
+        }
+        
+        // 向前：从空棋盘出发标出所有可达局面，已经分出胜负的局面不再往下走
+        byte[] table = new byte[total];
+        table[0] = REACHED;
+        for (int n = 0; n < cells; n++) {
+            int stones = n;
+            int step = (n & 1) + 1;
+            forEachInLayer(total, layer, stones, i -> {
+                if (table[i] != REACHED) return;
+                long[] masks = masks(i, cells);
+                if (won(masks[(stones - 1) & 1], lines, stones)) return;
+                for (int c = 0; c < cells; c++) {
+                    if (((masks[0] | masks[1]) >>> c & 1) == 0) {
+                        // 同一个字节只会被写成同一个值，并发写没有问题
+                        table[i + step * pow3[c]] = REACHED;
+                    }
+                }
+            });
+        }
+        
+        // 倒推：从满棋盘开始，每个局面的结果由下一层的子局面决定
+        for (int n = cells; n >= 0; n--) {
+            int stones = n;
+            int step = (n & 1) + 1;
+            forEachInLayer(total, layer, stones, i -> {
+                if (table[i] != REACHED) return;
+                long[] masks = masks(i, cells);
+                if (stones > 0 && won(masks[(stones - 1) & 1], lines, stones)) {
+                    table[i] = (byte) LOSS;
+                    return;
+                }
+                if (stones == cells) {
+                    table[i] = (byte) DRAW;
+                    return;
+                }
+                int winIn = Integer.MAX_VALUE;
+                int lossIn = -1;
+                boolean draw = false;
+                for (int c = 0; c < cells; c++) {
+                    if (((masks[0] | masks[1]) >>> c & 1) != 0) continue;
+                    int child = table[i + step * pow3[c]] & 0xFF;
+                    int d = distance(child);
+                    switch (value(child)) {
+                        case LOSS:
+                            winIn = Math.min(winIn, d);
+                            break;
+                        case DRAW:
+                            draw = true;
+                            break;
+                        default:
+                            lossIn = Math.max(lossIn, d);
+                            break;
+                    }
+                }
+                if (winIn != Integer.MAX_VALUE) {
+                    table[i] = (byte) (WIN | (winIn + 1));
+                } else if (draw) {
+                    table[i] = (byte) (DRAW | (cells - stones));
+                } else {
+                    table[i] = (byte) (LOSS | (lossIn + 1));
+                }
+            });
+        }
+        
+        long reachable = IntStream.range(0, total).parallel().filter(i -> table[i] != 0).count();
+        CRC32 crc = new CRC32();
+        crc.update(table, 0, total);
+        
+        // 先写到临时文件再改名，中途失败不会留下半个残局库
+        File tmp = new File(out.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.BIG_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(k);
+            header.putLong(total).putLong(reachable).putInt((int) crc.getValue()).putInt(0);
+            header.flip();
+            while (header.hasRemaining()) channel.write(header);
+            ByteBuffer body = ByteBuffer.wrap(table);
+            while (body.hasRemaining()) channel.write(body);
+            channel.force(true);
+        }
+        if (out.exists() && !out.delete() || !tmp.renameTo(out)) {
+            throw new IOException("无法写入残局库文件: " + out);
+        }
+        return reachable;
+    }
+    
+    private interface IndexAction {
+        void run(int index);
+    }
+    
+    // 并行处理某一层（棋子数为 stones）的所有下标，按块分给各个线程
+    private static void forEachInLayer(int total, byte[] layer, int stones, IndexAction action) {
+        int chunk = 1 << 16;
+        IntStream.range(0, (total + chunk - 1) / chunk).parallel().forEach(block -> {
+            int end = Math.min(total, (block + 1) * chunk);
+            for (int i = block * chunk; i < end; i++) {
+                if (layer[i] == stones) action.run(i);
+            }
+        });
+    }
+    
+    // 把三进制下标拆成 X 和 O 的位图
+    private static long[] masks(int index, int cells) {
+        long x = 0;
+        long o = 0;
+        for (int c = 0; c < cells; c++) {
+            int digit = index % 3;
+            index /= 3;
+            if (digit == 1) {
+                x |= 1L << c;
+            } else if (digit == 2) {
+                o |= 1L << c;
+            }
+        }
+        return new long[] {x, o};
+    }
+    
+    private static boolean won(long mask, long[] lines, int stones) {
+        if (stones == 0) return false;
+        for (long line : lines) {
+            if ((mask & line) == line) return true;
+        }
+        return false;
+    }
+    
+    // 所有长度为 K 的连线的位图
+    private static long[] lineMasks(int size, int k) {
+        int[] dx = {1, 0, 1, 1};
+        int[] dy = {0, 1, 1, -1};
+        List<Long> lines = new ArrayList<>();
+        for (int d = 0; d < 4; d++) {
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    int ex = x + dx[d] * (k - 1);
+                    int ey = y + dy[d] * (k - 1);
+                    if (ex < 0 || ex >= size || ey < 0 || ey >= size) continue;
+                    long line = 0;
+                    for (int i = 0; i < k; i++) {
+                        line |= 1L << ((y + dy[d] * i) * size + x + dx[d] * i);
+                    }
+                    lines.add(line);
+                }
+            }
+        }
+        long[] masks = new long[lines.size()];
+        for (int i = 0; i < masks.length; i++) {
+            masks[i] = lines.get(i);
+        }
+        return masks;
+    }
+    
+    // 生成残局库：--size=N --k=K --out=文件，加 --verify 时不生成，只检查已有文件的校验和
+    public static void main(String[] args) throws IOException {
+        int size = 3;
+        int k = 0;
+        String out = null;
+        boolean verifyOnly = false;
+        for (String arg : args) {
+            if (arg.startsWith("--size=")) {
+                size = Integer.parseInt(arg.substring("--size=".length()));
+            } else if (arg.startsWith("--k=")) {
+                k = Integer.parseInt(arg.substring("--k=".length()));
+            } else if (arg.startsWith("--out=")) {
+                out = arg.substring("--out=".length());
+            } else if (arg.equals("--verify")) {
+                verifyOnly = true;
+            } else {
+                throw new IllegalArgumentException("未知参数: " + arg);
+            }
+        }
+        if (k == 0) k = TicTacToe.defaultWinLength(size);
+        File file = out != null ? new File(out) : defaultFile(size, k);
+        
+        if (verifyOnly) {
+            long start = System.nanoTime();
+            TicTacToeTablebase tablebase = open(file);
+            tablebase.verify();
+            System.out.printf("%s 校验通过：%d×%d %d 子连线，%d 个可达局面，用时 %.2f 秒%n", file, tablebase.size(),
+                    tablebase.size(), tablebase.k(), tablebase.reachable(), (System.nanoTime() - start) / 1e9);
+            return;
+        }
+        
+        long start = System.nanoTime();
+        long reachable = generate(size, k, file);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        TicTacToeTablebase tablebase = open(file);
+        tablebase.verify();
+        int root = tablebase.probe(new TicTacToe.Board(size, k));
+        String result = value(root) == WIN ? "先手必胜" : value(root) == LOSS ? "后手必胜" : "和棋";
+        System.out.printf("%d×%d %d 子连线：%d 个可达局面，空棋盘%s（%d 步），用时 %.2f 秒，写入 %s%n",
+                size, size, k, reachable, result, distance(root), seconds, file);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,407 @@
+package com.furieau.apps;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * TicTacToe 策略的循环赛，不经过交互界面，用来调 AI 的参数
+ * 每对策略执先、执后各下 games 局。所有对局按编号切块交给 ForkJoinPool，空闲线程自动窃取剩下的块；
+ * 每个工作线程有自己的策略实例、棋盘和从根随机数拆分出来的独立随机数流，
+ * 一块下完后把本地计数一次性加到共享的原子数组里，下棋过程中不加锁也不竞争。
+ * 最后输出胜/和/负矩阵、按全部结果拟合的 Elo 和每秒局数。
+ */
+public final class TicTacToeTournament {
+    // 每块的局数，太小时调度开销明显，太大时负载不均
+    private static final int CHUNK = 4096;
+    // 拟合 Elo 时每对选手之间额外加一局虚拟和棋，避免全胜或全负的选手分数发散
+    private static final double PRIOR_DRAWS = 1;
+    
+    /**
+     * 一个策略：为当前轮到的一方选一步棋
+     * 每个工作线程有自己的实例，不需要线程安全
+     */
+    public interface Strategy {
+        int move(TicTacToe.Board board);
+    }
+    
+    /**
+     * 为一个工作线程创建策略实例
+     */
+    public interface Factory {
+        Strategy create(int size, int k, SplittableRandom random);
+    }
+    
+    private final int size;
+    private final int k;
+    private final List<String> names = new ArrayList<>();
+    private final List<Factory> factories = new ArrayList<>();
+    
+    public TicTacToeTournament(int size, int k) {
+        // 借用 Board 的构造函数检查棋盘参数
+        new TicTacToe.Board(size, k);
+        this.size = size;
+        this.k = k;
+    }
+    
+    public void add(String name, Factory factory) {
+        names.add(name);
+        factories.add(factory);
+    }
+    
+    /**
+     * 按名字添加内置策略：random、greedy、ai:毫秒、tablebase[:文件]
+     */
+    public void add(String spec) throws IOException {
+        int colon = spec.indexOf(':');
+        String kind = colon < 0 ? spec : spec.substring(0, colon);
+        String arg = colon < 0 ? null : spec.substring(colon + 1);
+        switch (kind) {
+            case "random":
+                add(spec, (s, n, random) -> board -> randomMove(board, random));
+                break;
+            case "greedy":
+                add(spec, (s, n, random) -> board -> greedyMove(board, random));
+                break;
+            case "ai": {
+                long millis = arg == null ? 1 : Long.parseLong(arg);
+                // 每个线程一个单线程的 AI，置换表在各局之间保留
+                add(spec, (s, n, random) -> {
+                    TicTacToeAI ai = new TicTacToeAI(s, n, 16, 1);
+                    return board -> ai.search(board, millis).move;
+                });
+                break;
+            }
+            case "tablebase": {
+                // 映射的残局库只读，所有线程共用一份
+                TicTacToeTablebase tablebase = TicTacToeTablebase.open(
+                        arg == null ? TicTacToeTablebase.defaultFile(size, k) : new File(arg));
+                if (tablebase.size() != size || tablebase.k() != k) {
+                    throw new IllegalArgumentException("残局库与棋盘大小不一致: " + spec);
+                }
+                add(spec, (s, n, random) -> tablebase::bestMove);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("未知策略: " + spec + "（可选 random、greedy、ai:毫秒、tablebase[:文件]）");
+        }
+    }
+    
+    /**
+     * 循环赛的结果
+     * results[i][j] 是 i 执 X、j 执 O 的对局中 X 胜、和、O 胜的局数
+     */
+    public static final class Result {
+        public final List<String> names;
+        public final long[][][] results;
+        public final double[] elo;
+        public final long games;
+        public final long nanos;
+        
+        Result(List<String> names, long[][][] results, double[] elo, long games, long nanos) {
+            this.names = names;
+            this.results = results;
+            this.elo = elo;
+            this.games = games;
+            this.nanos = nanos;
+        }
+        
+        public double gamesPerSecond() {
+            return nanos == 0 ? 0 : games * 1e9 / nanos;
+        }
+        
+        // i 对 j 的胜、和、负（两种先后手合计）
+        public long[] record(int i, int j) {
+            return new long[] {
+                results[i][j][0] + results[j][i][2],
+                results[i][j][1] + results[j][i][1],
+                results[i][j][2] + results[j][i][0]
+            };
+        }
+        
+        @Override
+        public String toString() {
+            int n = names.size();
+            String[][] cells = new String[n][n];
+            int label = 0;
+            int width = 0;
+            for (int i = 0; i < n; i++) {
+                label = Math.max(label, names.get(i).length() + 2);
+                width = Math.max(width, names.get(i).length() + 2);
+                for (int j = 0; j < n; j++) {
+                    long[] r = i == j ? null : record(i, j);
+                    cells[i][j] = r == null ? "-" : r[0] + "-" + r[1] + "-" + r[2];
+                    width = Math.max(width, cells[i][j].length() + 2);
+                }
+            }
+            StringBuilder out = new StringBuilder();
+            out.append(String.format("%d 局，%.1f 秒，每秒 %.0f 局%n", games, nanos / 1e9, gamesPerSecond()));
+            out.append("胜-和-负（行对列，先后手合计）\n");
+            out.append(pad("", label));
+            for (String name : names) out.append(pad(name, width));
+            out.append("Elo\n");
+            for (int i = 0; i < n; i++) {
+                out.append(pad(names.get(i), label));
+                for (int j = 0; j < n; j++) {
+                    out.append(pad(cells[i][j], width));
+                }
+                out.append(String.format("%.0f%n", elo[i]));
+            }
+            return out.toString();
+        }
+        
+        private static String pad(String text, int width) {
+            StringBuilder out = new StringBuilder(text);
+            while (out.length() < width) out.append(' ');
+            return out.toString();
+        }
+    }
+    
+    /**
+     * 每对策略执先、执后各下 games 局
+     * @param threads 工作线程数
+     * @param seed 根随机数种子，各线程的随机数流从它拆分
+     */
+    public Result run(long games, int threads, long seed) {
+        int players = names.size();
+        if (players < 2) {
+            throw new IllegalStateException("至少需要两个策略");
+        }
+        int pairs = players * (players - 1);
+        long total = games * pairs;
+        // 每个有序对三个计数：X 胜、和、O 胜
+        AtomicLongArray counts = new AtomicLongArray(pairs * 3);
+        SplittableRandom root = new SplittableRandom(seed);
+        ThreadLocal<Worker> local = ThreadLocal.withInitial(() -> {
+            synchronized (root) {
+                return new Worker(root.split(), players);
+            }
+        });
+        
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.invoke(new Games(0, total, games, local, counts));
+        } finally {
+            pool.shutdown();
+        }
+        long nanos = System.nanoTime() - start;
+        
+        long[][][] results = new long[players][players][3];
+        int pair = 0;
+        for (int i = 0; i < players; i++) {
+            for (int j = 0; j < players; j++) {
+                if (i == j) continue;
+                for (int r = 0; r < 3; r++) {
+                    results[i][j][r] = counts.get(pair * 3 + r);
+                }
+                pair++;
+            }
+        }
+        return new Result(new ArrayList<>(names), results, elo(results), total, nanos);
+    }
+    
+    /**
+     * 一段连续编号的对局；编号除以 games 得到是哪一对，超过 CHUNK 局就对半拆开
+     */
+    private final class Games extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        final long from;
+        final long to;
+        final long games;
+        final ThreadLocal<Worker> local;
+        final AtomicLongArray counts;
+        
+        Games(long from, long to, long games, ThreadLocal<Worker> local, AtomicLongArray counts) {
+            this.from = from;
+            this.to = to;
+            this.games = games;
+            this.local = local;
+            this.counts = counts;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from > CHUNK) {
+                long middle = (from + to) >>> 1;
+                invokeAll(new Games(from, middle, games, local, counts), new Games(middle, to, games, local, counts));
+                return;
+            }
+            Worker worker = local.get();
+            long[] tally = worker.tally;
+            Arrays.fill(tally, 0L);
+            for (long g = from; g < to; g++) {
+                int pair = (int) (g / games);
+                int result = worker.play(pair);
+                tally[pair * 3 + result]++;
+            }
+            for (int i = 0; i < tally.length; i++) {
+                if (tally[i] != 0) counts.getAndAdd(i, tally[i]);
+            }
+        }
+    }
+    
+    /**
+     * 一个工作线程的状态
+     */
+    private final class Worker {
+        final TicTacToe.Board board = new TicTacToe.Board(size, k);
+        final Strategy[] strategies;
+        // 有序对编号到 X、O 两方的策略下标
+        final int[] xOf;
+        final int[] oOf;
+        final long[] tally;
+        
+        Worker(SplittableRandom random, int players) {
+            strategies = new Strategy[players];
+            for (int i = 0; i < players; i++) {
+                strategies[i] = factories.get(i).create(size, k, random.split());
+            }
+            int pairs = players * (players - 1);
+            xOf = new int[pairs];
+            oOf = new int[pairs];
+            int pair = 0;
+            for (int i = 0; i < players; i++) {
+                for (int j = 0; j < players; j++) {
+                    if (i == j) continue;
+                    xOf[pair] = i;
+                    oOf[pair] = j;
+                    pair++;
+                }
+            }
+            tally = new long[pairs * 3];
+        }
+        
+        // 下一局，返回 0 X 胜、1 和棋、2 O 胜
+        int play(int pair) {
+            Strategy x = strategies[xOf[pair]];
+            Strategy o = strategies[oOf[pair]];
+            board.reset();
+            while (!board.isOver()) {
+                board.apply((board.toMove() == TicTacToe.Board.X ? x : o).move(board));
+            }
+            int winner = board.winner();
+            return winner == TicTacToe.Board.X ? 0 : winner == TicTacToe.Board.O ? 2 : 1;
+        }
+    }
+    
+    static int randomMove(TicTacToe.Board board, SplittableRandom random) {
+        int[] moves = MOVES.get();
+        int n = board.legalMoves(moves);
+        return moves[random.nextInt(n)];
+    }
+    
+    // 能赢就赢，对方下一步能赢就堵，否则随机
+    static int greedyMove(TicTacToe.Board board, SplittableRandom random) {
+        int[] moves = MOVES.get();
+        int n = board.legalMoves(moves);
+        for (int i = 0; i < n; i++) {
+            boolean won = board.apply(moves[i]);
+            board.undo();
+            if (won) return moves[i];
+        }
+        // 对方下一步能赢的位置：先替自己随便填一步（上面已确认自己没有一步制胜，这步不会结束对局），
+        // 再让对方试这个空位；填的那颗子是己方的，不影响对方能否连成线
+        if (n >= 2) {
+            for (int i = 0; i < n; i++) {
+                board.apply(moves[i == 0 ? 1 : 0]);
+                boolean lost = board.apply(moves[i]);
+                board.undo();
+                board.undo();
+                if (lost) return moves[i];
+            }
+        }
+        return moves[random.nextInt(n)];
+    }
+    
+    // 着法缓冲区，每个线程一份
+    private static final ThreadLocal<int[]> MOVES = ThreadLocal.withInitial(
+            () -> new int[TicTacToe.Board.MAX_SIZE * TicTacToe.Board.MAX_SIZE]);
+    
+    /**
+     * 按全部对局拟合 Elo（Bradley-Terry 模型，和棋算半局），平均分定为 1500
+     */
+    static double[] elo(long[][][] results) {
+        int n = results.length;
+        double[][] games = new double[n][n];
+        double[] score = new double[n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i == j) continue;
+                long[] r = results[i][j];
+                double played = r[0] + r[1] + r[2];
+                games[i][j] += played + PRIOR_DRAWS;
+                games[j][i] += played + PRIOR_DRAWS;
+                score[i] += r[0] + r[1] * 0.5 + PRIOR_DRAWS * 0.5;
+                score[j] += r[2] + r[1] * 0.5 + PRIOR_DRAWS * 0.5;
+            }
+        }
+        // 最小化-最大化迭代：gamma_i = 得分 / sum(对局数 / (gamma_i + gamma_j))
+        double[] gamma = new double[n];
+        Arrays.fill(gamma, 1);
+        for (int iteration = 0; iteration < 10_000; iteration++) {
+            double change = 0;
+            for (int i = 0; i < n; i++) {
+                double denominator = 0;
+                for (int j = 0; j < n; j++) {
+                    if (i != j) denominator += games[i][j] / (gamma[i] + gamma[j]);
+                }
+                double updated = score[i] / denominator;
+                change = Math.max(change, Math.abs(Math.log(updated / gamma[i])));
+                gamma[i] = updated;
+            }
+            if (change < 1e-9) break;
+        }
+        double[] elo = new double[n];
+        double mean = 0;
+        for (int i = 0; i < n; i++) {
+            elo[i] = 400 * Math.log10(gamma[i]);
+            mean += elo[i] / n;
+        }
+        for (int i = 0; i < n; i++) {
+            elo[i] += 1500 - mean;
+        }
+        return elo;
+    }
+    
+    public static void main(String[] args) throws IOException {
+        int size = 3;
+        int k = 0;
+        long games = 100_000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = System.nanoTime();
+        String players = "random,greedy";
+        for (String arg : args) {
+            if (arg.startsWith("--size=")) {
+                size = Integer.parseInt(arg.substring("--size=".length()));
+            } else if (arg.startsWith("--k=")) {
+                k = Integer.parseInt(arg.substring("--k=".length()));
+            } else if (arg.startsWith("--games=")) {
+                games = Long.parseLong(arg.substring("--games=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(arg.substring("--seed=".length()));
+            } else if (arg.startsWith("--players=")) {
+                players = arg.substring("--players=".length());
+            } else {
+                throw new IllegalArgumentException("未知参数: " + arg);
+            }
+        }
+        if (k == 0) k = TicTacToe.defaultWinLength(size);
+        
+        TicTacToeTournament tournament = new TicTacToeTournament(size, k);
+        for (String spec : players.split(",")) {
+            tournament.add(spec.trim());
+        }
+        System.out.println(size + "×" + size + " 棋盘，" + k + " 子连线，每对先后手各 " + games + " 局，" + threads + " 个线程");
+        System.out.print(tournament.run(games, threads, seed));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,356 @@
+package com.furieau.apps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 超级井字棋的电脑棋手：蒙特卡洛树搜索（UCT）
+ * - 树并行：所有线程共享一棵树，不加锁。下行时先给经过的节点加一次访问（虚拟损失），
+ *   结果回来之前这条路看起来更差，其他线程自然会去探索别的分支
+ * - 节点池：节点不是对象，而是几组预先分配的数组里的下标，一个节点的所有子节点连续存放，
+ *   展开时用 CAS 抢占节点并一次分配整块，每个节点 BYTES_PER_NODE 字节
+ * - 复用：下一次搜索时沿双方实际走的棋找到新的根，把这棵子树压缩到池的开头，之前的模拟不浪费
+ * 池满以后不再展开，只继续在已有的叶子上模拟。
+ */
+public final class UltimateMCTS {
+    // 着法 1 + 子节点数 1 + 第一个子节点 4 + 访问次数和得分 8
+    public static final int BYTES_PER_NODE = 14;
+    
+    // first[] 的取值：0 表示还没展开（根节点固定在 0，不会是任何节点的子节点），-1 表示正在展开
+    private static final int UNEXPANDED = 0;
+    private static final int EXPANDING = -1;
+    // 叶子被访问到这么多次才展开，省下只被模拟过一次的节点
+    private static final int EXPAND_VISITS = 2;
+    private static final double EXPLORATION = 1.0;
+    
+    // stats[] 的高 32 位是访问次数，低 32 位是得分（赢 2 分，平 1 分），一次原子加法同时更新
+    private static final long VISIT = 1L << 32;
+    private static final long SCORE_MASK = 0xFFFFFFFFL;
+    
+    private final int capacity;
+    private final byte[] moves;
+    private final byte[] counts;
+    private final AtomicIntegerArray first;
+    private final AtomicLongArray stats;
+    private final AtomicInteger next = new AtomicInteger(1);
+    private volatile boolean full;
+    
+    private final ForkJoinPool pool;
+    private final Worker[] workers;
+    private final TicTacToe.UltimateBoard root = new TicTacToe.UltimateBoard();
+    private volatile long deadline;
+    
+    /**
+     * @param capacity 节点池的大小
+     * @param threads 搜索线程数
+     */
+    public UltimateMCTS(int capacity, int threads) {
+        if (capacity <= TicTacToe.UltimateBoard.CELLS) {
+            throw new IllegalArgumentException("节点池太小: " + capacity);
+        }
+        this.capacity = capacity;
+        moves = new byte[capacity];
+        counts = new byte[capacity];
+        first = new AtomicIntegerArray(capacity);
+        stats = new AtomicLongArray(capacity);
+        threads = Math.max(1, threads);
+        pool = new ForkJoinPool(threads);
+        workers = new Worker[threads];
+        SplittableRandom random = new SplittableRandom(0x9E3779B97F4A7C15L);
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(random.split());
+        }
+    }
+    
+    // 默认 2^22 个节点（约 56MB），使用全部 CPU
+    public UltimateMCTS() {
+        this(1 << 22, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * 搜索的结果和统计
+     */
+    public static final class Result {
+        public final int move;
+        // 选中的着法的访问次数和胜率（平局算半局）
+        public final long visits;
+        public final double winRate;
+        // 本次搜索的模拟次数，以及从上一步复用来的模拟次数
+        public final long playouts;
+        public final long reused;
+        public final long nanos;
+        // 树中的节点数和节点池大小
+        public final int nodes;
+        public final int capacity;
+        
+        Result(int move, long visits, double winRate, long playouts, long reused, long nanos, int nodes, int capacity) {
+            this.move = move;
+            this.visits = visits;
+            this.winRate = winRate;
+            this.playouts = playouts;
+            this.reused = reused;
+            this.nanos = nanos;
+            this.nodes = nodes;
+            this.capacity = capacity;
+        }
+        
+        public double playoutsPerSecond() {
+            return nanos == 0 ? 0 : playouts * 1e9 / nanos;
+        }
+        
+        // 每一百万个节点占用的内存，单位 MB
+        public static double megabytesPerMillionNodes() {
+            return BYTES_PER_NODE * 1e6 / (1 << 20);
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("胜率 %.1f%%，%d 次模拟（复用 %d），%.0f 次/秒，%d/%d 节点（%.1fMB/百万节点）",
+                    winRate * 100, playouts, reused, playoutsPerSecond(), nodes, capacity, megabytesPerMillionNodes());
+        }
+    }
+    
+    /**
+     * 为当前轮到的一方找一步棋，搜索 millis 毫秒
+     * 如果 board 是上一次搜索的局面往后走了几步，沿这几步复用已有的子树
+     */
+    public Result search(TicTacToe.UltimateBoard board, long millis) {
+        if (board.isOver()) {
+            throw new IllegalStateException("对局已经结束");
+        }
+        long start = System.nanoTime();
+        if (!reuse(board)) {
+            clear();
+            root.copyFrom(board);
+        }
+        long reused = visits(stats.get(0));
+        deadline = start + millis * 1_000_000L;
+        
+        List<Callable<Void>> tasks = new ArrayList<>(workers.length);
+        for (Worker worker : workers) {
+            tasks.add(worker);
+        }
+        pool.invokeAll(tasks);
+        
+        // 选访问次数最多的子节点，它的估值最可靠
+        int begin = first.get(0);
+        int best = begin;
+        for (int c = begin; c < begin + counts[0]; c++) {
+            if (visits(stats.get(c)) > visits(stats.get(best))) {
+                best = c;
+            }
+        }
+        long s = stats.get(best);
+        long v = visits(s);
+        double winRate = v == 0 ? 0 : (s & SCORE_MASK) / (2.0 * v);
+        long playouts = visits(stats.get(0)) - reused;
+        return new Result(moves[best], v, winRate, playouts, reused, System.nanoTime() - start, next.get(), capacity);
+    }
+    
+    // 丢掉整棵树
+    public void clear() {
+        first.set(0, UNEXPANDED);
+        stats.set(0, 0);
+        next.set(1);
+        full = false;
+        root.reset();
+    }
+    
+    private static long visits(long stat) {
+        return stat >>> 32;
+    }
+    
+    /**
+     * board 比树根多走了几步时，沿着这几步找到新的根并压缩子树
+     * @return 是否复用成功
+     */
+    private boolean reuse(TicTacToe.UltimateBoard board) {
+        int played = root.moveCount();
+        if (board.moveCount() < played || first.get(0) <= 0) return false;
+        for (int i = 0; i < played; i++) {
+            if (board.moveAt(i) != root.moveAt(i)) return false;
+        }
+        int node = 0;
+        for (int i = played; i < board.moveCount(); i++) {
+            node = child(node, board.moveAt(i));
+            if (node < 0) return false;
+        }
+        if (node != 0) {
+            compact(node);
+            root.copyFrom(board);
+        }
+        return true;
+    }
+    
+    private int child(int node, int move) {
+        int begin = first.get(node);
+        if (begin <= 0) return -1;
+        for (int c = begin; c < begin + counts[node]; c++) {
+            if (moves[c] == move) return c;
+        }
+        return -1;
+    }
+    
+    /**
+     * 把以 node 为根的子树移到池的开头
+     * 子节点块总是在父节点之后分配，所以按原位置从小到大搬动时目标位置不会超过原位置，
+     * 可以原地搬，不需要第二个池；额外的内存只有每个已展开节点一项。
+     */
+    private void compact(int node) {
+        // 收集子树里所有子节点块，高位是起点，低 8 位是大小
+        long[] blocks = new long[64];
+        int count = 0;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = node;
+        while (top > 0) {
+            int n = stack[--top];
+            int begin = first.get(n);
+            if (begin <= 0) continue;
+            if (count == blocks.length) blocks = Arrays.copyOf(blocks, count * 2);
+            blocks[count++] = (long) begin << 8 | counts[n];
+            for (int c = begin; c < begin + counts[n]; c++) {
+                if (first.get(c) > 0) {
+                    if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                    stack[top++] = c;
+                }
+            }
+        }
+        Arrays.sort(blocks, 0, count);
+        
+        // 新的根放在 0，各块按原来的顺序紧排在后面
+        int[] begins = new int[count];
+        int[] targets = new int[count];
+        int target = 1;
+        for (int i = 0; i < count; i++) {
+            begins[i] = (int) (blocks[i] >>> 8);
+            targets[i] = target;
+            target += (int) (blocks[i] & 0xFF);
+        }
+        move(node, 0, begins, targets);
+        for (int i = 0; i < count; i++) {
+            int size = (int) (blocks[i] & 0xFF);
+            for (int j = 0; j < size; j++) {
+                move(begins[i] + j, targets[i] + j, begins, targets);
+            }
+        }
+        next.set(target);
+        full = false;
+    }
+    
+    // 搬动一个节点，指向子节点块的下标换成块的新位置
+    private void move(int from, int to, int[] begins, int[] targets) {
+        int begin = first.get(from);
+        if (begin > 0) {
+            begin = targets[Arrays.binarySearch(begins, begin)];
+        }
+        moves[to] = moves[from];
+        counts[to] = counts[from];
+        first.set(to, begin);
+        stats.set(to, stats.get(from));
+    }
+    
+    /**
+     * 一个搜索线程：自己的棋盘副本、路径和随机数
+     */
+    private final class Worker implements Callable<Void> {
+        final TicTacToe.UltimateBoard board = new TicTacToe.UltimateBoard();
+        final int[] path = new int[TicTacToe.UltimateBoard.CELLS + 1];
+        final int[] legal = new int[TicTacToe.UltimateBoard.CELLS];
+        final SplittableRandom random;
+        
+        Worker(SplittableRandom random) {
+            this.random = random;
+        }
+        
+        @Override
+        public Void call() {
+            do {
+                // 每次查看时间的开销不小，一批模拟查一次
+                for (int i = 0; i < 64; i++) {
+                    iterate();
+                }
+            } while (System.nanoTime() < deadline);
+            return null;
+        }
+        
+        private void iterate() {
+            board.copyFrom(root);
+            int node = 0;
+            int depth = 0;
+            path[depth++] = 0;
+            stats.getAndAdd(0, VISIT);
+            while (!board.isOver()) {
+                int begin = first.get(node);
+                if (begin <= 0) {
+                    if (begin == EXPANDING || full || visits(stats.get(node)) < EXPAND_VISITS || !expand(node)) break;
+                    begin = first.get(node);
+                }
+                node = select(node, begin);
+                stats.getAndAdd(node, VISIT);
+                board.apply(moves[node]);
+                path[depth++] = node;
+            }
+            while (!board.isOver()) {
+                board.apply(board.randomMove(random.nextInt()));
+            }
+            // 节点的得分站在走进这个节点的一方看，即父节点轮到的一方
+            int winner = board.winner();
+            int mover = root.toMove();
+            for (int i = 1; i < depth; i++) {
+                long score = winner == TicTacToe.Board.NONE ? 1 : winner == mover ? 2 : 0;
+                if (score != 0) stats.getAndAdd(path[i], score);
+                mover ^= 1;
+            }
+        }
+        
+        // UCT：平均得分加上探索项，没访问过的子节点优先
+        private int select(int node, int begin) {
+            int end = begin + counts[node];
+            double logParent = Math.log(visits(stats.get(node)));
+            int best = begin;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int c = begin; c < end; c++) {
+                long s = stats.get(c);
+                long v = visits(s);
+                if (v == 0) return c;
+                double value = (s & SCORE_MASK) / (2.0 * v) + EXPLORATION * Math.sqrt(logParent / v);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = c;
+                }
+            }
+            return best;
+        }
+        
+        // 抢到展开权的线程分配一整块子节点，初始化后再发布给其他线程
+        private boolean expand(int node) {
+            if (!first.compareAndSet(node, UNEXPANDED, EXPANDING)) return false;
+            int n = board.legalMoves(legal);
+            int begin;
+            do {
+                begin = next.get();
+                if (begin + n > capacity) {
+                    full = true;
+                    first.set(node, UNEXPANDED);
+                    return false;
+                }
+            } while (!next.compareAndSet(begin, begin + n));
+            for (int i = 0; i < n; i++) {
+                moves[begin + i] = (byte) legal[i];
+                first.lazySet(begin + i, UNEXPANDED);
+                stats.lazySet(begin + i, 0);
+            }
+            counts[node] = (byte) n;
+            first.set(node, begin);
+            return true;
+        }
+    }
+}
\ No newline at end of file
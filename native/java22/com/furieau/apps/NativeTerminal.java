@@ -0,0 +1,151 @@
+package com.furieau.apps;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+/**
+ * 通过外部函数接口直接调用 libc 的 tcgetattr/tcsetattr/ioctl，
+ * 切换原始模式和读取终端大小都不再启动 stty 进程。
+ * 需要 Linux 和 Java 22 及以上，所以放在单独的源码目录 native/java22 里，只在需要 native 后端时
+ * 用 JDK 22 另外编译到同一个输出目录（见 README）。ConsoleInput 用反射加载它，加载失败时退回 stty。
+ * 运行时加 --enable-native-access=ALL-UNNAMED 可以去掉 JDK 的警告。
+ */
+final class NativeTerminal implements ConsoleInput.Terminal {
+    // glibc 的 struct termios：4 个 32 位标志，1 字节 c_line，c_cc[32]，两个速率，共 60 字节
+    private static final long TERMIOS_SIZE = 60;
+    private static final long C_OFLAG = 4;
+    private static final long C_CC = 17;
+    private static final int VTIME = 5;
+    private static final int VMIN = 6;
+    private static final int TCSANOW = 0;
+    // x86_64 和 aarch64 相同
+    private static final long TIOCGWINSZ = 0x5413;
+    private static final int STDIN = 0;
+    
+    private final MethodHandle isatty;
+    private final MethodHandle tcgetattr;
+    private final MethodHandle tcsetattr;
+    private final MethodHandle cfmakeraw;
+    private final MethodHandle ioctl;
+    private final MemorySegment saved;
+    private boolean raw;
+    // 进入原始模式时设的 VTIME
+    private byte deciseconds;
+    
+    NativeTerminal() {
+        if (!System.getProperty("os.name", "").startsWith("Linux")) {
+            throw new UnsupportedOperationException("native 输入后端只支持 Linux");
+        }
+        Linker linker = Linker.nativeLinker();
+        SymbolLookup libc = linker.defaultLookup();
+        isatty = linker.downcallHandle(libc.find("isatty").orElseThrow(),
+                FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+        tcgetattr = linker.downcallHandle(libc.find("tcgetattr").orElseThrow(),
+                FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS));
+        tcsetattr = linker.downcallHandle(libc.find("tcsetattr").orElseThrow(),
+                FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS));
+        cfmakeraw = linker.downcallHandle(libc.find("cfmakeraw").orElseThrow(),
+                FunctionDescriptor.ofVoid(ADDRESS));
+        // ioctl 是变参函数，第三个参数起是可变部分
+        ioctl = linker.downcallHandle(libc.find("ioctl").orElseThrow(),
+                FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_LONG, ADDRESS),
+                Linker.Option.firstVariadicArg(2));
+        saved = Arena.global().allocate(TERMIOS_SIZE, 8);
+    }
+    
+    @Override
+    public synchronized void enterRaw(int timeoutMillis) throws IOException {
+        try {
+            if ((int) isatty.invokeExact(STDIN) == 0) {
+                throw new IOException("标准输入不是终端");
+            }
+            if ((int) tcgetattr.invokeExact(STDIN, saved) != 0) {
+                throw new IOException("tcgetattr 失败");
+            }
+            try (Arena arena = Arena.ofConfined()) {
+                MemorySegment termios = arena.allocate(TERMIOS_SIZE, 8);
+                termios.copyFrom(saved);
+                cfmakeraw.invokeExact(termios);
+                // 保留原来的输出处理（换行补回车），按行打印的游戏在原始模式下也能正常换行
+                termios.set(JAVA_INT, C_OFLAG, saved.get(JAVA_INT, C_OFLAG));
+                // 没有按键时 read() 最多等待 VTIME 个 0.1 秒
+                deciseconds = (byte) Math.max(1, Math.min(255, timeoutMillis / 100));
+                termios.set(JAVA_BYTE, C_CC + VMIN, (byte) 0);
+                termios.set(JAVA_BYTE, C_CC + VTIME, deciseconds);
+                if ((int) tcsetattr.invokeExact(STDIN, TCSANOW, termios) != 0) {
+                    throw new IOException("tcsetattr 失败");
+                }
+            }
+            raw = true;
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException(e);
+        }
+    }
+    
+    @Override
+    public synchronized void setBlocking(boolean blocking) throws IOException {
+        if (!raw) return;
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment termios = arena.allocate(TERMIOS_SIZE, 8);
+            if ((int) tcgetattr.invokeExact(STDIN, termios) != 0) {
+                throw new IOException("tcgetattr 失败");
+            }
+            // 阻塞时 VMIN=1、VTIME=0，至少读到一个字节才返回
+            termios.set(JAVA_BYTE, C_CC + VMIN, (byte) (blocking ? 1 : 0));
+            termios.set(JAVA_BYTE, C_CC + VTIME, blocking ? (byte) 0 : deciseconds);
+            if ((int) tcsetattr.invokeExact(STDIN, TCSANOW, termios) != 0) {
+                throw new IOException("tcsetattr 失败");
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException(e);
+        }
+    }
+    
+    @Override
+    public synchronized void restore() throws IOException {
+        if (!raw) return;
+        raw = false;
+        try {
+            if ((int) tcsetattr.invokeExact(STDIN, TCSANOW, saved) != 0) {
+                throw new IOException("tcsetattr 失败");
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException(e);
+        }
+    }
+    
+    @Override
+    public int[] size() {
+        // struct winsize：行、列、横向像素、纵向像素，各 16 位
+        try (Arena arena = Arena.ofConfined()) {
+            MemorySegment winsize = arena.allocate(8, 2);
+            for (int fd = 0; fd <= 2; fd++) {
+                if ((int) ioctl.invokeExact(fd, TIOCGWINSZ, winsize) == 0) {
+                    int rows = winsize.get(JAVA_SHORT, 0) & 0xFFFF;
+                    int columns = winsize.get(JAVA_SHORT, 2) & 0xFFFF;
+                    if (rows > 0 && columns > 0) return new int[] {rows, columns};
+                }
+            }
+        } catch (Throwable e) {
+            // 取不到时由调用方退回其他方式
+        }
+        return null;
+    }
+}
\ No newline at end of file